@@ -0,0 +1,259 @@
+/*
+ * count, min, max, sum and groupBy over the rows of a TableSnapshot that match a select.
+ * <p/>
+ * When the aggregated column (or, for count, the single predicate's column) has an index that
+ * answers the predicates, the answer comes from the index: each bucket holds the rows of one
+ * value, so counting is done per bucket and at most one row per bucket is read for its value.
+ * min and max walk an ordered index from the matching end and stop at the first bucket with a
+ * visible row. Other queries are answered in one pass over the matching row ids, without
+ * creating a DataObject per row.
+ * <p/>
+ * Floating-point addition depends on its order, so a DOUBLE sum always adds the matching
+ * rows one at a time in row id order, however they were found. It comes out the same with or
+ * without an index.
+ */
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+final class Aggregator {
+
+    private final TableSnapshot s;
+    private final String[] columns;
+    private final String[] values;
+    private final DbTable.CompareType[] ctype;
+
+    /**
+     * @throws IllegalArgumentException if the lengths of columns, values and ctype do not match
+     */
+    Aggregator(TableSnapshot s, String[] columns, String[] values, DbTable.CompareType[] ctype)
+            throws IllegalArgumentException {
+        if (columns.length != values.length || values.length != ctype.length) {
+            throw new IllegalArgumentException("Parameters are not the same length");
+        }
+        this.s = s;
+        this.columns = columns;
+        this.values = values;
+        this.ctype = ctype;
+    }
+
+    long count() {
+        if (columns.length == 0) {
+            return s.liveCount;
+        }
+        Iterable<IntList> buckets = indexBuckets(columns[0], false, false);
+        long count = 0;
+        if (buckets != null) {
+            for (IntList bucket : buckets) {
+                count += visibleCount(bucket);
+            }
+            return count;
+        }
+        RowCursor cursor = cursor();
+        while (cursor.nextRowId() >= 0) {
+            count++;
+        }
+        return count;
+    }
+
+    String min(String column) {
+        return extreme(column, false);
+    }
+
+    String max(String column) {
+        return extreme(column, true);
+    }
+
+    /**
+     * @return A Long for INT and LONG columns, a Double for DOUBLE columns
+     * @throws IllegalArgumentException if column is not an INT, LONG or DOUBLE column
+     */
+    Number sum(String column) throws IllegalArgumentException {
+        Column values = s.store.column(slotOf(column));
+        DbTable.ColumnType type = values.type();
+        if (type != DbTable.ColumnType.INT && type != DbTable.ColumnType.LONG && type != DbTable.ColumnType.DOUBLE) {
+            throw new IllegalArgumentException("Cannot sum a " + type + " column");
+        }
+        Iterable<IntList> buckets = indexBuckets(column, false, false);
+        if (type == DbTable.ColumnType.DOUBLE) {
+            return sumInRowOrder((DoubleColumn) values, buckets);
+        }
+        long sum = 0;
+        if (buckets != null) {
+            // Every row of a bucket holds the same value
+            for (IntList bucket : buckets) {
+                int row = firstVisible(bucket);
+                if (row >= 0) {
+                    sum += longValue(values, row) * visibleCount(bucket);
+                }
+            }
+        } else {
+            RowCursor cursor = cursor();
+            for (int row = cursor.nextRowId(); row >= 0; row = cursor.nextRowId()) {
+                sum += longValue(values, row);
+            }
+        }
+        return sum;
+    }
+
+    // Adds up the matching rows of a DOUBLE column in row id order, finding them through the
+    // index buckets if there are any. Index buckets, and the rows of a plan driven by an index,
+    // come in key order, so they are gathered into a bitmap first.
+    private double sumInRowOrder(DoubleColumn values, Iterable<IntList> buckets) {
+        RowBitmap rows = new RowBitmap();
+        if (buckets != null) {
+            for (IntList bucket : buckets) {
+                for (int i = 0; i < bucket.size(); i++) {
+                    if (s.isVisible(bucket.get(i))) {
+                        rows.add(bucket.get(i));
+                    }
+                }
+            }
+        } else {
+            RowCursor cursor = cursor();
+            for (int row = cursor.nextRowId(); row >= 0; row = cursor.nextRowId()) {
+                rows.add(row);
+            }
+        }
+        double sum = 0;
+        for (int row = rows.nextSetBit(0); row >= 0; row = rows.nextSetBit(row + 1)) {
+            sum += values.getDouble(row);
+        }
+        return sum;
+    }
+
+    /**
+     * @return Number of matching rows holding each value of column, in the column's value order
+     */
+    LinkedHashMap<String, Long> groupBy(String column) {
+        final Column values = s.store.column(slotOf(column));
+        LinkedHashMap<String, Long> groups = new LinkedHashMap<String, Long>();
+        Iterable<IntList> buckets = indexBuckets(column, true, false);
+        if (buckets != null) {
+            for (IntList bucket : buckets) {
+                int row = firstVisible(bucket);
+                if (row >= 0) {
+                    groups.put(values.get(row), (long) visibleCount(bucket));
+                }
+            }
+            return groups;
+        }
+
+        // Count by value, remembering one row of each value to sort the groups by
+        HashMap<String, long[]> counts = new HashMap<String, long[]>();
+        RowCursor cursor = cursor();
+        for (int row = cursor.nextRowId(); row >= 0; row = cursor.nextRowId()) {
+            String value = values.get(row);
+            long[] count = counts.get(value);
+            if (count == null) {
+                count = new long[]{0, row};
+                counts.put(value, count);
+            }
+            count[0]++;
+        }
+        ArrayList<long[]> sorted = new ArrayList<long[]>(counts.values());
+        Collections.sort(sorted, new Comparator<long[]>() {
+            @Override
+            public int compare(long[] a, long[] b) {
+                return values.compareRows((int) a[1], (int) b[1]);
+            }
+        });
+        for (long[] count : sorted) {
+            groups.put(values.get((int) count[1]), count[0]);
+        }
+        return groups;
+    }
+
+    // Finds the smallest or largest value of column among the matching rows
+    private String extreme(String column, boolean largest) {
+        Column values = s.store.column(slotOf(column));
+        Iterable<IntList> buckets = indexBuckets(column, true, largest);
+        if (buckets != null) {
+            for (IntList bucket : buckets) {
+                int row = firstVisible(bucket);
+                if (row >= 0) {
+                    return values.get(row);
+                }
+            }
+            return null;
+        }
+        int best = -1;
+        RowCursor cursor = cursor();
+        for (int row = cursor.nextRowId(); row >= 0; row = cursor.nextRowId()) {
+            if (best < 0 || (largest ? values.compareRows(row, best) > 0 : values.compareRows(row, best) < 0)) {
+                best = row;
+            }
+        }
+        return best < 0 ? null : values.get(best);
+    }
+
+    // Returns the buckets of column's index that hold exactly the matching rows, or null if
+    // the predicates cannot be answered from that index alone. With ordered set, the buckets
+    // come in key order (from the largest key down if descending), or null is returned.
+    private Iterable<IntList> indexBuckets(String column, boolean ordered, boolean descending) {
+        Index index = s.indexes.get(column);
+        if (index == null || (ordered && !index.isOrdered())) {
+            return null;
+        }
+        if (columns.length == 0) {
+            return index.isOrdered() ? index.buckets(descending) : index.allBuckets();
+        }
+        if (columns.length != 1 || !columns[0].equals(column) || ctype[0] == DbTable.CompareType.NotEqual
+                || values[0] == null || (DbTable.isRange(ctype[0]) && !index.isOrdered())) {
+            return null;
+        }
+        return index.buckets(ctype[0], values[0], descending);
+    }
+
+    // Number of rows in a bucket that are visible in s. Rows added after s are at the end of
+    // the bucket, and if no row was deleted as of s every earlier one is visible.
+    private int visibleCount(IntList bucket) {
+        int n = bucket.size();
+        while (n > 0 && bucket.get(n - 1) >= s.rowCount) {
+            n--;
+        }
+        if (s.liveCount == s.rowCount) {
+            return n;
+        }
+        int count = 0;
+        for (int i = 0; i < n; i++) {
+            if (s.isVisible(bucket.get(i))) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private int firstVisible(IntList bucket) {
+        for (int i = 0; i < bucket.size(); i++) {
+            int row = bucket.get(i);
+            if (row >= s.rowCount) {
+                break;
+            }
+            if (s.isVisible(row)) {
+                return row;
+            }
+        }
+        return -1;
+    }
+
+    private RowCursor cursor() {
+        return s.table.cursor(s, columns, values, ctype, Integer.MAX_VALUE);
+    }
+
+    private int slotOf(String column) throws IllegalArgumentException {
+        int slot = s.store.slotOf(column);
+        if (slot < 0) {
+            throw new IllegalArgumentException("No such column: " + column);
+        }
+        return slot;
+    }
+
+    private static long longValue(Column values, int row) {
+        return values instanceof IntColumn ? ((IntColumn) values).getInt(row) : ((LongColumn) values).getLong(row);
+    }
+}
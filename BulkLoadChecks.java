@@ -0,0 +1,81 @@
+/*
+ * Checks of BulkLoader, run by Checks: a CSV file with CRLF line endings, rows with invalid
+ * values, and a file several chunks long.
+ */
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+public class BulkLoadChecks {
+
+    static void run() throws IOException {
+        crlfHeader();
+        bulkLoadOfManyChunks();
+    }
+
+    // A CRLF header must not leave '\r' on the last column name
+    private static void crlfHeader() throws IOException {
+        File file = File.createTempFile("checks", ".csv");
+        try {
+            FileOutputStream out = new FileOutputStream(file);
+            try {
+                out.write("name,id\r\na,1\r\nb,x\r\nc,3\r\n".getBytes("UTF-8"));
+            } finally {
+                out.close();
+            }
+            ArrayList<DbTable.ColumnType> types = new ArrayList<DbTable.ColumnType>(
+                    Arrays.asList(DbTable.ColumnType.STRING, DbTable.ColumnType.INT));
+            BulkLoader.Result result = BulkLoader.load(file.getPath(), types, "id");
+            Checks.check("CRLF header, rejected rows", "[line 3: Not a valid INT: x]", result.rejected().toString());
+            ArrayList<DataObject> found = result.table().select(new String[]{"id"}, new String[]{"3"},
+                    new DbTable.CompareType[]{DbTable.CompareType.Equal});
+            Checks.check("CRLF header, select on last column", "[c]", Checks.names(found));
+        } catch (IllegalArgumentException e) {
+            Checks.check("CRLF header", "loaded", e.getMessage());
+        } finally {
+            file.delete();
+        }
+    }
+
+    // A file several chunks long loads every good row once, and reports bad rows by their
+    // line in the whole file
+    private static void bulkLoadOfManyChunks() throws IOException {
+        File file = File.createTempFile("checks", ".csv");
+        try {
+            int lines = 600000;
+            StringBuilder text = new StringBuilder("name,n,note\n");
+            FileOutputStream out = new FileOutputStream(file);
+            try {
+                for (int i = 0; i < lines; i++) {
+                    String n = i % 150000 == 7 ? "x" + i : String.valueOf(i);
+                    text.append('r').append(i).append(',').append(n).append(",padding to spread the rows over several chunks\n");
+                    if (text.length() > (1 << 20)) {
+                        out.write(text.toString().getBytes("UTF-8"));
+                        text.setLength(0);
+                    }
+                }
+                out.write(text.toString().getBytes("UTF-8"));
+            } finally {
+                out.close();
+            }
+            ArrayList<DbTable.ColumnType> types = new ArrayList<DbTable.ColumnType>(Arrays.asList(
+                    DbTable.ColumnType.STRING, DbTable.ColumnType.INT, DbTable.ColumnType.STRING));
+            BulkLoader.Result result = BulkLoader.load(file.getPath(), types, "n");
+            Checks.check("bulk load of many chunks, file size", "true",
+                    String.valueOf(file.length() > 2L * BulkLoader.CHUNK_SIZE));
+            Checks.check("bulk load of many chunks, rows", String.valueOf(lines - 4),
+                    String.valueOf(result.table().snapshot().size()));
+            Checks.check("bulk load of many chunks, rejected",
+                    "[line 9: Not a valid INT: x7, line 150009: Not a valid INT: x150007, "
+                    + "line 300009: Not a valid INT: x300007, line 450009: Not a valid INT: x450007]",
+                    result.rejected().toString());
+            Checks.check("bulk load of many chunks, index", "[r599999]", Checks.names(result.table().select(
+                    new String[]{"n"}, new String[]{"599998"}, new DbTable.CompareType[]{DbTable.CompareType.GreaterThan})));
+        } finally {
+            file.delete();
+        }
+    }
+}
@@ -0,0 +1,290 @@
+/*
+ * Loads a CSV table file (in the format written by DbTable.writeToFile) at close to disk speed.
+ * <p/>
+ * The file is split into chunks on line boundaries. Chunks are read through NIO and parsed in
+ * parallel, then appended to the table in file order, one batch per chunk. Only a window of
+ * chunks a little larger than the number of parsing threads is in flight at a time, and each
+ * is appended as soon as it is its turn, so the parsed rows held in memory stay bounded
+ * however large the file is. Requested indexes
+ * are built once after all rows are in, by sorting each column's distinct values, instead of
+ * being updated row by row. Rows with the wrong number of fields, or with a value their
+ * column's type does not accept, are skipped and reported with their line numbers.
+ */
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
+
+public class BulkLoader {
+
+    // Bytes of the file handed to one parsing task
+    public static final int CHUNK_SIZE = 16 << 20;
+
+    private BulkLoader() {
+    }
+
+    /**
+     * Outcome of a bulk load
+     */
+    public static class Result {
+        private final DbTable table;
+        private final long rowsLoaded;
+        private final List<String> rejected;
+        private final long elapsedNanos;
+
+        Result(DbTable table, long rowsLoaded, List<String> rejected, long elapsedNanos) {
+            this.table = table;
+            this.rowsLoaded = rowsLoaded;
+            this.rejected = rejected;
+            this.elapsedNanos = elapsedNanos;
+        }
+
+        public DbTable table() {
+            return table;
+        }
+
+        public long rowsLoaded() {
+            return rowsLoaded;
+        }
+
+        /**
+         * @return One message per skipped row, such as "line 17: expected 3 fields, found 2"
+         */
+        public List<String> rejected() {
+            return rejected;
+        }
+
+        public long elapsedNanos() {
+            return elapsedNanos;
+        }
+
+        public double rowsPerSecond() {
+            return elapsedNanos == 0 ? 0 : rowsLoaded * 1e9 / elapsedNanos;
+        }
+
+        @Override
+        public String toString() {
+            return "Loaded " + rowsLoaded + " rows in " + (elapsedNanos / 1e9) + " sec ("
+                    + Math.round(rowsPerSecond()) + " rows/sec), rejected " + rejected.size();
+        }
+    }
+
+    /**
+     * Loads a CSV table file and builds an ORDERED index on each of indexColumns
+     *
+     * @param inputFileName Name of the file to read
+     * @param indexColumns  Columns to index once the rows are loaded
+     * @return The loaded table, with load statistics and rejected rows
+     * @throws IOException if the file cannot be read
+     * @throws IllegalArgumentException if the file has no header line, or an index column is not in it
+     */
+    public static Result load(String inputFileName, String... indexColumns)
+            throws IOException, IllegalArgumentException {
+        return load(inputFileName, null, indexColumns);
+    }
+
+    /**
+     * Loads a CSV table file into a table whose columns have the given types, and builds an
+     * ORDERED index on each of indexColumns. Rows holding a value that is not valid for its
+     * column's type are rejected.
+     *
+     * @param inputFileName Name of the file to read
+     * @param columnTypes   Type of each column, in header order; null makes every column STRING
+     * @param indexColumns  Columns to index once the rows are loaded
+     * @return The loaded table, with load statistics and rejected rows
+     * @throws IOException if the file cannot be read
+     * @throws IllegalArgumentException if the file has no header line, columnTypes does not have
+     * one type per header column, or an index column is not in the header
+     */
+    public static Result load(String inputFileName, ArrayList<DbTable.ColumnType> columnTypes, String... indexColumns)
+            throws IOException, IllegalArgumentException {
+        long start = System.nanoTime();
+        RandomAccessFile file = new RandomAccessFile(inputFileName, "r");
+        try {
+            final FileChannel channel = file.getChannel();
+            long length = channel.size();
+
+            // The header line holds the column names
+            long headerEnd = nextLineStart(channel, 0, length);
+            if (headerEnd == 0) {
+                throw new IllegalArgumentException("Missing header line in " + inputFileName);
+            }
+            byte[] headerBytes = read(channel, 0, (int) Math.min(headerEnd, Integer.MAX_VALUE));
+            int headerLength = lineEnd(headerBytes, 0, headerBytes.length);
+            if (headerLength > 0 && headerBytes[headerLength - 1] == '\r') {
+                headerLength--;
+            }
+            ArrayList<String> columnNames = new ArrayList<String>();
+            Collections.addAll(columnNames, splitLine(headerBytes, 0, headerLength));
+            final int columnCount = columnNames.size();
+            DbTable table = new DbTable(columnNames, columnTypes);
+            final ColumnStore store = table.snapshot().store;
+            for (String column : indexColumns) {
+                if (!columnNames.contains(column)) {
+                    throw new IllegalArgumentException("Cannot create an index on a non-existent column");
+                }
+            }
+
+            // Cut the rest of the file into chunks that start at the beginning of a line
+            ArrayList<Long> bounds = new ArrayList<Long>();
+            bounds.add(headerEnd);
+            for (long at = headerEnd + CHUNK_SIZE; at < length; at += CHUNK_SIZE) {
+                long lineStart = nextLineStart(channel, at, length);
+                if (lineStart > bounds.get(bounds.size() - 1) && lineStart < length) {
+                    bounds.add(lineStart);
+                }
+            }
+            bounds.add(length);
+
+            // Keep a window of chunks being parsed, and append them in file order as they
+            // finish, translating chunk-relative line numbers
+            int window = ForkJoinPool.commonPool().getParallelism() + 1;
+            ArrayDeque<CompletableFuture<Chunk>> parsing = new ArrayDeque<CompletableFuture<Chunk>>();
+            int next = 0;
+            long rows = 0;
+            long line = 2;
+            ArrayList<String> rejected = new ArrayList<String>();
+            while (next + 1 < bounds.size() || !parsing.isEmpty()) {
+                while (parsing.size() < window && next + 1 < bounds.size()) {
+                    final long from = bounds.get(next);
+                    final long to = bounds.get(next + 1);
+                    parsing.add(CompletableFuture.supplyAsync(() -> parse(channel, from, to, columnCount, store)));
+                    next++;
+                }
+                Chunk chunk = parsing.remove().join();
+                if (chunk.failure != null) {
+                    throw chunk.failure;
+                }
+                // parse has already validated the rows
+                table.appendValidatedRows(chunk.rows);
+                rows += chunk.rows.size();
+                for (int i = 0; i < chunk.badLines.size(); i++) {
+                    rejected.add("line " + (line + chunk.badLines.get(i)) + ": " + chunk.badReasons.get(i));
+                }
+                line += chunk.lines;
+            }
+
+            for (String column : indexColumns) {
+                table.createIndex(column);
+            }
+            return new Result(table, rows, rejected, System.nanoTime() - start);
+        } finally {
+            file.close();
+        }
+    }
+
+    // Rows parsed from one chunk of the file
+    private static class Chunk {
+        final ArrayList<String[]> rows = new ArrayList<String[]>();
+        final IntList badLines = new IntList();
+        final ArrayList<String> badReasons = new ArrayList<String>();
+        int lines;
+        IOException failure;
+    }
+
+    // Parses the lines of a chunk, checking each row's values against the columns of store
+    private static Chunk parse(FileChannel channel, long from, long to, int columnCount, ColumnStore store) {
+        Chunk chunk = new Chunk();
+        byte[] bytes;
+        try {
+            bytes = read(channel, from, (int) (to - from));
+        } catch (IOException e) {
+            chunk.failure = e;
+            return chunk;
+        }
+        int pos = 0;
+        while (pos < bytes.length) {
+            int end = lineEnd(bytes, pos, bytes.length);
+            int next = end < bytes.length ? end + 1 : end;
+            if (end > pos && bytes[end - 1] == '\r') {
+                end--;
+            }
+            if (end > pos) {
+                String[] values = splitLine(bytes, pos, end);
+                if (values.length != columnCount) {
+                    chunk.badLines.add(chunk.lines);
+                    chunk.badReasons.add("expected " + columnCount + " fields, found " + values.length);
+                } else {
+                    try {
+                        store.validate(values);
+                        chunk.rows.add(values);
+                    } catch (IllegalArgumentException e) {
+                        chunk.badLines.add(chunk.lines);
+                        chunk.badReasons.add(e.getMessage());
+                    }
+                }
+            }
+            chunk.lines++;
+            pos = next;
+        }
+        return chunk;
+    }
+
+    // Splits bytes[from, to) on commas, keeping empty fields
+    private static String[] splitLine(byte[] bytes, int from, int to) {
+        int fields = 1;
+        for (int i = from; i < to; i++) {
+            if (bytes[i] == ',') {
+                fields++;
+            }
+        }
+        String[] values = new String[fields];
+        int f = 0;
+        int start = from;
+        for (int i = from; i <= to; i++) {
+            if (i == to || bytes[i] == ',') {
+                values[f++] = new String(bytes, start, i - start, StandardCharsets.UTF_8);
+                start = i + 1;
+            }
+        }
+        return values;
+    }
+
+    // Position of the next '\n' at or after from, or to if there is none
+    private static int lineEnd(byte[] bytes, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (bytes[i] == '\n') {
+                return i;
+            }
+        }
+        return to;
+    }
+
+    // File position just after the next '\n' at or after at, or length if there is none
+    private static long nextLineStart(FileChannel channel, long at, long length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(8192);
+        while (at < length) {
+            buffer.clear();
+            int n = channel.read(buffer, at);
+            if (n <= 0) {
+                break;
+            }
+            for (int i = 0; i < n; i++) {
+                if (buffer.get(i) == '\n') {
+                    return at + i + 1;
+                }
+            }
+            at += n;
+        }
+        return length;
+    }
+
+    private static byte[] read(FileChannel channel, long from, int length) throws IOException {
+        byte[] bytes = new byte[length];
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, from + buffer.position()) < 0) {
+                break;
+            }
+        }
+        return bytes;
+    }
+}
@@ -0,0 +1,757 @@
+/*
+ * Repeatable checks of the table's behavior, including cases that have broken before: null
+ * values in a sorted select, the selects recorded in a table's metrics, prepared queries,
+ * partitioned tables, aggregates, query plans, row id bitmaps, compaction, joins, parallel
+ * scans, lazy iterators, and batch inserts. The checks of a part of the table that need their
+ * own setup are kept in other *Checks classes (NullChecks, SnapshotChecks, BulkLoadChecks,
+ * RecoveryChecks, TypedColumnChecks), which are run from here too.
+ * <p/>
+ * Run with "java Checks"; it prints one line per failed check and exits with status 1 if any failed.
+ */
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+public class Checks {
+
+    private static int failures = 0;
+
+    public static void main(String[] args) throws IOException {
+        NullChecks.run();
+        sortedSelectWithNulls(DbTable.Storage.HEAP);
+        sortedSelectWithNulls(DbTable.Storage.OFF_HEAP);
+        BulkLoadChecks.run();
+        TypedColumnChecks.run();
+        SnapshotChecks.run();
+        tableMetrics();
+        preparedQueries();
+        partitionedTables();
+        aggregates();
+        planner();
+        rowBitmaps();
+        compaction();
+        joins();
+        parallelScans();
+        lazyCursors();
+        batchInserts();
+        sortedSelectDuringInserts();
+        offHeapStorageKept();
+        RecoveryChecks.run();
+
+        if (failures > 0) {
+            System.out.println(failures + " check(s) failed");
+            System.exit(1);
+        }
+        System.out.println("All checks passed");
+    }
+
+    // Null comes first in a sorted select for ASC, and last for DESC
+    private static void sortedSelectWithNulls(DbTable.Storage storage) {
+        DbTable table = NullChecks.tableWithNulls(storage);
+        String columns[] = {"id"};
+        String values[] = {""};
+        DbTable.CompareType ctype[] = {DbTable.CompareType.NotEqual};
+        String label = "sorted select with nulls, " + storage;
+        check(label + ", ASC", "[null, null, a, b, c]",
+                names(table.select(columns, values, ctype, "name", DbTable.SortOrder.ASC, 10)));
+        check(label + ", DESC", "[c, b, a, null, null]",
+                names(table.select(columns, values, ctype, "name", DbTable.SortOrder.DESC, 10)));
+        check(label + ", ASC limit 3", "[null, null, a]",
+                names(table.select(columns, values, ctype, "name", DbTable.SortOrder.ASC, 3)));
+    }
+
+    // Checks that a select finds the same rows in table as in expected, in any order
+    static void sameRows(String label, DbTable table, DbTable expected, String[] columns, String[] values,
+                         DbTable.CompareType[] ctype) {
+        ArrayList<String> want = sortedNames(expected.select(columns, values, ctype));
+        ArrayList<String> got = sortedNames(table.select(columns, values, ctype));
+        check(label + ", " + Arrays.toString(columns) + " " + Arrays.toString(ctype) + " " + Arrays.toString(values),
+                want.size() + " rows " + want.hashCode(), got.size() + " rows " + got.hashCode());
+    }
+
+    private static ArrayList<String> sortedNames(ArrayList<DataObject> rows) {
+        ArrayList<String> names = new ArrayList<String>();
+        for (DataObject row : rows) {
+            names.add(row.get("name"));
+        }
+        Collections.sort(names);
+        return names;
+    }
+
+    // Selects are counted however they end, and bad arguments are rejected the same way
+    // through every select
+    private static void tableMetrics() {
+        String cols[] = {"name", "n"};
+        ArrayList<DbTable.ColumnType> types = new ArrayList<DbTable.ColumnType>(
+                Arrays.asList(DbTable.ColumnType.STRING, DbTable.ColumnType.INT));
+        DbTable table = new DbTable(new ArrayList<String>(Arrays.asList(cols)), types);
+        for (int i = 0; i < 10; i++) {
+            table.insert(new DataObject(cols, new String[]{"r" + i, String.valueOf(i)}));
+        }
+        String outcome;
+        try {
+            table.snapshot().select(new String[]{"n"}, new String[]{"1", "2"}, equal(new String[]{"n"}));
+            outcome = "selected";
+        } catch (IllegalArgumentException e) {
+            outcome = e.getMessage();
+        }
+        check("snapshot select with uneven arguments", "Parameters are not the same length", outcome);
+
+        // A cursor or stream closed before its rows run out is recorded with what it got through
+        TableMetrics metrics = table.metrics();
+        metrics.reset();
+        String n[] = {"n"};
+        DbTable.CompareType atLeast[] = {DbTable.CompareType.GreaterEq};
+        RowCursor cursor = table.iterator(n, new String[]{"0"}, atLeast, Integer.MAX_VALUE);
+        for (int i = 0; i < 3; i++) {
+            cursor.next();
+        }
+        check("open cursor, not recorded yet", "0", String.valueOf(metrics.getSelects()));
+        cursor.close();
+        cursor.close();
+        check("closed cursor, recorded once", "1", String.valueOf(metrics.getSelects()));
+        check("closed cursor, rows returned", "3", String.valueOf(metrics.getRowsReturned()));
+        try (Stream<DataObject> rows = table.stream(n, new String[]{"5"}, atLeast)) {
+            check("stream, first row", "r5", rows.findFirst().get().get("name"));
+        }
+        check("closed stream, recorded", "2", String.valueOf(metrics.getSelects()));
+        try (JoinCursor pairs = table.join("n", table, "n")) {
+            pairs.next();
+        }
+        check("closed join, both sides recorded", "4", String.valueOf(metrics.getSelects()));
+    }
+
+    // A prepared query plans with the indexes of the snapshot it runs against, including ones
+    // created after it was prepared, and only uses an index that can answer its comparison
+    private static void preparedQueries() {
+        String cols[] = {"name", "n"};
+        ArrayList<DbTable.ColumnType> types = new ArrayList<DbTable.ColumnType>(
+                Arrays.asList(DbTable.ColumnType.STRING, DbTable.ColumnType.INT));
+        DbTable table = new DbTable(new ArrayList<String>(Arrays.asList(cols)), types);
+        for (int i = 0; i < 1000; i++) {
+            table.insert(new DataObject(cols, new String[]{"r" + i, String.valueOf(i)}));
+        }
+        String n[] = {"n"};
+        PreparedQuery below = table.prepare(n, new DbTable.CompareType[]{DbTable.CompareType.LessThan});
+        PreparedQuery equalTo = table.prepare(n, equal(n));
+        check("prepared range, no index", "false", String.valueOf(below.explain("3").usesIndex()));
+        table.createIndex("n", DbTable.IndexKind.HASH);
+        check("prepared range, HASH index", "false", String.valueOf(below.explain("3").usesIndex()));
+        check("prepared range, HASH index rows", "[r0, r1, r2]", names(below.select("3")));
+        check("prepared equal, HASH index", "true", String.valueOf(equalTo.explain("3").usesIndex()));
+        check("prepared equal, HASH index count", "1", String.valueOf(equalTo.count("3")));
+        table.createIndex("n", DbTable.IndexKind.ORDERED);
+        check("prepared range, ordered index", "true", String.valueOf(below.explain("3").usesIndex()));
+        check("prepared range, ordered index rows", "[r0, r1, r2]", names(below.select("3")));
+        check("prepared range, ordered index first", "r0", below.first("3").get("name"));
+        check("prepared range, ordered index count", "3", String.valueOf(below.count("3")));
+        table.deleteWhere(n, new String[]{"1"}, equal(n));
+        check("prepared range after a delete", "[r0, r2]", names(below.select("3")));
+        check("prepared equal after a delete", "0", String.valueOf(equalTo.count("1")));
+    }
+
+    // Selects on a partitioned table find the same rows as on one table, whichever shards they
+    // run on, and a null partition key value in a predicate is compared as a DbTable would
+    private static void partitionedTables() {
+        String cols[] = {"name", "n"};
+        ArrayList<String> columnNames = new ArrayList<String>(Arrays.asList(cols));
+        ArrayList<DbTable.ColumnType> types = new ArrayList<DbTable.ColumnType>(
+                Arrays.asList(DbTable.ColumnType.STRING, DbTable.ColumnType.INT));
+        PartitionedTable[] tables = {
+                PartitionedTable.hashPartitioned(columnNames, types, "n", 4),
+                PartitionedTable.rangePartitioned(columnNames, types, "n", "10", "20", "30")};
+        String label[] = {"hash partitions", "range partitions"};
+        String n[] = {"n"};
+        for (int t = 0; t < tables.length; t++) {
+            PartitionedTable table = tables[t];
+            ArrayList<DataObject> rows = new ArrayList<DataObject>();
+            for (int i = 39; i >= 0; i--) {
+                rows.add(new DataObject(cols, new String[]{"r" + i, String.valueOf(i)}));
+            }
+            table.insertAll(rows);
+            check(label[t] + ", Equal", "[r25]", names(table.select(n, new String[]{"25"}, equal(n))));
+            check(label[t] + ", range in key order", "[r8, r9, r10, r11, r12]", names(table.select(
+                    new String[]{"n", "n"}, new String[]{"8", "12"},
+                    new DbTable.CompareType[]{DbTable.CompareType.GreaterEq, DbTable.CompareType.LessEq})));
+            check(label[t] + ", count", "15", String.valueOf(table.count(n, new String[]{"25"},
+                    new DbTable.CompareType[]{DbTable.CompareType.GreaterEq})));
+            String outcome;
+            try {
+                table.select(n, new String[]{null}, equal(n));
+                outcome = "selected";
+            } catch (IllegalArgumentException e) {
+                outcome = e.getMessage();
+            }
+            check(label[t] + ", Equal null on an INT key", "Not a valid INT: null", outcome);
+            try {
+                table.insert(new DataObject(new String[]{"name"}, new String[]{"keyless"}));
+                outcome = "inserted";
+            } catch (IllegalArgumentException e) {
+                outcome = e.getMessage();
+            }
+            check(label[t] + ", insert without a key", "Rows need a value for the partition key n", outcome);
+        }
+
+        // A STRING key holds no null, so null matches no key and comes before all of them
+        String name[] = {"name"};
+        PartitionedTable byName = PartitionedTable.hashPartitioned(columnNames, null, "name", 4);
+        for (int i = 0; i < 10; i++) {
+            byName.insert(new DataObject(cols, new String[]{"r" + i, String.valueOf(i)}));
+        }
+        check("STRING partition key, range in key order", "[r5, r6, r7, r8, r9]", names(byName.select(name,
+                new String[]{"r5"}, new DbTable.CompareType[]{DbTable.CompareType.GreaterEq})));
+        check("STRING partition key, Equal null", "[]", names(byName.select(name, new String[]{null}, equal(name))));
+        check("STRING partition key, LessThan null", "0", String.valueOf(byName.count(name, new String[]{null},
+                new DbTable.CompareType[]{DbTable.CompareType.LessThan})));
+        check("STRING partition key, GreaterEq null", "10", String.valueOf(byName.count(name, new String[]{null},
+                new DbTable.CompareType[]{DbTable.CompareType.GreaterEq})));
+    }
+
+    // Aggregates give the same answer from an index as from the rows, and a DOUBLE sum is added
+    // in row order either way
+    private static void aggregates() {
+        String cols[] = {"name", "n", "x"};
+        ArrayList<DbTable.ColumnType> types = new ArrayList<DbTable.ColumnType>(Arrays.asList(
+                DbTable.ColumnType.STRING, DbTable.ColumnType.INT, DbTable.ColumnType.DOUBLE));
+        DbTable table = new DbTable(new ArrayList<String>(Arrays.asList(cols)), types);
+        // Values of very different sizes, repeated, so the order of addition changes the sum
+        double x[] = {1e16, 0.1, -1e16, 3.3, 0.1, 1e16, 7.7, -1e16, 3.3};
+        for (int i = 0; i < 900; i++) {
+            table.insert(new DataObject(cols, new String[]{"r" + i, String.valueOf(i % 7), String.valueOf(x[i % x.length])}));
+        }
+        table.deleteWhere(new String[]{"n"}, new String[]{"3"}, equal(new String[]{"n"}));
+        double expected = 0;
+        for (int i = 0; i < 900; i++) {
+            if (i % 7 != 3) {
+                expected += x[i % x.length];
+            }
+        }
+        double positive = 0;
+        for (int i = 0; i < 900; i++) {
+            if (i % 7 != 3 && x[i % x.length] > 0) {
+                positive += x[i % x.length];
+            }
+        }
+
+        String none[] = {};
+        String xs[] = {"x"};
+        String zero[] = {"0"};
+        DbTable.CompareType greater[] = {DbTable.CompareType.GreaterThan};
+        DbTable.IndexKind kinds[] = {null, DbTable.IndexKind.HASH, DbTable.IndexKind.ORDERED};
+        for (DbTable.IndexKind kind : kinds) {
+            if (kind != null) {
+                table.createIndex("x", kind);
+                table.createIndex("n", kind);
+            }
+            String label = "aggregates, " + (kind == null ? "no index" : kind + " index");
+            check(label + ", sum of DOUBLE", String.valueOf(expected),
+                    String.valueOf(table.sum("x", none, none, new DbTable.CompareType[0])));
+            check(label + ", sum of DOUBLE where positive", String.valueOf(positive),
+                    String.valueOf(table.sum("x", xs, zero, greater)));
+            check(label + ", sum of INT", String.valueOf(Long.valueOf(
+                    (0 + 1 + 2 + 4 + 5 + 6) * 128 + (0 + 1 + 2))),
+                    String.valueOf(table.sum("n", none, none, new DbTable.CompareType[0])));
+            check(label + ", count", "771", String.valueOf(table.count(new String[]{"n"}, zero,
+                    new DbTable.CompareType[]{DbTable.CompareType.GreaterEq})));
+            check(label + ", min", "0", table.min("n", none, none, new DbTable.CompareType[0]));
+            check(label + ", max below 5", "4", table.max("n", new String[]{"n"}, new String[]{"5"},
+                    new DbTable.CompareType[]{DbTable.CompareType.LessThan}));
+            check(label + ", groupBy", "{0=129, 1=129, 2=129, 4=128, 5=128, 6=128}",
+                    String.valueOf(table.groupBy("n", none, none, new DbTable.CompareType[0])));
+        }
+    }
+
+    // The planner drives a select from the most selective index, scans when no index narrows
+    // the rows enough, and finds the same rows either way
+    private static void planner() {
+        String cols[] = {"name", "n", "k"};
+        ArrayList<DbTable.ColumnType> types = new ArrayList<DbTable.ColumnType>(Arrays.asList(
+                DbTable.ColumnType.STRING, DbTable.ColumnType.INT, DbTable.ColumnType.INT));
+        DbTable indexed = new DbTable(new ArrayList<String>(Arrays.asList(cols)), types);
+        DbTable plain = new DbTable(new ArrayList<String>(Arrays.asList(cols)), types);
+        for (int i = 0; i < 10000; i++) {
+            DataObject row = new DataObject(cols, new String[]{"r" + i, String.valueOf(i), String.valueOf(i % 2)});
+            indexed.insert(row);
+            plain.insert(row);
+        }
+        indexed.createIndex("n", DbTable.IndexKind.ORDERED);
+        indexed.createIndex("k", DbTable.IndexKind.HASH);
+
+        String nk[] = {"n", "k"};
+        String k[] = {"k"};
+        DbTable.CompareType below[] = {DbTable.CompareType.LessThan, DbTable.CompareType.Equal};
+        QueryPlan plan = indexed.explain(nk, new String[]{"42", "0"}, equal(nk));
+        check("planner, driven by the selective index", "n", plan.usesIndex() ? nk[plan.driver()] : "scan");
+        check("planner, other predicate filtered", "[1]", Arrays.toString(plan.residual()));
+        plan = indexed.explain(k, new String[]{"0"}, equal(k));
+        check("planner, unselective index", "scan", plan.usesIndex() ? k[plan.driver()] : "scan");
+        plan = indexed.explain(nk, new String[]{"100", "1"}, below);
+        check("planner, range driver", "n", plan.usesIndex() ? nk[plan.driver()] : "scan");
+        plan = indexed.explain(nk, new String[]{"9000", "1"}, below);
+        check("planner, unselective range", "scan", plan.usesIndex() ? nk[plan.driver()] : "scan");
+
+        String queries[][] = {{"42", "0"}, {"43", "0"}, {"100", "1"}, {"9000", "1"}};
+        DbTable.CompareType ctypes[][] = {equal(nk), equal(nk), below, below};
+        for (int q = 0; q < queries.length; q++) {
+            sameRows("planner, same rows as a scan", indexed, plain, nk, queries[q], ctypes[q]);
+        }
+    }
+
+    // RowBitmap agrees with BitSet on sparse and dense chunks, and a select that ANDs index
+    // bitmaps finds the same rows as a scan
+    private static void rowBitmaps() {
+        Random random = new Random(7);
+        for (int round = 0; round < 20; round++) {
+            BitSet[] sets = {new BitSet(), new BitSet()};
+            RowBitmap[] bitmaps = {new RowBitmap(), new RowBitmap()};
+            for (int b = 0; b < 2; b++) {
+                // Each chunk of 65536 row ids gets a random density, so some become bitmaps
+                for (int chunk = 0; chunk < 4; chunk++) {
+                    int adds = random.nextInt(3) == 0 ? 20000 : random.nextInt(200);
+                    for (int i = 0; i < adds; i++) {
+                        int row = (chunk << 16) + random.nextInt(1 << 16);
+                        sets[b].set(row);
+                        bitmaps[b].add(row);
+                    }
+                }
+            }
+            BitSet and = (BitSet) sets[0].clone();
+            and.and(sets[1]);
+            BitSet or = (BitSet) sets[0].clone();
+            or.or(sets[1]);
+            BitSet andNot = (BitSet) sets[0].clone();
+            andNot.andNot(sets[1]);
+            String label = "row bitmaps, round " + round;
+            check(label + ", add", sets[0].toString(), setOf(bitmaps[0]).toString());
+            check(label + ", and", and.toString(), setOf(bitmaps[0].and(bitmaps[1])).toString());
+            check(label + ", or", or.toString(), setOf(bitmaps[0].or(bitmaps[1])).toString());
+            check(label + ", andNot", andNot.toString(), setOf(bitmaps[0].andNot(bitmaps[1])).toString());
+            check(label + ", cardinality", String.valueOf(and.cardinality()),
+                    String.valueOf(bitmaps[0].and(bitmaps[1]).cardinality()));
+            int probe = random.nextInt(4 << 16);
+            check(label + ", contains", String.valueOf(sets[0].get(probe)), String.valueOf(bitmaps[0].contains(probe)));
+        }
+        check("row bitmaps, range", "{5, 6, 7}", setOf(RowBitmap.range(5, 8)).toString());
+        check("row bitmaps, range across chunks", "70002",
+                String.valueOf(RowBitmap.range(65535 - 1, 65536 + 70000).cardinality()));
+
+        String cols[] = {"name", "a", "b"};
+        ArrayList<DbTable.ColumnType> types = new ArrayList<DbTable.ColumnType>(Arrays.asList(
+                DbTable.ColumnType.STRING, DbTable.ColumnType.INT, DbTable.ColumnType.INT));
+        DbTable indexed = new DbTable(new ArrayList<String>(Arrays.asList(cols)), types);
+        DbTable plain = new DbTable(new ArrayList<String>(Arrays.asList(cols)), types);
+        for (int i = 0; i < 10000; i++) {
+            DataObject row = new DataObject(cols, new String[]{"r" + i, String.valueOf(i % 100), String.valueOf(i % 37)});
+            indexed.insert(row);
+            plain.insert(row);
+        }
+        indexed.createIndex("a", DbTable.IndexKind.HASH);
+        indexed.createIndex("b", DbTable.IndexKind.ORDERED);
+        indexed.deleteWhere(new String[]{"a"}, new String[]{"7"}, new DbTable.CompareType[]{DbTable.CompareType.Equal});
+        plain.deleteWhere(new String[]{"a"}, new String[]{"7"}, new DbTable.CompareType[]{DbTable.CompareType.Equal});
+        String ab[] = {"a", "b"};
+        String values[][] = {{"8", "5"}, {"8", "3"}, {"7", "5"}};
+        DbTable.CompareType ctypes[][] = {equal(ab), {DbTable.CompareType.Equal, DbTable.CompareType.LessThan},
+                {DbTable.CompareType.NotEqual, DbTable.CompareType.Equal}};
+        check("bitmap intersection planned", "2", String.valueOf(indexed.explain(ab, values[0], ctypes[0]).indexed().length));
+        for (int q = 0; q < values.length; q++) {
+            sameRows("bitmap intersection", indexed, plain, ab, values[q], ctypes[q]);
+        }
+    }
+
+    private static BitSet setOf(RowBitmap bitmap) {
+        BitSet set = new BitSet();
+        for (int row = bitmap.nextSetBit(0); row >= 0; row = bitmap.nextSetBit(row + 1)) {
+            set.set(row);
+        }
+        return set;
+    }
+
+    // Compaction drops dead rows without changing what selects find, older snapshots keep
+    // their rows, rows read before it can still be changed, and it starts on its own once
+    // enough of the table is dead
+    private static void compaction() {
+        String cols[] = {"name", "n"};
+        ArrayList<DbTable.ColumnType> types = new ArrayList<DbTable.ColumnType>(
+                Arrays.asList(DbTable.ColumnType.STRING, DbTable.ColumnType.INT));
+        DbTable table = new DbTable(new ArrayList<String>(Arrays.asList(cols)), types);
+        DbTable plain = new DbTable(new ArrayList<String>(Arrays.asList(cols)), types);
+        table.setCompactionThreshold(1);
+        table.createIndex("n", DbTable.IndexKind.BOTH);
+        for (int i = 0; i < 6000; i++) {
+            DataObject row = new DataObject(cols, new String[]{"r" + i, String.valueOf(i)});
+            table.insert(row);
+            plain.insert(row);
+        }
+        String n[] = {"n"};
+        DbTable.CompareType below[] = {DbTable.CompareType.LessThan};
+        TableSnapshot before = table.snapshot();
+        for (DbTable t : new DbTable[]{table, plain}) {
+            t.deleteWhere(n, new String[]{"4000"}, below);
+        }
+        DataObject kept = table.select(n, new String[]{"4500"}, equal(n)).get(0);
+        DataObject doomed = table.select(n, new String[]{"4501"}, equal(n)).get(0);
+        table.compact();
+        check("compaction, rows stored", "2000", String.valueOf(table.snapshot().rowCount));
+        check("compaction, old snapshot", "6000", String.valueOf(before.rowCount));
+        check("compaction, old snapshot select", "[r100]", names(before.select(n, new String[]{"100"}, equal(n))));
+        sameRows("compaction", table, plain, n, new String[]{"5000"}, below);
+        sameRows("compaction", table, plain, n, new String[]{"4999"}, equal(n));
+
+        kept.set("name", "kept");
+        table.delete(doomed);
+        plain.select(n, new String[]{"4500"}, equal(n)).get(0).set("name", "kept");
+        plain.delete(plain.select(n, new String[]{"4501"}, equal(n)).get(0));
+        check("compaction, set through an older row", "[kept]", names(table.select(n, new String[]{"4500"}, equal(n))));
+        check("compaction, delete through an older row", "1999",
+                String.valueOf(table.count(new String[0], new String[0], new DbTable.CompareType[0])));
+        sameRows("compaction, after delete", table, plain, n, new String[]{"4502"}, below);
+
+        // Deleting more than the threshold starts a compaction in the background
+        table.setCompactionThreshold(0.25);
+        for (int i = 6000; i < 12000; i++) {
+            table.insert(new DataObject(cols, new String[]{"r" + i, String.valueOf(i)}));
+        }
+        table.deleteWhere(n, new String[]{"9000"}, below);
+        long waitUntil = System.currentTimeMillis() + 10000;
+        while (table.snapshot().rowCount != table.snapshot().size() && System.currentTimeMillis() < waitUntil) {
+            try {
+                Thread.sleep(10);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        check("compaction in the background", "3000 of 3000", table.snapshot().size() + " of " + table.snapshot().rowCount);
+        check("compaction in the background, index", "[r9000]", names(table.select(n, new String[]{"9000"}, equal(n))));
+    }
+
+    // Index nested loop and hash joins find the same pairs as a nested loop over every row,
+    // with predicates on either side and across column types, and never pair null values
+    private static void joins() {
+        String orderCols[] = {"name", "customer", "amount"};
+        DbTable orders = new DbTable(new ArrayList<String>(Arrays.asList(orderCols)),
+                new ArrayList<DbTable.ColumnType>(Arrays.asList(
+                        DbTable.ColumnType.STRING, DbTable.ColumnType.INT, DbTable.ColumnType.INT)));
+        for (int i = 0; i < 200; i++) {
+            orders.insert(new DataObject(orderCols, new String[]{"o" + i, String.valueOf(i % 60), String.valueOf(i)}));
+        }
+        // Customer ids are STRING, so outer INT values are read as STRING values; customers
+        // 0 to 4 and 50 to 59 have no row, and two rows have no id
+        String customerCols[] = {"name", "id", "city"};
+        DbTable customers = new DbTable(new ArrayList<String>(Arrays.asList(customerCols)));
+        DbTable indexedCustomers = new DbTable(new ArrayList<String>(Arrays.asList(customerCols)));
+        for (int i = 5; i < 50; i++) {
+            DataObject customer = new DataObject(customerCols, new String[]{"c" + i, String.valueOf(i), i % 2 == 0 ? "x" : "y"});
+            customers.insert(customer);
+            indexedCustomers.insert(customer);
+        }
+        customers.insert(new DataObject(new String[]{"name", "city"}, new String[]{"nobody", "x"}));
+        customers.insert(new DataObject(new String[]{"name", "city"}, new String[]{"no one", "x"}));
+        indexedCustomers.createIndex("id", DbTable.IndexKind.HASH);
+
+        String none[] = {};
+        DbTable.CompareType noCtype[] = {};
+        ArrayList<String> brute = new ArrayList<String>();
+        for (DataObject order : orders.select(none, none, noCtype)) {
+            for (DataObject customer : customers.select(none, none, noCtype)) {
+                if (Integer.parseInt(order.get("amount")) < 150 && "x".equals(customer.get("city"))
+                        && order.get("customer").equals(customer.get("id"))) {
+                    brute.add(order.get("name") + "-" + customer.get("name"));
+                }
+            }
+        }
+        Collections.sort(brute);
+
+        String amount[] = {"amount"};
+        String city[] = {"city"};
+        DbTable inners[] = {customers, indexedCustomers};
+        for (DbTable inner : inners) {
+            JoinCursor join = orders.join("customer", amount, new String[]{"150"},
+                    new DbTable.CompareType[]{DbTable.CompareType.LessThan},
+                    inner, "id", city, new String[]{"x"}, equal(city));
+            String label = join.usesIndex() ? "index nested loop join" : "hash join";
+            check(label + ", uses an index", String.valueOf(inner == indexedCustomers), String.valueOf(join.usesIndex()));
+            check(label + ", pairs", brute.toString(), joinedNames(join).toString());
+        }
+
+        // A self join on an INT column pairs every two rows with the same value: 20 values are
+        // held by 4 rows and 40 by 3
+        check("hash self join", "680", String.valueOf(joinedNames(orders.join("customer", orders, "customer")).size()));
+        orders.createIndex("customer");
+        JoinCursor join = orders.join("customer", orders, "customer");
+        check("index nested loop self join", "true 680", join.usesIndex() + " " + joinedNames(join).size());
+    }
+
+    private static ArrayList<String> joinedNames(JoinCursor join) {
+        ArrayList<String> pairs = new ArrayList<String>();
+        while (join.hasNext()) {
+            DataObject[] pair = join.next();
+            pairs.add(pair[0].get("name") + "-" + pair[1].get("name"));
+        }
+        Collections.sort(pairs);
+        return pairs;
+    }
+
+    // A parallel scan returns the same rows as a scan on one thread, in the same row id order
+    private static void parallelScans() {
+        String cols[] = {"name", "n", "tag"};
+        ArrayList<DbTable.ColumnType> types = new ArrayList<DbTable.ColumnType>(Arrays.asList(
+                DbTable.ColumnType.STRING, DbTable.ColumnType.INT, DbTable.ColumnType.STRING));
+        DbTable parallel = new DbTable(new ArrayList<String>(Arrays.asList(cols)), types);
+        DbTable serial = new DbTable(new ArrayList<String>(Arrays.asList(cols)), types);
+        Random random = new Random(11);
+        for (int i = 0; i < 50000; i++) {
+            DataObject row = new DataObject(cols, new String[]{"r" + i, String.valueOf(random.nextInt(1000)),
+                    random.nextInt(10) == 0 ? null : "t" + random.nextInt(20)});
+            parallel.insert(row);
+            serial.insert(row);
+        }
+        parallel.deleteWhere(new String[]{"n"}, new String[]{"10"}, new DbTable.CompareType[]{DbTable.CompareType.LessThan});
+        serial.deleteWhere(new String[]{"n"}, new String[]{"10"}, new DbTable.CompareType[]{DbTable.CompareType.LessThan});
+        parallel.setParallelScan(1000, ForkJoinPool.commonPool());
+        serial.setParallelScan(Integer.MAX_VALUE, ForkJoinPool.commonPool());
+
+        String nTag[] = {"n", "tag"};
+        String queries[][] = {{"500", "t3"}, {"990", "t19"}, {"5", "t0"}};
+        DbTable.CompareType ctypes[][] = {
+                {DbTable.CompareType.LessThan, DbTable.CompareType.Equal},
+                {DbTable.CompareType.GreaterEq, DbTable.CompareType.NotEqual},
+                {DbTable.CompareType.LessEq, DbTable.CompareType.GreaterThan}};
+        parallel.metrics().reset();
+        for (int q = 0; q < queries.length; q++) {
+            ArrayList<String> want = new ArrayList<String>();
+            for (DataObject row : serial.select(nTag, queries[q], ctypes[q])) {
+                want.add(row.get("name"));
+            }
+            ArrayList<String> got = new ArrayList<String>();
+            for (DataObject row : parallel.select(nTag, queries[q], ctypes[q])) {
+                got.add(row.get("name"));
+            }
+            check("parallel scan, " + Arrays.toString(ctypes[q]) + " " + Arrays.toString(queries[q]),
+                    want.size() + " rows " + want.hashCode(), got.size() + " rows " + got.hashCode());
+        }
+        check("parallel scans recorded", "3", String.valueOf(parallel.metrics().getSelects(TableMetrics.PlanType.PARALLEL_SCAN)));
+    }
+
+    // Iterators find rows only as they are asked for, stop at their limit, and read the
+    // snapshot they were created on
+    private static void lazyCursors() {
+        String cols[] = {"name", "n"};
+        ArrayList<DbTable.ColumnType> types = new ArrayList<DbTable.ColumnType>(
+                Arrays.asList(DbTable.ColumnType.STRING, DbTable.ColumnType.INT));
+        DbTable table = new DbTable(new ArrayList<String>(Arrays.asList(cols)), types);
+        for (int i = 0; i < 10000; i++) {
+            table.insert(new DataObject(cols, new String[]{"r" + i, String.valueOf(i % 100)}));
+        }
+        String n[] = {"n"};
+        String seven[] = {"7"};
+        TableMetrics metrics = table.metrics();
+        metrics.reset();
+        ArrayList<DataObject> limited = table.select(n, seven, equal(n), 3);
+        check("select with a limit", "[r7, r107, r207]", names(limited));
+        check("select with a limit, rows examined", "208", String.valueOf(metrics.getRowsExamined()));
+
+        RowCursor cursor = table.iterator(n, seven, equal(n), Integer.MAX_VALUE);
+        cursor.next();
+        table.deleteWhere(n, seven, equal(n));
+        int rest = 0;
+        while (cursor.hasNext()) {
+            cursor.next();
+            rest++;
+        }
+        check("iterator reads its own snapshot", "99", String.valueOf(rest));
+        check("select after the delete", "0", String.valueOf(table.select(n, seven, equal(n), 5).size()));
+        String outcome;
+        try {
+            table.iterator(n, seven, equal(n), -1);
+            outcome = "accepted";
+        } catch (IllegalArgumentException e) {
+            outcome = e.getMessage();
+        }
+        check("iterator with a negative limit", "Limit cannot be negative", outcome);
+        check("stream with a limit", "[r8, r108]", String.valueOf(table.stream(n, new String[]{"8"}, equal(n))
+                .limit(2).map(row -> row.get("name")).collect(Collectors.toList())));
+    }
+
+    // insertAll adds a batch to every index as single inserts would, and a batch with a bad row
+    // inserts nothing
+    private static void batchInserts() {
+        String cols[] = {"name", "n", "tag"};
+        ArrayList<DbTable.ColumnType> types = new ArrayList<DbTable.ColumnType>(Arrays.asList(
+                DbTable.ColumnType.STRING, DbTable.ColumnType.INT, DbTable.ColumnType.STRING));
+        DbTable batched = new DbTable(new ArrayList<String>(Arrays.asList(cols)), types);
+        DbTable single = new DbTable(new ArrayList<String>(Arrays.asList(cols)), types);
+        for (DbTable table : new DbTable[]{batched, single}) {
+            table.createIndex("n", DbTable.IndexKind.BOTH);
+            table.createIndex("tag", DbTable.IndexKind.HASH);
+        }
+        Random random = new Random(5);
+        for (int b = 0; b < 5; b++) {
+            // Batches of different sizes, so some merge into the indexes and some rebuild them
+            ArrayList<DataObject> batch = new ArrayList<DataObject>();
+            int size = b == 0 ? 1 : b * 3000;
+            for (int i = 0; i < size; i++) {
+                batch.add(new DataObject(cols, new String[]{"b" + b + "r" + i, String.valueOf(random.nextInt(5000)),
+                        "t" + random.nextInt(b == 4 ? 3000 : 30)}));
+            }
+            batched.insertAll(batch);
+            for (DataObject row : batch) {
+                single.insert(row);
+            }
+        }
+        String n[] = {"n"};
+        String tag[] = {"tag"};
+        sameRows("insertAll", batched, single, n, new String[]{"2500"}, new DbTable.CompareType[]{DbTable.CompareType.LessThan});
+        sameRows("insertAll", batched, single, n, new String[]{"1234"}, equal(n));
+        sameRows("insertAll", batched, single, tag, new String[]{"t7"}, equal(tag));
+        sameRows("insertAll", batched, single, tag, new String[]{"t2999"}, equal(tag));
+
+        ArrayList<DataObject> bad = new ArrayList<DataObject>();
+        bad.add(new DataObject(cols, new String[]{"fine", "1", "t1"}));
+        bad.add(new DataObject(cols, new String[]{"broken", "one", "t1"}));
+        String outcome;
+        try {
+            batched.insertAll(bad);
+            outcome = "inserted";
+        } catch (IllegalArgumentException e) {
+            outcome = "rejected";
+        }
+        check("insertAll with a bad row", "rejected", outcome);
+        check("insertAll with a bad row, nothing inserted", String.valueOf(single.snapshot().size()),
+                String.valueOf(batched.snapshot().size()));
+        check("insertAll with a bad row, row before it not inserted", "[]",
+                names(batched.select(new String[]{"name"}, new String[]{"fine"}, equal(new String[]{"name"}))));
+        sameRows("insertAll with a bad row, index unchanged", batched, single, tag, new String[]{"t1"}, equal(tag));
+    }
+
+    // A sorted select walking an index bucket that rows are being added to returns each row once
+    private static void sortedSelectDuringInserts() {
+        final String cols[] = {"name", "n"};
+        ArrayList<DbTable.ColumnType> types = new ArrayList<DbTable.ColumnType>(
+                Arrays.asList(DbTable.ColumnType.STRING, DbTable.ColumnType.INT));
+        final DbTable table = new DbTable(new ArrayList<String>(Arrays.asList(cols)), types);
+        table.createIndex("n");
+        final AtomicBoolean done = new AtomicBoolean(false);
+        Thread writer = new Thread(() -> {
+            for (int i = 0; i < 200000 && !done.get(); i++) {
+                table.insert(new DataObject(cols, new String[]{"r" + i, "1"}));
+            }
+        });
+        writer.start();
+
+        String n[] = {"n"};
+        String outcome = "no duplicates";
+        for (int q = 0; q < 2000 && outcome.equals("no duplicates"); q++) {
+            ArrayList<DataObject> rows = table.select(n, new String[]{"1"}, equal(n), "n", DbTable.SortOrder.DESC, 50);
+            HashSet<String> seen = new HashSet<String>();
+            for (DataObject row : rows) {
+                if (!seen.add(row.get("name"))) {
+                    outcome = "duplicate " + row.get("name");
+                }
+            }
+        }
+        done.set(true);
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        check("sorted select during inserts", "no duplicates", outcome);
+    }
+
+    // A table that keeps its STRING values off the heap does so again once it is reopened from a
+    // binary file or its log, after a compaction, and in every shard of a partitioned table
+    private static void offHeapStorageKept() throws IOException {
+        String cols[] = {"name", "n"};
+        ArrayList<String> columnNames = new ArrayList<String>(Arrays.asList(cols));
+        ArrayList<DbTable.ColumnType> types = new ArrayList<DbTable.ColumnType>(
+                Arrays.asList(DbTable.ColumnType.STRING, DbTable.ColumnType.INT));
+        File directory = Files.createTempDirectory("checks").toFile();
+        try {
+            String base = new File(directory, "rows").getPath();
+            DbTable durable = DbTable.openDurable(base, columnNames, types, DbTable.Storage.OFF_HEAP);
+            for (int i = 0; i < 10; i++) {
+                durable.insert(new DataObject(cols, new String[]{"r" + i, String.valueOf(i)}));
+            }
+            durable.checkpoint();
+            durable.insert(new DataObject(cols, new String[]{"r10", "10"}));
+            durable.close();
+            DbTable recovered = DbTable.openDurable(base, null, null);
+            check("off-heap storage, recovered", "OFF_HEAP", String.valueOf(recovered.snapshot().store.storage()));
+            check("off-heap storage, recovered rows", "[r10]", names(recovered.select(new String[]{"n"},
+                    new String[]{"10"}, equal(new String[]{"n"}))));
+            String outcome;
+            try {
+                DbTable.openDurable(base, null, null, DbTable.Storage.HEAP);
+                outcome = "opened";
+            } catch (IllegalArgumentException e) {
+                outcome = "rejected";
+            }
+            check("off-heap storage, reopened as HEAP", "rejected", outcome);
+
+            String fileName = new File(directory, "copy.tbl").getPath();
+            recovered.writeToBinaryFile(fileName);
+            DbTable reopened = DbTable.openFile(fileName);
+            check("off-heap storage, reopened from a file", "OFF_HEAP", String.valueOf(reopened.snapshot().store.storage()));
+            reopened.insert(new DataObject(cols, new String[]{"r11", "11"}));
+            reopened.deleteWhere(new String[]{"n"}, new String[]{"5"}, new DbTable.CompareType[]{DbTable.CompareType.LessThan});
+            reopened.compact();
+            check("off-heap storage, compacted", "true",
+                    String.valueOf(reopened.snapshot().store.column(0) instanceof OffHeapStringColumn));
+            check("off-heap storage, compacted rows", "[r5, r6, r7, r8, r9, r10, r11]", names(reopened.select(new String[]{"n"},
+                    new String[]{"5"}, new DbTable.CompareType[]{DbTable.CompareType.GreaterEq})));
+        } finally {
+            deleteAll(directory);
+        }
+
+        PartitionedTable partitioned = PartitionedTable.hashPartitioned(columnNames, types, DbTable.Storage.OFF_HEAP, "n", 3);
+        String storages = "";
+        for (DbTable shard : partitioned.shards()) {
+            storages += shard.snapshot().store.storage() + " ";
+        }
+        check("off-heap storage, shards", "OFF_HEAP OFF_HEAP OFF_HEAP ", storages);
+    }
+
+    static DbTable.CompareType[] equal(String[] columns) {
+        DbTable.CompareType[] ctype = new DbTable.CompareType[columns.length];
+        Arrays.fill(ctype, DbTable.CompareType.Equal);
+        return ctype;
+    }
+
+    static String names(ArrayList<DataObject> rows) {
+        ArrayList<String> names = new ArrayList<String>();
+        for (DataObject row : rows) {
+            names.add(row.get("name"));
+        }
+        return names.toString();
+    }
+
+    static void check(String name, String expected, String actual) {
+        if (!expected.equals(actual)) {
+            failures++;
+            System.out.println("FAILED " + name + ": expected " + expected + ", got " + actual);
+        }
+    }
+
+    static void deleteAll(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteAll(child);
+            }
+        }
+        file.delete();
+    }
+}
@@ -0,0 +1,202 @@
+/*
+ * A single column of a DbTable, stored as one contiguous array addressed by row id.
+ * <p/>
+ * Values go in and come out as Strings whatever the column's type. Typed columns parse each
+ * value when it is stored and keep it in a primitive array, and compare rows against a
+ * predicate's value as primitives.
+ * <p/>
+ * Only STRING columns hold null (the value of a column a row was inserted without); typed
+ * columns reject it as they reject any other unparseable value. Null comes before every other
+ * value wherever values are compared, whether against another row or a predicate's value, so
+ * "LessThan x" matches the null rows and "Equal null" matches only them.
+ */
+
+import java.util.function.IntPredicate;
+
+public abstract class Column {
+
+    // Digits of a sort key, in ascending character order
+    private static final char[] KEY_DIGITS = "0123456789abcdefghijklmnopqrstuv".toCharArray();
+
+    /**
+     * Creates an empty column of the given type
+     */
+    public static Column create(DbTable.ColumnType type) {
+        switch (type) {
+            case INT: return new IntColumn();
+            case LONG: return new LongColumn();
+            case DOUBLE: return new DoubleColumn();
+            case TIMESTAMP: return new TimestampColumn();
+            default: return new StringColumn();
+        }
+    }
+
+    /**
+     * @return A new, empty column of the same type and storage
+     */
+    public Column emptyCopy() {
+        return create(type());
+    }
+
+    /**
+     * @return Type of the values in this column
+     */
+    public DbTable.ColumnType type() {
+        return DbTable.ColumnType.STRING;
+    }
+
+    /**
+     * Returns the value stored for a row
+     *
+     * @param row Row id
+     * @return The value, as a String
+     */
+    public abstract String get(int row);
+
+    /**
+     * Appends a value for the next row id. Stored values are never changed afterwards, so
+     * rows that are already visible to readers can be read while new ones are appended.
+     *
+     * @param value Value to store, which validate accepts
+     */
+    public abstract void append(String value);
+
+    /**
+     * Appends the value of a row of another column of the same type
+     *
+     * @param source Column to copy from
+     * @param row    Row id in source
+     */
+    public void appendFrom(Column source, int row) {
+        append(source.get(row));
+    }
+
+    /**
+     * Checks that value can be stored in this column
+     *
+     * @throws IllegalArgumentException if value is not a valid value of this column's type
+     */
+    public void validate(String value) throws IllegalArgumentException {
+    }
+
+    /**
+     * Compares the stored value of a row against value
+     *
+     * @param row   Row id
+     * @param value Value to compare against, which may be null
+     * @return negative, zero or positive as the stored value is less than, equal to or greater than value
+     */
+    public int compare(int row, String value) {
+        String stored = get(row);
+        if (stored == null || value == null) {
+            return stored == value ? 0 : stored == null ? -1 : 1;
+        }
+        return stored.compareTo(value);
+    }
+
+    /**
+     * Compares the stored values of two rows. Null values come before every other value.
+     *
+     * @return negative, zero or positive as the value of row a is less than, equal to or greater than that of row b
+     */
+    public int compareRows(int a, int b) {
+        String x = get(a);
+        String y = get(b);
+        if (x == null || y == null) {
+            return x == y ? 0 : x == null ? -1 : 1;
+        }
+        return x.compareTo(y);
+    }
+
+    /**
+     * Returns a test of "stored value ctype value" for row ids. Typed columns parse value once
+     * here, so testing a row compares primitives. The test may only be used on rows that were
+     * stored before it was created.
+     *
+     * @param ctype Comparison to perform
+     * @param value Value to compare against
+     * @return Test that accepts the row ids satisfying the comparison
+     * @throws IllegalArgumentException if value is not a valid value of this column's type
+     */
+    public IntPredicate test(DbTable.CompareType ctype, String value) throws IllegalArgumentException {
+        switch (ctype) {
+            case Equal: return (int row) -> compare(row, value) == 0;
+            case NotEqual: return (int row) -> compare(row, value) != 0;
+            case LessThan: return (int row) -> compare(row, value) < 0;
+            case LessEq: return (int row) -> compare(row, value) <= 0;
+            case GreaterThan: return (int row) -> compare(row, value) > 0;
+            default: return (int row) -> compare(row, value) >= 0;
+        }
+    }
+
+    /**
+     * @return true for the typed columns, which an index keys by longKey rather than by value
+     */
+    public boolean hasLongKeys() {
+        return type() != DbTable.ColumnType.STRING;
+    }
+
+    /**
+     * Returns the primitive key a row is filed under in an index on a typed column. Keys
+     * compare as signed longs in the same order as the values, and are equal only for equal
+     * values.
+     *
+     * @param row Row id
+     * @return Key of the row's value
+     * @throws UnsupportedOperationException for a STRING column
+     */
+    public long longKey(int row) {
+        throw new UnsupportedOperationException("A " + type() + " column has no long keys");
+    }
+
+    /**
+     * Returns the key of a value, to look it up in an index on this typed column
+     *
+     * @param value Value, as given to a select
+     * @return Key of value
+     * @throws IllegalArgumentException if value is not a valid value of this column's type
+     * @throws UnsupportedOperationException for a STRING column
+     */
+    public long longKey(String value) throws IllegalArgumentException {
+        throw new UnsupportedOperationException("A " + type() + " column has no long keys");
+    }
+
+    /**
+     * Returns a String that orders like a row's value among values of this column's type, for
+     * comparing values of any type as Strings (as a partitioned table does its split points)
+     *
+     * @param row Row id
+     * @return Sort key of the row's value
+     */
+    public String sortKey(int row) {
+        return hasLongKeys() ? sortableKey(longKey(row)) : get(row);
+    }
+
+    /**
+     * Returns the sort key of a value (see sortKey(int))
+     *
+     * @param value Value, as given to a select
+     * @return Sort key of value
+     * @throws IllegalArgumentException if value is not a valid value of this column's type
+     */
+    public String sortKey(String value) throws IllegalArgumentException {
+        return hasLongKeys() ? sortableKey(longKey(value)) : value;
+    }
+
+    /**
+     * @return Number of rows stored in this column
+     */
+    public abstract int size();
+
+    // Encodes a long key as 13 base-32 digits, so that keys compare as Strings in the same
+    // order as the longs
+    private static String sortableKey(long key) {
+        long bits = key ^ Long.MIN_VALUE;
+        char[] digits = new char[13];
+        for (int i = 12; i >= 0; i--) {
+            digits[i] = KEY_DIGITS[(int) (bits & 31)];
+            bits >>>= 5;
+        }
+        return new String(digits);
+    }
+}
@@ -0,0 +1,264 @@
+/*
+ * Columnar row storage for a DbTable. Each column lives in its own contiguous array and
+ * rows are addressed by an int row id, which is the position the row was appended at.
+ * <p/>
+ * Stored rows are never changed in place. A delete records the table version it happened at,
+ * and readers decide whether a row exists for them by comparing that against the version of
+ * their TableSnapshot. Only one thread writes at a time (DbTable holds its write lock), while
+ * any number of readers use the rows that were visible when their snapshot was taken.
+ * Arrays the readers use are grown by copying, and a copy is complete before it is published
+ * through a volatile field, so a reader sees either the old array or the whole new one.
+ */
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+public class ColumnStore {
+
+    // Deletion version of a row that has not been deleted
+    public static final long LIVE = Long.MAX_VALUE;
+
+    private final ArrayList<String> columnNames;
+    private final HashMap<String, Integer> slots;
+    private final Column[] columns;
+
+    // Where STRING values are kept
+    private final DbTable.Storage storage;
+
+    // Number of row ids handed out so far, including deleted rows
+    private int rowCount;
+
+    // Table version each row was deleted at, or LIVE
+    private volatile long[] deletedAt;
+
+    // Set once a compaction has copied this store's live rows elsewhere.
+    // Only used by the writer, to move old DataObjects over to their new row.
+    private ColumnStore next;
+    private int[] newIds;
+
+    /**
+     * Initializes an empty store
+     *
+     * @param columnNames Names of the columns, in slot order
+     * @param columnTypes Types of the columns, in slot order, or null if they are all STRING
+     */
+    public ColumnStore(ArrayList<String> columnNames, ArrayList<DbTable.ColumnType> columnTypes) {
+        this(columnNames, columnTypes, DbTable.Storage.HEAP);
+    }
+
+    /**
+     * Initializes an empty store whose STRING columns are kept as the given storage
+     *
+     * @param columnNames Names of the columns, in slot order
+     * @param columnTypes Types of the columns, in slot order, or null if they are all STRING
+     * @param storage     Where STRING values are kept
+     */
+    public ColumnStore(ArrayList<String> columnNames, ArrayList<DbTable.ColumnType> columnTypes,
+                       DbTable.Storage storage) {
+        this.columnNames = new ArrayList<String>(columnNames);
+        this.slots = new HashMap<String, Integer>();
+        this.columns = new Column[columnNames.size()];
+        this.storage = storage;
+        for (int i = 0; i < columnNames.size(); i++) {
+            slots.put(columnNames.get(i), i);
+            DbTable.ColumnType type = columnTypes == null ? DbTable.ColumnType.STRING : columnTypes.get(i);
+            columns[i] = type == DbTable.ColumnType.STRING && storage == DbTable.Storage.OFF_HEAP
+                    ? new OffHeapStringColumn() : Column.create(type);
+        }
+        this.rowCount = 0;
+        long[] d = new long[16];
+        Arrays.fill(d, LIVE);
+        this.deletedAt = d;
+    }
+
+    /**
+     * Initializes a store over existing columns that all hold rowCount live rows
+     *
+     * @param columnNames Names of the columns, in slot order
+     * @param columns     The columns, in slot order
+     * @param rowCount    Number of rows in every column
+     * @param storage     Where the columns keep STRING values appended to them
+     */
+    ColumnStore(ArrayList<String> columnNames, Column[] columns, int rowCount, DbTable.Storage storage) {
+        this.columnNames = new ArrayList<String>(columnNames);
+        this.slots = new HashMap<String, Integer>();
+        this.columns = columns;
+        this.storage = storage;
+        for (int i = 0; i < columnNames.size(); i++) {
+            slots.put(columnNames.get(i), i);
+        }
+        this.rowCount = rowCount;
+        long[] d = new long[Math.max(16, rowCount)];
+        Arrays.fill(d, LIVE);
+        this.deletedAt = d;
+    }
+
+    /**
+     * @return A new, empty store with the same columns, kept the same way as this one's
+     */
+    ColumnStore emptyCopy() {
+        Column[] fresh = new Column[columns.length];
+        for (int i = 0; i < columns.length; i++) {
+            fresh[i] = columns[i].emptyCopy();
+        }
+        return new ColumnStore(columnNames, fresh, 0, storage);
+    }
+
+    /**
+     * Returns the slot of a column in this store
+     *
+     * @param columnName Name of the column
+     * @return Slot of the column, or -1 if there is no such column
+     */
+    public int slotOf(String columnName) {
+        Integer slot = slots.get(columnName);
+        return slot == null ? -1 : slot;
+    }
+
+    public Column column(int slot) {
+        return columns[slot];
+    }
+
+    public int columnCount() {
+        return columns.length;
+    }
+
+    public ArrayList<String> columnNames() {
+        return columnNames;
+    }
+
+    /**
+     * @return Where the store keeps its STRING values
+     */
+    public DbTable.Storage storage() {
+        return storage;
+    }
+
+    /**
+     * @return Type of each column, in slot order
+     */
+    public ArrayList<DbTable.ColumnType> columnTypes() {
+        ArrayList<DbTable.ColumnType> types = new ArrayList<DbTable.ColumnType>();
+        for (Column column : columns) {
+            types.add(column.type());
+        }
+        return types;
+    }
+
+    /**
+     * Checks that every value of a row can be stored in its column
+     *
+     * @param values Values of the row, in slot order
+     * @throws IllegalArgumentException if a value is not valid for its column's type
+     */
+    public void validate(String[] values) throws IllegalArgumentException {
+        for (int i = 0; i < columns.length; i++) {
+            columns[i].validate(values[i]);
+        }
+    }
+
+    /**
+     * Appends a new row
+     *
+     * @param values Values of the row, in slot order, which validate accepts
+     * @return Row id of the new row
+     */
+    public int append(String[] values) {
+        int rowId = rowCount;
+        for (int i = 0; i < columns.length; i++) {
+            columns[i].append(values[i]);
+        }
+        growDeletedAt(rowId);
+        rowCount++;
+        return rowId;
+    }
+
+    // Makes room to record the deletion of rowId, and marks it live. A grown array is copied
+    // and filled before it is published, so readers never see 0 ("deleted at version 0") in it.
+    private void growDeletedAt(int rowId) {
+        long[] d = deletedAt;
+        if (rowId == d.length) {
+            long[] grown = Arrays.copyOf(d, rowId * 2);
+            Arrays.fill(grown, rowId, grown.length, LIVE);
+            deletedAt = grown;
+        } else {
+            d[rowId] = LIVE;
+        }
+    }
+
+    /**
+     * Appends a copy of a row of another store with the same columns
+     *
+     * @param source Store to copy from
+     * @param rowId  Row id in source
+     * @return Row id of the new row
+     */
+    public int appendFrom(ColumnStore source, int rowId) {
+        int newRowId = rowCount;
+        for (int i = 0; i < columns.length; i++) {
+            columns[i].appendFrom(source.column(i), rowId);
+        }
+        growDeletedAt(newRowId);
+        rowCount++;
+        return newRowId;
+    }
+
+    /**
+     * Returns the values of a row in slot order
+     */
+    public String[] row(int rowId) {
+        String[] values = new String[columns.length];
+        for (int i = 0; i < columns.length; i++) {
+            values[i] = columns[i].get(rowId);
+        }
+        return values;
+    }
+
+    public String get(int rowId, int slot) {
+        return columns[slot].get(rowId);
+    }
+
+    /**
+     * @return The table version rowId was deleted at, or LIVE
+     */
+    public long deletedAt(int rowId) {
+        return deletedAt[rowId];
+    }
+
+    public void markDeleted(int rowId, long version) {
+        deletedAt[rowId] = version;
+    }
+
+    /**
+     * Records that the rows of this store were copied to next by a compaction
+     *
+     * @param next   Store the live rows were copied to
+     * @param newIds New row id of each row of this store, or -1 for rows that were not copied
+     */
+    void forward(ColumnStore next, int[] newIds) {
+        this.next = next;
+        this.newIds = newIds;
+    }
+
+    /**
+     * @return The store this one was compacted into, or null
+     */
+    ColumnStore next() {
+        return next;
+    }
+
+    /**
+     * @return Row id in next() of rowId, or -1 if it was not copied there
+     */
+    int forwardedId(int rowId) {
+        return rowId < newIds.length ? newIds[rowId] : -1;
+    }
+
+    /**
+     * @return Upper bound (exclusive) on the row ids handed out so far
+     */
+    public int rowCount() {
+        return rowCount;
+    }
+}
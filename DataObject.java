@@ -1,19 +1,33 @@
 /*
  * Mark Gapasin
- * Data Object that will be stored in a linked list in the DbTable
+ * Data Object that will be stored in the DbTable
  *
  */
 
 /**
- * Class for storing an individual row in a database
+ * Class for storing an individual row in a database.
+ * <p/>
+ * A DataObject starts out holding its own values. Once it is inserted into a DbTable its
+ * values are moved into the table's column storage and the object becomes a lightweight
+ * view over its row. Rows returned by select are views as well.
+ * <p/>
+ * DataObjects are only equal to themselves. The row a view points at changes when it is
+ * inserted, updated through set, or moved by a compaction, so an identity based on the row
+ * would change while the object sits in a HashSet or HashMap.
  */
 
 import java.util.HashMap;
 
 public class DataObject {
 
+    // Values of a row that is not stored in a table
     private HashMap<String, String> data;
 
+    // Table, column storage and row id of a row that is stored in a table
+    private DbTable table;
+    private ColumnStore store;
+    private int rowId;
+
     /**
      * Initializes a new Data Object with a set of column names and values
      *
@@ -23,7 +37,7 @@ public class DataObject {
      */
     public DataObject(String[] columns, String[] values) throws IllegalArgumentException {
 
-        if (columns.length != values.length || columns == null || values == null) {
+        if (columns == null || values == null || columns.length != values.length) {
             throw new IllegalArgumentException();
         }
 
@@ -35,13 +49,33 @@ public class DataObject {
     }
 
     /**
-     * Set or alter the value associated with a given column
+     * Initializes a view over a row stored in a table
+     *
+     * @param table Table the row is stored in
+     * @param store Column storage holding the row
+     * @param rowId Row id of the row
+     */
+    DataObject(DbTable table, ColumnStore store, int rowId) {
+        this.table = table;
+        this.store = store;
+        this.rowId = rowId;
+    }
+
+    /**
+     * Set or alter the value associated with a given column.
+     * For a stored row this writes a new version of the row to its table; other views
+     * of the same row taken earlier keep seeing the old value.
      *
      * @param column Name of column
      * @param value New value to store
+     * @throws IllegalStateException if the row is stored in a durable table that has been closed
      */
     public void set(String column, String value) {
-        data.put(column, value);
+        if (table != null) {
+            table.update(this, column, value);
+        } else {
+            data.put(column, value);
+        }
     }
 
     public String[] get(String[] columns) {
@@ -51,7 +85,7 @@ public class DataObject {
 
         String[] valueArray = new String[columns.length];
         for (int i=0; i < columns.length; i++) {
-            valueArray[i] = this.data.get(columns[i]);
+            valueArray[i] = this.get(columns[i]);
         }
         return valueArray;
     }
@@ -61,8 +95,33 @@ public class DataObject {
             return null;
         }
 
-        String[] strArray = new String[1];
-        strArray[0] = column;
-        return this.get(strArray)[0];
+        if (store != null) {
+            int slot = store.slotOf(column);
+            return slot < 0 ? null : store.get(rowId, slot);
+        }
+        return this.data.get(column);
+    }
+
+    /**
+     * Turns a detached row into a view over the row it was stored as,
+     * or moves a view to a newer version of its row
+     */
+    void bind(DbTable table, ColumnStore store, int rowId) {
+        this.table = table;
+        this.store = store;
+        this.rowId = rowId;
+        this.data = null;
+    }
+
+    DbTable table() {
+        return table;
+    }
+
+    ColumnStore store() {
+        return store;
+    }
+
+    int rowId() {
+        return rowId;
     }
 }
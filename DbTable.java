@@ -4,24 +4,118 @@
  */
 
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.IntPredicate;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 import java.io.File;
 import java.io.PrintWriter;
 
+/**
+ * A table of rows with optional per-column indexes.
+ * <p/>
+ * DbTable is safe to use from many threads. Writers (insert, delete, set on a stored row,
+ * createIndex) take turns on a single write lock. Readers never lock: every select runs
+ * against the TableSnapshot that was current when it started, so it sees one consistent
+ * version of the rows and all indexes however many writes happen meanwhile. Call snapshot()
+ * to run several queries against the same version.
+ */
 public class DbTable {
 
     private ArrayList<String> columnNames;
 
-    // Actual data objects
-    private LinkedList<DataObject> entries;
+    // Actual row data, one array per column
+    private ColumnStore entries;
+
+    // Maps each indexed column to an index of column value -> row ids.
+    // Copied on write, so a published map is never changed.
+    private HashMap<String, Index> indexTrees;
+
+    // Serializes writers
+    private final ReentrantLock writeLock = new ReentrantLock();
+
+    // The latest published version of the table, read by every query
+    private volatile TableSnapshot current;
+
+    // Full scans over at least this many rows are split into chunks and run in parallel
+    private volatile int parallelScanThreshold = DEFAULT_PARALLEL_SCAN_THRESHOLD;
+    private volatile Executor scanExecutor = ForkJoinPool.commonPool();
+
+    public static final int DEFAULT_PARALLEL_SCAN_THRESHOLD = 100000;
+
+    // Write-ahead log of a durable table (see openDurable), or null
+    private volatile WriteAheadLog log;
+
+    // Set once a durable table has been closed; it then rejects writes, which could no longer be logged
+    private volatile boolean closed;
+
+    // A checkpoint is started in the background once this many bytes have been logged since the last one
+    private volatile long checkpointInterval = DEFAULT_CHECKPOINT_INTERVAL;
+    private final AtomicBoolean checkpointRunning = new AtomicBoolean();
+
+    // Held while a checkpoint is written, so checkpoints and close take turns
+    private final Object checkpointLock = new Object();
+
+    public static final long DEFAULT_CHECKPOINT_INTERVAL = 64L << 20;
+
+    // A compaction is started in the background once more than this fraction of the stored rows are dead
+    private volatile double compactionThreshold = DEFAULT_COMPACTION_THRESHOLD;
+    private final AtomicBoolean compactionRunning = new AtomicBoolean();
+
+    // Held while a compaction copies the table, so compactions take turns
+    private final Object compactionLock = new Object();
+
+    public static final double DEFAULT_COMPACTION_THRESHOLD = 0.5;
+
+    // Tables with fewer stored rows than this are not compacted automatically
+    private static final int MIN_COMPACTION_ROWS = 4096;
+
+    // Column whose values set may not change, or null. Set on the shards of a PartitionedTable.
+    private volatile String lockedColumn;
 
-    private HashMap<String, TreeMap<String, ArrayList<DataObject>>> indexTrees;
+    // Counters of the work done by selects and writers
+    private final TableMetrics metrics = new TableMetrics(this);
+
+    // Smallest number of rows a parallel scan hands to one task
+    private static final int MIN_SCAN_CHUNK = 16384;
 
     // Types of comparisons that can be performed
     public enum CompareType {
         LessThan, GreaterThan, LessEq, GreaterEq, Equal, NotEqual
     }
 
+    // Types of values a column can hold. Numeric and TIMESTAMP columns store their values as
+    // primitives and compare them numerically; STRING columns compare lexicographically.
+    // Values are always passed in and returned as Strings.
+    public enum ColumnType {
+        STRING, INT, LONG, DOUBLE, TIMESTAMP
+    }
+
+    // Kinds of index that can be created on a column.
+    // HASH answers Equal in O(1), ORDERED answers Equal and range comparisons in O(log n),
+    // BOTH keeps the two structures side by side.
+    public enum IndexKind {
+        HASH, ORDERED, BOTH
+    }
+
+    // Where a table keeps its STRING values.
+    // HEAP keeps them as Strings, OFF_HEAP as UTF-8 bytes in direct buffers outside the Java
+    // heap, compared as bytes and turned back into Strings only when they are read.
+    public enum Storage {
+        HEAP, OFF_HEAP
+    }
+
+    // Directions rows can be sorted in by a select with an order
+    public enum SortOrder {
+        ASC, DESC
+    }
+
     /**
      * Initializes a table
      *
@@ -30,9 +124,89 @@ public class DbTable {
      * @throws IllegalArgumentException if columnNames is empty or null, or if any String in columnNames is not alphanumeric
      */
     public DbTable(ArrayList<String> columnNames) throws IllegalArgumentException {
+        this(columnNames, null);
+    }
+
+    /**
+     * Initializes a table whose columns have the given types. INT, LONG and DOUBLE values are
+     * written as Java number literals and TIMESTAMP values as ISO-8601 instants, e.g.
+     * "2024-03-01T12:00:00Z". Comparisons and range indexes on a typed column follow the order
+     * of its values, so "20" is less than "100" in an INT column.
+     *
+     * @param columnNames ArrayList of all the column names in the table
+     * @param columnTypes Type of each column, in the same order; null makes every column STRING
+     * @throws IllegalArgumentException if columnTypes is not null and is not the same size as columnNames
+     */
+    public DbTable(ArrayList<String> columnNames, ArrayList<ColumnType> columnTypes) throws IllegalArgumentException {
+        this(columnNames, columnTypes, Storage.HEAP);
+    }
+
+    /**
+     * Initializes a table whose STRING values are kept as the given storage. With OFF_HEAP,
+     * the heap holds one long per row for each STRING column instead of a String per value,
+     * so the heap stays small however many rows the table holds. Index keys are still Strings.
+     *
+     * @param columnNames ArrayList of all the column names in the table
+     * @param columnTypes Type of each column, in the same order; null makes every column STRING
+     * @param storage     Where STRING values are kept
+     * @throws IllegalArgumentException if columnTypes is not null and is not the same size as columnNames
+     */
+    public DbTable(ArrayList<String> columnNames, ArrayList<ColumnType> columnTypes, Storage storage)
+            throws IllegalArgumentException {
+        if (columnTypes != null && columnTypes.size() != columnNames.size()) {
+            throw new IllegalArgumentException("Every column needs exactly one type");
+        }
         this.columnNames = new ArrayList<String>(columnNames);
-        this.entries = new LinkedList<DataObject>();
-        this.indexTrees = new HashMap<String, TreeMap<String, ArrayList<DataObject>>>();
+        this.entries = new ColumnStore(this.columnNames, columnTypes, storage);
+        this.indexTrees = new HashMap<String, Index>();
+        this.current = new TableSnapshot(this, entries, indexTrees, 0, 0, 0);
+    }
+
+    /**
+     * Initializes a table over rows and indexes that already exist, such as ones read from a file
+     *
+     * @param entries    Column storage; rows in it that are not deleted are live
+     * @param indexTrees Indexes over entries
+     * @param liveCount  Number of rows in entries that are not deleted
+     */
+    DbTable(ColumnStore entries, HashMap<String, Index> indexTrees, int liveCount) {
+        this.columnNames = new ArrayList<String>(entries.columnNames());
+        this.entries = entries;
+        this.indexTrees = indexTrees;
+        this.current = new TableSnapshot(this, entries, indexTrees, 0, entries.rowCount(), liveCount);
+    }
+
+    /**
+     * Returns the current version of the table. Queries run through the snapshot all see
+     * the same rows and indexes, regardless of later writes.
+     *
+     * @return The latest published snapshot
+     */
+    public TableSnapshot snapshot() {
+        return current;
+    }
+
+    /**
+     * Returns the table's metrics: selects by plan type, rows examined and returned, latency by
+     * CompareType, index builds and write counts. Call register on the result to publish them
+     * through JMX.
+     *
+     * @return The metrics of this table
+     */
+    public TableMetrics metrics() {
+        return metrics;
+    }
+
+    /**
+     * @return The type of a column
+     * @throws IllegalArgumentException if columnName is not in this.columnNames
+     */
+    public ColumnType columnType(String columnName) throws IllegalArgumentException {
+        int slot = entries.slotOf(columnName);
+        if (slot < 0) {
+            throw new IllegalArgumentException("No such column: " + columnName);
+        }
+        return entries.column(slot).type();
     }
 
     /**
@@ -40,34 +214,181 @@ public class DbTable {
      *
      * @param newRow DataObject to be inserted
      * @throws IllegalArgumentException if newRow is missing any column in columnNames,
-     * or any column value is not an alphanumeric String
+     * or any column value is not an alphanumeric String or not a valid value of its column's type.
+     * A column that is missing from newRow is stored as null, unless it is typed or indexed.
+     * @throws IllegalStateException if this is a durable table that has been closed
      */
     public void insert(DataObject newRow) throws IllegalArgumentException {
-            if(this.indexTrees.isEmpty()){
-                entries.add(newRow);
-            }
-            else {
-                entries.add(newRow);
-                for(Map.Entry< String, TreeMap<String, ArrayList<DataObject>> > arr : this.indexTrees.entrySet()){
-                    String colName = arr.getKey();
-                    // System.out.println("key: " + colName);
-                    TreeMap<String, ArrayList<DataObject>> indexTree = arr.getValue();
-                    // System.out.println("value before: " + indexTree);
-                    String key = newRow.get(colName);
-                    if(this.indexTrees.containsKey(key)){
-                        ArrayList<DataObject> arr1 = this.indexTrees.get(key).get(key);
-                        arr1.add(newRow);
-                    }
-                    else{
-                        ArrayList<DataObject> arr1 = new ArrayList<DataObject>();
-                        arr1.add(newRow);
-                        indexTree.put(key, arr1);
-                    }
-                    // System.out.println("value after: " + indexTree);
+        String[] values = new String[columnNames.size()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = newRow.get(columnNames.get(i));
+        }
+        entries.validate(values);
+        WriteAheadLog wal;
+        long lsn = 0;
+        writeLock.lock();
+        try {
+            wal = writableLog();
+            checkIndexedValues(values);
+            if (wal != null) {
+                lsn = wal.logInsert(values);
+            }
+            int rowId = append(values);
+            publish(current.liveCount + 1);
+            metrics.recordInserts(1);
+            // A detached row becomes a view over the row it was stored as
+            if (newRow.table() == null) {
+                newRow.bind(this, entries, rowId);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            writeLock.unlock();
+        }
+        commit(wal, lsn);
+    }
+
+    /**
+     * Inserts a batch of DataObjects as one write. Readers see either none of the rows or all
+     * of them, and a durable table forces the batch to disk with one fsync.
+     * <p/>
+     * Much faster than inserting the rows one at a time into an indexed table: the rows are
+     * appended first, then grouped by value for each index, and each group is added to its
+     * index bucket in one step.
+     *
+     * @param newRows DataObjects to be inserted, in order
+     * @throws IllegalArgumentException if any row is missing a column in columnNames, or any
+     * column value is not a valid value of its column's type, or is null in an indexed column;
+     * no row is inserted
+     * @throws IllegalStateException if this is a durable table that has been closed
+     */
+    public void insertAll(Collection<DataObject> newRows) throws IllegalArgumentException {
+        ArrayList<String[]> rows = new ArrayList<String[]>(newRows.size());
+        for (DataObject newRow : newRows) {
+            String[] values = new String[columnNames.size()];
+            for (int i = 0; i < values.length; i++) {
+                values[i] = newRow.get(columnNames.get(i));
+            }
+            entries.validate(values);
+            rows.add(values);
+        }
+        WriteAheadLog wal;
+        long lsn;
+        writeLock.lock();
+        try {
+            wal = writableLog();
+            int rowId = entries.rowCount();
+            lsn = appendBatch(wal, rows);
+            // Detached rows become views over the rows they were stored as
+            for (DataObject newRow : newRows) {
+                if (newRow.table() == null) {
+                    newRow.bind(this, entries, rowId);
                 }
+                rowId++;
             }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            writeLock.unlock();
+        }
+        commit(wal, lsn);
     }
 
+    /**
+     * Appends a batch of rows and makes them visible to readers all at once
+     *
+     * @param rows Values of each row, in column order
+     * @throws IllegalArgumentException if a value is not valid for its column's type, or is null in
+     * an indexed column; no row is appended
+     */
+    void appendRows(List<String[]> rows) throws IllegalArgumentException {
+        for (String[] values : rows) {
+            entries.validate(values);
+        }
+        appendValidatedRows(rows);
+    }
+
+    /**
+     * Same as appendRows, for rows whose values have already been checked with
+     * ColumnStore.validate against this table's columns
+     *
+     * @param rows Values of each row, in column order
+     * @throws IllegalArgumentException if a value is null in an indexed column; no row is appended
+     */
+    void appendValidatedRows(List<String[]> rows) throws IllegalArgumentException {
+        WriteAheadLog wal;
+        long lsn;
+        writeLock.lock();
+        try {
+            wal = writableLog();
+            lsn = appendBatch(wal, rows);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            writeLock.unlock();
+        }
+        commit(wal, lsn);
+    }
+
+    // Logs and appends rows, adds them to every index, and publishes them together.
+    // Returns the log position of the last record. Caller holds writeLock.
+    private long appendBatch(WriteAheadLog wal, List<String[]> rows) throws IOException {
+        for (String[] values : rows) {
+            checkIndexedValues(values);
+        }
+        long lsn = 0;
+        int firstRowId = entries.rowCount();
+        for (String[] values : rows) {
+            if (wal != null) {
+                lsn = wal.logInsert(values);
+            }
+            entries.append(values);
+        }
+        HashMap<String, Index> newIndexTrees = null;
+        for (Map.Entry<String, Index> entry : this.indexTrees.entrySet()) {
+            Index index = entry.getValue().addRows(firstRowId, entries.rowCount());
+            if (index != entry.getValue()) {
+                if (newIndexTrees == null) {
+                    newIndexTrees = new HashMap<String, Index>(this.indexTrees);
+                }
+                newIndexTrees.put(entry.getKey(), index);
+            }
+        }
+        if (newIndexTrees != null) {
+            this.indexTrees = newIndexTrees;
+        }
+        publish(current.liveCount + rows.size());
+        metrics.recordInserts(rows.size());
+        return lsn;
+    }
+
+    // Checks that a row has a value for every indexed column, since indexes hold no null keys.
+    // Called before the row is logged; the caller holds writeLock, so no index can be created in between.
+    private void checkIndexedValues(String[] values) throws IllegalArgumentException {
+        for (String column : indexTrees.keySet()) {
+            if (values[entries.slotOf(column)] == null) {
+                throw new IllegalArgumentException("Column " + column + " is indexed and needs a value");
+            }
+        }
+    }
+
+    // Appends a row and adds it to every index. Caller holds writeLock.
+    private int append(String[] values) {
+        int rowId = entries.append(values);
+        for (Index index : this.indexTrees.values()) {
+            index.add(rowId);
+        }
+        return rowId;
+    }
+
+    // Makes every write so far visible to new readers. Caller holds writeLock.
+    private void publish(int liveCount) {
+        current = new TableSnapshot(this, entries, indexTrees, current.version + 1, entries.rowCount(), liveCount);
+    }
+
+    // Relative cost of reaching a row through an index bucket instead of a sequential scan
+    private static final int INDEX_ROW_COST = 3;
+
     /**
      * Returns a subset of the table rows where the columns satisfy ALL of the
      * corresponding conditions specified in the values and ctype Arrays.
@@ -79,6 +400,9 @@ public class DbTable {
      * Then the select call will return all DataObjects in the table where the
      * "lastname" column is equal to "Smith" AND the "score" column is less
      * than or equal to 20.
+     * <p/>
+     * The query is driven from the single most selective usable index (see explain), and
+     * the remaining conditions are checked on the rows that index produces.
      *
      * @param columns String array that specifies which columns are to be compared
      * @param values  String array of the value corresponding to each column
@@ -91,154 +415,822 @@ public class DbTable {
                                         String[] values,
                                         CompareType[] ctype)
             throws IllegalArgumentException {
+        return select(current, columns, values, ctype);
+    }
+
+    // Runs a select against one snapshot of the table
+    ArrayList<DataObject> select(TableSnapshot s, String[] columns, String[] values, CompareType[] ctype)
+            throws IllegalArgumentException {
 
         if (columns.length != values.length || values.length != ctype.length) {
-            System.out.println("Error: Parameters are not the same length!");
-            return null;
+            throw new IllegalArgumentException("Parameters are not the same length");
+        }
+        return select(s, slotsOf(columns), usableIndexes(s, columns, ctype), columns, values, ctype);
+    }
+
+    // Runs a select whose columns have already been resolved to slots, and to the indexes
+    // their predicates can use (see usableIndexes)
+    ArrayList<DataObject> select(TableSnapshot s, int[] slots, Index[] usable, String[] columns, String[] values,
+                                 CompareType[] ctype) throws IllegalArgumentException {
+        QueryPlan plan = plan(s, usable, columns, values, ctype);
+        IntPredicate[] tests = tests(s, slots, values, ctype);
+
+        if (!plan.usesIndex() && s.rowCount >= parallelScanThreshold) {
+            // No index is worth using and the table is big, so scan it in parallel chunks
+            long started = System.nanoTime();
+            ArrayList<DataObject> selectedObjects = parallelScan(s, tests, plan.residual());
+            metrics.recordSelect(TableMetrics.PlanType.PARALLEL_SCAN, ctype.length > 0 ? ctype[0] : null,
+                    System.nanoTime() - started, s.liveCount, selectedObjects.size());
+            return selectedObjects;
         }
 
         // holds the final selected objects to return
         ArrayList<DataObject> selectedObjects = new ArrayList<DataObject>();
+        RowCursor cursor = new RowCursor(this, s, plan, tests, Integer.MAX_VALUE);
+        while (cursor.hasNext()) {
+            selectedObjects.add(cursor.next());
+        }
+        return selectedObjects;
+    }
+
+    /**
+     * Same as select, but stops once limit matching rows have been found
+     *
+     * @param limit Largest number of rows to return
+     * @throws IllegalArgumentException if limit is negative, the lengths of columns, values and ctype
+     * arrays do not match, or any of the strings in the columns array do not match strings in this.columnNames
+     */
+    public ArrayList<DataObject> select(String[] columns, String[] values, CompareType[] ctype, int limit)
+            throws IllegalArgumentException {
+        ArrayList<DataObject> selectedObjects = new ArrayList<DataObject>();
+        Iterator<DataObject> cursor = iterator(columns, values, ctype, limit);
+        while (cursor.hasNext()) {
+            selectedObjects.add(cursor.next());
+        }
+        return selectedObjects;
+    }
 
-        // For each indexed column in columns we can get an ArrayList of DataObjects that satisfy the condition.
-        // indexedObjects stores all of these ArrayLists.
-        ArrayList<ArrayList<DataObject>> indexedObjects = new ArrayList<ArrayList<DataObject>>();
+    /**
+     * Same as select, but returns the rows sorted by the values of one column, in the column
+     * type's order, and stops once limit rows have been found. Rows with equal values come in
+     * the order they were inserted for ASC, and in the reverse of it for DESC.
+     * <p/>
+     * With an ORDERED index on orderBy the index is walked in order and the walk stops after
+     * limit matches, unless a selective index on another column is the better way into the
+     * rows. Otherwise the best limit rows are kept in a heap while the matches are found, so
+     * only limit rows are held at a time.
+     *
+     * @param orderBy Column to sort by
+     * @param order   ASC for the smallest values first, DESC for the largest first
+     * @param limit   Largest number of rows to return; Integer.MAX_VALUE for no limit
+     * @return The first limit matching rows in order
+     * @throws IllegalArgumentException if limit is negative, orderBy is not in this.columnNames,
+     * the lengths of columns, values and ctype arrays do not match, or any of the strings in the
+     * columns array do not match strings in this.columnNames
+     */
+    public ArrayList<DataObject> select(String[] columns, String[] values, CompareType[] ctype,
+                                        String orderBy, SortOrder order, int limit)
+            throws IllegalArgumentException {
+        return select(current, columns, values, ctype, orderBy, order, limit);
+    }
 
-        // This tracks all i's where columns[i] is NOT indexed
-        ArrayList<Integer> nonIndexedIndices = new ArrayList<Integer>();
+    ArrayList<DataObject> select(TableSnapshot s, String[] columns, String[] values, CompareType[] ctype,
+                                 String orderBy, SortOrder order, int limit)
+            throws IllegalArgumentException {
+        if (columns.length != values.length || values.length != ctype.length) {
+            throw new IllegalArgumentException("Parameters are not the same length");
+        }
+        if (limit < 0) {
+            throw new IllegalArgumentException("Limit cannot be negative");
+        }
+        int slot = slotsOf(new String[]{orderBy})[0];
+        return new SortedSelect(this, s, slotsOf(columns), columns, values, ctype).run(orderBy, slot, order, limit);
+    }
 
-        boolean found = false;
-        ArrayList<DataObject> tmp = new ArrayList<DataObject>();
-            for (int i = 0; i < columns.length; i++) { // iterate columns array
-                if (this.indexTrees.containsKey(columns[i])) {
-                    // There is an index for this column, so use it
-                    TreeMap<String, ArrayList<DataObject>> indexTree = this.indexTrees.get(columns[i]);
+    /**
+     * Lazily iterates over the rows that select would return. Rows are found as the iterator
+     * is advanced: index buckets are walked through TreeMap head and tail views and scans
+     * move forward one row at a time, so abandoning the iterator or reaching limit stops all work.
+     * <p/>
+     * The iterator reads the snapshot that was current when it was created, so rows written
+     * while it is in use do not affect it. Close it if it is abandoned before its rows run out,
+     * so the select is recorded in the table's metrics.
+     *
+     * @param columns String array that specifies which columns are to be compared
+     * @param values  String array of the value corresponding to each column
+     * @param ctype   Type of comparison to be performed (e.g. equality, less than, etc)
+     * @param limit   Largest number of rows to return; Integer.MAX_VALUE for no limit
+     * @return Iterator over the matching rows
+     * @throws IllegalArgumentException if limit is negative, the lengths of columns, values and ctype
+     * arrays do not match, or any of the strings in the columns array do not match strings in this.columnNames
+     */
+    public RowCursor iterator(String[] columns, String[] values, CompareType[] ctype, int limit)
+            throws IllegalArgumentException {
+        return cursor(current, columns, values, ctype, limit);
+    }
 
-                    // This ArrayList will store all the objects that satisfy the condition on columns[i]
-                    ArrayList<DataObject> satisfied = new ArrayList<DataObject>();
+    /**
+     * Same as iterator with no limit, as a sequential Stream. Stream operations such as
+     * limit, findFirst and anyMatch stop the underlying walk early; closing the stream closes
+     * the iterator.
+     */
+    public Stream<DataObject> stream(String[] columns, String[] values, CompareType[] ctype)
+            throws IllegalArgumentException {
+        RowCursor cursor = iterator(columns, values, ctype, Integer.MAX_VALUE);
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(cursor,
+                Spliterator.ORDERED | Spliterator.NONNULL), false).onClose(cursor::close);
+    }
 
-                    if (ctype[i] == CompareType.Equal) {
+    RowCursor cursor(TableSnapshot s, String[] columns, String[] values, CompareType[] ctype, int limit)
+            throws IllegalArgumentException {
+        if (columns.length != values.length || values.length != ctype.length) {
+            throw new IllegalArgumentException("Parameters are not the same length");
+        }
+        return cursor(s, slotsOf(columns), usableIndexes(s, columns, ctype), columns, values, ctype, limit);
+    }
 
-                        // Use indexTree.get to find all data objects whose column values are equal to value[i]
-                        ArrayList<DataObject> arrayTree = indexTree.get(values[i]);
-                        for (int j = 0; j < arrayTree.size(); j++) {
-                            satisfied.add(arrayTree.get(j));
-                        }
-                        //System.out.println("satisfied after equal " + satisfied);
-                    } else if (ctype[i] == CompareType.LessThan) {
-                        // Use indexTree.headMap to find all data objects whose column values are less than value[i]
-                        ArrayList<DataObject> arrayTree = indexTree.get(values[i]);
-                            // then add them to satisfied if less than
-                                for (ArrayList<DataObject> lessThanArr : indexTree.headMap(values[i], false).values()) {
-                                    for (int j = 0; j < lessThanArr.size(); j++) {
-                                        satisfied.add(lessThanArr.get(j));
-                                    }
-                                }
-                        System.out.println("satisfied after less than : " + satisfied);
-                    } else if (ctype[i] == CompareType.LessEq) {
-                        // Use indexTree.headMap to find all data objects whose column values are less than or equal to value[i]
-                        ArrayList<DataObject> arrayTree = indexTree.get(values[i]);
-                        // then add them to satisfied if less than
-                        for (ArrayList<DataObject> lessThanEqArr : indexTree.headMap(values[i], true).values()) {
-                            for (int j = 0; j < lessThanEqArr.size(); j++) {
-                                satisfied.add(lessThanEqArr.get(j));
-                            }
-                        }
-                        System.out.println("satisfied after less than equal : " + satisfied);
-                    } else if (ctype[i] == CompareType.GreaterThan) {
-                        // Use indexTree.tailMap to find all data objects whose column values are greater than value[i]
-                        ArrayList<DataObject> arrayTree = indexTree.get(values[i]);
-                        // then add them to satisfied if less than
-                        for (ArrayList<DataObject> greaterThanArr : indexTree.tailMap(values[i], false).values()) {
-                            for (int j = 0; j < greaterThanArr.size(); j++) {
-                                satisfied.add(greaterThanArr.get(j));
-                            }
-                        }
-                        System.out.println("satisfied after greater than : " + satisfied);
-                    } else if (ctype[i] == CompareType.GreaterEq) {
-                        // Use indexTree.tailMap to find all data objects whose column values are greater than or equal to value[i]
-                        ArrayList<DataObject> arrayTree = indexTree.get(values[i]);
-                        // then add them to satisfied if less than
-                        for (ArrayList<DataObject> greaterThanEqArr : indexTree.tailMap(values[i], true).values()) {
-                            for (int j = 0; j < greaterThanEqArr.size(); j++) {
-                                satisfied.add(greaterThanEqArr.get(j));
-                            }
-                        }
-                        System.out.println("satisfied after greater than equal :  " + satisfied);
-                    } else if (ctype[i] == CompareType.NotEqual) {
-                        // Treat this as non-indexed
-                        nonIndexedIndices.add(i);
-                        continue;
+    RowCursor cursor(TableSnapshot s, int[] slots, Index[] usable, String[] columns, String[] values,
+                     CompareType[] ctype, int limit) throws IllegalArgumentException {
+        if (limit < 0) {
+            throw new IllegalArgumentException("Limit cannot be negative");
+        }
+        QueryPlan plan = plan(s, usable, columns, values, ctype);
+        return new RowCursor(this, s, plan, tests(s, slots, values, ctype), limit);
+    }
+
+    /**
+     * Prepares a select whose columns and comparisons stay the same from one run to the next,
+     * to be run many times with different values. The columns are resolved once here, and
+     * a single Equal predicate on an indexed column is then answered straight from the index
+     * (see PreparedQuery).
+     *
+     * @param columns String array that specifies which columns are to be compared
+     * @param ctype   Type of comparison to be performed on each column
+     * @return The prepared query; it may be run from any number of threads
+     * @throws IllegalArgumentException if the lengths of columns and ctype do not match,
+     * or if any of the strings in the columns array do not match strings in this.columnNames
+     */
+    public PreparedQuery prepare(String[] columns, CompareType[] ctype) throws IllegalArgumentException {
+        if (columns.length != ctype.length) {
+            throw new IllegalArgumentException("Parameters are not the same length");
+        }
+        return new PreparedQuery(this, columns.clone(), slotsOf(columns), ctype.clone());
+    }
+
+    /**
+     * Counts the rows that select would return. When the only predicate is on an indexed
+     * column, the rows are counted bucket by bucket in the index without reading them.
+     * Empty arrays count every row.
+     *
+     * @param columns String array that specifies which columns are to be compared
+     * @param values  String array of the value corresponding to each column
+     * @param ctype   Type of comparison to be performed (e.g. equality, less than, etc)
+     * @return Number of matching rows
+     * @throws IllegalArgumentException if the lengths of columns, values and ctype arrays do not match,
+     * or if any of the strings in the columns array do not match strings in this.columnNames
+     */
+    public long count(String[] columns, String[] values, CompareType[] ctype) throws IllegalArgumentException {
+        return new Aggregator(current, columns, values, ctype).count();
+    }
+
+    /**
+     * Returns the smallest value of column among the rows that select would return, in the
+     * column type's order. With an ORDERED index on column, and either no predicates or a single
+     * predicate on column, the answer is read from the first index bucket in range.
+     *
+     * @param column Column whose values are compared
+     * @return The smallest value, or null if no row matches
+     * @throws IllegalArgumentException as for count, or if column is not in this.columnNames
+     */
+    public String min(String column, String[] columns, String[] values, CompareType[] ctype)
+            throws IllegalArgumentException {
+        return new Aggregator(current, columns, values, ctype).min(column);
+    }
+
+    /**
+     * Same as min, for the largest value
+     */
+    public String max(String column, String[] columns, String[] values, CompareType[] ctype)
+            throws IllegalArgumentException {
+        return new Aggregator(current, columns, values, ctype).max(column);
+    }
+
+    /**
+     * Adds up an INT, LONG or DOUBLE column over the rows that select would return. With an
+     * index on column, and either no predicates or a single predicate on column, each index
+     * bucket of an INT or LONG column adds its value times its number of rows. DOUBLE values
+     * are added one row at a time in row id order, so their sum does not depend on which
+     * indexes exist.
+     *
+     * @param column Column to add up
+     * @return A Long for INT and LONG columns, a Double for DOUBLE columns; 0 if no row matches
+     * @throws IllegalArgumentException as for count, or if column is not an INT, LONG or DOUBLE column
+     */
+    public Number sum(String column, String[] columns, String[] values, CompareType[] ctype)
+            throws IllegalArgumentException {
+        return new Aggregator(current, columns, values, ctype).sum(column);
+    }
+
+    /**
+     * Counts the rows that select would return by their value of column. With an ORDERED index
+     * on column, and either no predicates or a single predicate on column, the counts are read
+     * from the index buckets.
+     *
+     * @param column Column to group by
+     * @return Number of matching rows holding each value, in the column type's order of the values
+     * @throws IllegalArgumentException as for count, or if column is not in this.columnNames
+     */
+    public LinkedHashMap<String, Long> groupBy(String column, String[] columns, String[] values, CompareType[] ctype)
+            throws IllegalArgumentException {
+        return new Aggregator(current, columns, values, ctype).groupBy(column);
+    }
+
+    /**
+     * Joins this table with another on equal values of a column of each. Same as the join with
+     * predicates, with no predicates on either side.
+     */
+    public JoinCursor join(String column, DbTable inner, String innerColumn) throws IllegalArgumentException {
+        return join(column, new String[0], new String[0], new CompareType[0],
+                inner, innerColumn, new String[0], new String[0], new CompareType[0]);
+    }
+
+    /**
+     * Lazily iterates over the pairs of rows, one from this (outer) table and one from inner,
+     * whose values of column and innerColumn are equal. Each side is first filtered with its own
+     * predicates, as select would filter it. Values of columns of different types are equal if
+     * the outer value, read as a value of the inner column's type, equals the inner value.
+     * <p/>
+     * If inner has an index on innerColumn, each outer row looks its value up in that index
+     * (index nested loop). Otherwise the matching inner rows are read once into a hash table
+     * the first time the iterator is used, and outer rows probe it (hash join), so the smaller
+     * side should be the inner one. Either way pairs are found as the iterator is advanced,
+     * in outer row order, and both tables are read as of the moment join was called.
+     *
+     * @param column      Join column of this table
+     * @param columns     Columns of this table to filter on, as for select
+     * @param values      Values to compare them against
+     * @param ctype       Comparisons to perform
+     * @param inner       Table to join with; may be this table
+     * @param innerColumn Join column of inner
+     * @param innerColumns Columns of inner to filter on
+     * @param innerValues Values to compare them against
+     * @param innerCtype  Comparisons to perform
+     * @return Iterator over the matching pairs; each pair is {outer row, inner row}
+     * @throws IllegalArgumentException if a column is not in its table, or the lengths of either
+     * side's predicate arrays do not match
+     */
+    public JoinCursor join(String column, String[] columns, String[] values, CompareType[] ctype,
+                           DbTable inner, String innerColumn,
+                           String[] innerColumns, String[] innerValues, CompareType[] innerCtype)
+            throws IllegalArgumentException {
+        TableSnapshot outerSnapshot = current;
+        TableSnapshot innerSnapshot = inner.current;
+        int outerSlot = slotsOf(new String[]{column})[0];
+        int innerSlot = inner.slotsOf(new String[]{innerColumn})[0];
+        RowCursor outerRows = cursor(outerSnapshot, columns, values, ctype, Integer.MAX_VALUE);
+
+        Index innerIndex = innerSnapshot.indexes.get(innerColumn);
+        if (innerIndex != null) {
+            if (innerColumns.length != innerValues.length || innerValues.length != innerCtype.length) {
+                throw new IllegalArgumentException("Parameters are not the same length");
+            }
+            return new JoinCursor(outerSnapshot, outerRows, outerSlot, innerSnapshot, innerSlot, innerIndex,
+                    tests(innerSnapshot, inner.slotsOf(innerColumns), innerValues, innerCtype), null);
+        }
+        RowCursor innerRows = inner.cursor(innerSnapshot, innerColumns, innerValues, innerCtype, Integer.MAX_VALUE);
+        return new JoinCursor(outerSnapshot, outerRows, outerSlot, innerSnapshot, innerSlot, null,
+                new IntPredicate[0], innerRows);
+    }
+
+    /**
+     * Configures when full-table scans run in parallel. A scan over a snapshot with at least
+     * threshold rows is split into chunks of row ids that are checked on executor, and the
+     * matches are merged back in row id order. Smaller tables are always scanned on the calling thread.
+     *
+     * @param threshold Smallest table to scan in parallel; Integer.MAX_VALUE turns parallel scans off
+     * @param executor  Where chunks run, for example ForkJoinPool.commonPool()
+     * @throws IllegalArgumentException if threshold is negative or executor is null
+     */
+    public void setParallelScan(int threshold, Executor executor) throws IllegalArgumentException {
+        if (threshold < 0 || executor == null) {
+            throw new IllegalArgumentException();
+        }
+        this.parallelScanThreshold = threshold;
+        this.scanExecutor = executor;
+    }
+
+    // Scans the snapshot in chunks on scanExecutor. Each chunk collects matching row ids into
+    // its own IntList, so only the final result holds DataObjects.
+    private ArrayList<DataObject> parallelScan(final TableSnapshot s, final IntPredicate[] tests,
+                                               final int[] residual) {
+        int tasks = 4 * Runtime.getRuntime().availableProcessors();
+        int chunk = Math.max(MIN_SCAN_CHUNK, (s.rowCount + tasks - 1) / tasks);
+        Executor executor = scanExecutor;
+
+        ArrayList<CompletableFuture<IntList>> parts = new ArrayList<CompletableFuture<IntList>>();
+        for (int start = 0; start < s.rowCount; start += chunk) {
+            final int from = start;
+            final int to = Math.min(s.rowCount, start + chunk);
+            parts.add(CompletableFuture.supplyAsync(() -> {
+                IntList matched = new IntList();
+                for (int rowId = from; rowId < to; rowId++) {
+                    if (s.isVisible(rowId) && matches(tests, rowId, residual)) {
+                        matched.add(rowId);
                     }
-                    indexedObjects.add(satisfied);
-                }
-                else {
-                    // There is NOT an index for this column, so add it to the list of nonIndexedColumnsNames
-                    nonIndexedIndices.add(i);
                 }
+                return matched;
+            }, executor));
+        }
+
+        ArrayList<IntList> results = new ArrayList<IntList>(parts.size());
+        int total = 0;
+        for (CompletableFuture<IntList> part : parts) {
+            IntList matched = part.join();
+            results.add(matched);
+            total += matched.size();
+        }
+        ArrayList<DataObject> selectedObjects = new ArrayList<DataObject>(total);
+        for (IntList matched : results) {
+            for (int j = 0; j < matched.size(); j++) {
+                selectedObjects.add(new DataObject(this, s.store, matched.get(j)));
             }
+        }
+        return selectedObjects;
+    }
+
+    /**
+     * Describes how select would run a query, without running it
+     *
+     * @param columns String array that specifies which columns are to be compared
+     * @param values  String array of the value corresponding to each column
+     * @param ctype   Type of comparison to be performed (e.g. equality, less than, etc)
+     * @return The chosen plan; its toString shows the driving index, estimates and residual filters
+     * @throws IllegalArgumentException if the lengths of columns, values and ctype arrays do not match,
+     * or if any of the strings in the columns array do not match strings in this.columnNames
+     */
+    public QueryPlan explain(String[] columns, String[] values, CompareType[] ctype)
+            throws IllegalArgumentException {
+        return explain(current, columns, values, ctype);
+    }
 
-        ArrayList<DataObject> toCheck;
-        if (indexedObjects.size() > 0) {
-            // If there were indexed columns then get all data objects that satisfied ALL of the conditions
-            selectedObjects = intersect(indexedObjects);
-        } else {
-            // If there were not ANY indexed columns, then just scan the whole linked list
-            toCheck = new ArrayList<DataObject>(this.entries);
-            // Now run your old select code on the toCheck ArrayList:
-            for (DataObject obj : toCheck) {
-                for (Integer ind : nonIndexedIndices) {
-                    String column = columns[ind];
-                    String value = values[ind];
-                    CompareType type = ctype[ind];
-                    int result = obj.get(column).compareTo(value);
-                    if (type == CompareType.Equal && result == 0) {
-                        selectedObjects.add(obj);
-                    } else if (type == CompareType.LessEq && result <= 0) {
-                        selectedObjects.add(obj);
-                    } else if (type == CompareType.LessThan && result < 0) {
-                        selectedObjects.add(obj);
-                    } else if (type == CompareType.GreaterEq && result >= 0) {
-                        selectedObjects.add(obj);
-                    } else if (type == CompareType.GreaterThan && result > 0) {
-                        selectedObjects.add(obj);
-                    } else if (type == CompareType.LessEq && result <= 0) {
-                        selectedObjects.add(obj);
-                    } else if (type == CompareType.NotEqual && result != 0) {
-                        selectedObjects.add(obj);
+    QueryPlan explain(TableSnapshot s, String[] columns, String[] values, CompareType[] ctype)
+            throws IllegalArgumentException {
+        if (columns.length != values.length || values.length != ctype.length) {
+            throw new IllegalArgumentException("Parameters are not the same length");
+        }
+        slotsOf(columns); // rejects unknown columns
+        return plan(s, usableIndexes(s, columns, ctype), columns, values, ctype);
+    }
+
+    // Picks the predicate whose index yields the fewest candidate rows, if that beats a full scan,
+    // then adds any other indexed predicate whose bitmap is cheaper to build than checking it per row.
+    // Indexes hold no null keys, so a predicate against null is always checked per row.
+    // usable holds the index each predicate can use, as returned by usableIndexes for s.
+    QueryPlan plan(TableSnapshot s, Index[] usable, String[] columns, String[] values, CompareType[] ctype) {
+        long tableRows = s.liveCount;
+        long[] estimates = new long[columns.length];
+        int driver = -1;
+        for (int i = 0; i < columns.length; i++) {
+            Index index = usable[i];
+            if (index == null || values[i] == null) {
+                estimates[i] = -1;
+                continue;
+            }
+            estimates[i] = index.estimate(ctype[i], values[i]);
+            if (driver < 0 || estimates[i] < estimates[driver]) {
+                driver = i;
+            }
+        }
+        if (driver >= 0 && estimates[driver] * INDEX_ROW_COST >= tableRows) {
+            driver = -1;
+        }
+
+        IntList indexed = new IntList();
+        IntList residual = new IntList();
+        long estimatedRows = tableRows;
+        if (driver >= 0) {
+            indexed.add(driver);
+            estimatedRows = estimates[driver];
+        }
+        for (int i = 0; i < columns.length; i++) {
+            if (i == driver) {
+                continue;
+            }
+            // NotEqual is applied as AND NOT of the Equal bucket, which costs the size of that bucket
+            long cost = ctype[i] == CompareType.NotEqual && estimates[i] >= 0
+                    ? usable[i].estimate(CompareType.Equal, values[i])
+                    : estimates[i];
+            if (driver >= 0 && cost >= 0 && cost <= estimates[driver] * INDEX_ROW_COST) {
+                indexed.add(i);
+            } else {
+                residual.add(i);
+            }
+        }
+        return new QueryPlan(indexed.toArray(), residual.toArray(), estimatedRows, tableRows,
+                columns, values, ctype);
+    }
+
+    // ANDs together the row id bitmaps of the indexed conditions of a plan
+    RowBitmap indexBitmap(TableSnapshot s, QueryPlan plan) {
+        String[] columns = plan.columns();
+        String[] values = plan.values();
+        CompareType[] ctype = plan.compareTypes();
+        RowBitmap result = null;
+        for (int i : plan.indexed()) {
+            Index index = s.indexes.get(columns[i]);
+            if (ctype[i] == CompareType.NotEqual) {
+                IntList equal = index.get(values[i]);
+                RowBitmap base = result != null ? result : s.liveBitmap();
+                result = equal == null ? base : base.andNot(RowBitmap.of(equal));
+            } else {
+                RowBitmap bitmap = new RowBitmap();
+                for (IntList bucket : index.buckets(ctype[i], values[i], false)) {
+                    for (int j = 0; j < bucket.size(); j++) {
+                        bitmap.add(bucket.get(j));
                     }
                 }
+                result = result == null ? bitmap : result.and(bitmap);
+            }
+            if (result.isEmpty()) {
+                break;
             }
         }
-        return selectedObjects;
+        return result;
+    }
+
+    /**
+     * Finds the index each predicate can use in a snapshot: the index on its column, unless
+     * the predicate is a range comparison and the index is a HASH index
+     *
+     * @return The usable index of each predicate, or null for a predicate that has none
+     */
+    static Index[] usableIndexes(TableSnapshot s, String[] columns, CompareType[] ctype) {
+        Index[] usable = new Index[columns.length];
+        for (int i = 0; i < columns.length; i++) {
+            Index index = s.indexes.get(columns[i]);
+            if (index != null && (!isRange(ctype[i]) || index.isOrdered())) {
+                usable[i] = index;
+            }
+        }
+        return usable;
+    }
+
+    static boolean isRange(CompareType type) {
+        return type != CompareType.Equal && type != CompareType.NotEqual;
+    }
+
+    // Resolves column names to column slots
+    private int[] slotsOf(String[] columns) throws IllegalArgumentException {
+        int[] slots = new int[columns.length];
+        for (int i = 0; i < columns.length; i++) {
+            slots[i] = entries.slotOf(columns[i]);
+            if (slots[i] < 0) {
+                throw new IllegalArgumentException("No such column: " + columns[i]);
+            }
+        }
+        return slots;
+    }
+
+    // Builds a row test for every condition, parsing each value once for its column's type
+    static IntPredicate[] tests(TableSnapshot s, int[] slots, String[] values, CompareType[] ctype)
+            throws IllegalArgumentException {
+        IntPredicate[] tests = new IntPredicate[slots.length];
+        for (int i = 0; i < slots.length; i++) {
+            tests[i] = s.store.column(slots[i]).test(ctype[i], values[i]);
+        }
+        return tests;
+    }
+
+    // Checks the conditions at the given positions against one row
+    static boolean matches(IntPredicate[] tests, int rowId, int[] which) {
+        for (int ind : which) {
+            if (!tests[ind].test(rowId)) {
+                return false;
+            }
+        }
+        return true;
     }
 
     /**
      * Removes a DataObject from the table
      *
      * @param toDelete the DataObject to be removed
+     * @throws IllegalStateException if this is a durable table that has been closed
      */
     public void delete(DataObject toDelete) {
-        if(this.indexTrees.isEmpty()){
-            this.entries.remove(toDelete);
-        }
-        else {
-            this.entries.remove(toDelete);
-            for(Map.Entry< String, TreeMap<String, ArrayList<DataObject>> > arr : this.indexTrees.entrySet()){
-                String colName = arr.getKey();
-                TreeMap<String, ArrayList<DataObject>> indexTree = arr.getValue();
-                String key = toDelete.get(colName);
-                if(this.indexTrees.containsKey(colName)){
-                    this.indexTrees.get(colName).get(key).remove(toDelete);
-                    //if after deletion indexTree is empty, delete indexTree
-                    if(this.indexTrees.get(colName).get(key).isEmpty()){
-                        this.indexTrees.get(colName).remove(key);
+        WriteAheadLog wal;
+        long lsn = 0;
+        writeLock.lock();
+        try {
+            wal = writableLog();
+            // Only rows stored in this table, and not already deleted, can be deleted from it
+            if (!isCurrent(toDelete)) {
+                return;
+            }
+            if (wal != null) {
+                lsn = wal.logDelete(toDelete.rowId());
+            }
+            deleteRow(toDelete.rowId());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            writeLock.unlock();
+        }
+        commit(wal, lsn);
+        maybeCompact();
+    }
+
+    /**
+     * Deletes every row that select(columns, values, ctype) would return. The rows are found
+     * the same way select finds them, without holding up other writers, and are then deleted
+     * together as one write. A matching row that another writer deletes or changes in the
+     * meantime is left alone.
+     *
+     * @param columns String array that specifies which columns are to be compared
+     * @param values  String array of the value corresponding to each column
+     * @param ctype   Type of comparison to be performed (e.g. equality, less than, etc)
+     * @return Number of rows deleted
+     * @throws IllegalArgumentException if the lengths of columns, values and ctype arrays do not match,
+     * or if any of the strings in the columns array do not match strings in this.columnNames
+     * @throws IllegalStateException if this is a durable table that has been closed
+     */
+    public int deleteWhere(String[] columns, String[] values, CompareType[] ctype) throws IllegalArgumentException {
+        TableSnapshot s = current;
+        IntList matches = new IntList();
+        RowCursor cursor = cursor(s, columns, values, ctype, Integer.MAX_VALUE);
+        for (int rowId = cursor.nextRowId(); rowId >= 0; rowId = cursor.nextRowId()) {
+            matches.add(rowId);
+        }
+        if (matches.isEmpty()) {
+            return 0;
+        }
+
+        WriteAheadLog wal;
+        long lsn = 0;
+        int deleted = 0;
+        writeLock.lock();
+        try {
+            wal = writableLog();
+            long version = current.version + 1;
+            for (int i = 0; i < matches.size(); i++) {
+                // The row has a new id if the table was compacted since s
+                int rowId = currentRowId(s.store, matches.get(i));
+                if (rowId < 0 || !current.isVisible(rowId)) {
+                    continue;
+                }
+                if (wal != null) {
+                    lsn = wal.logDelete(rowId);
+                }
+                entries.markDeleted(rowId, version);
+                deleted++;
+            }
+            if (deleted > 0) {
+                publish(current.liveCount - deleted);
+                metrics.recordDeletes(deleted);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            writeLock.unlock();
+        }
+        commit(wal, lsn);
+        maybeCompact();
+        return deleted;
+    }
+
+    // Deletes a live row. Caller holds writeLock.
+    private void deleteRow(int rowId) {
+        entries.markDeleted(rowId, current.version + 1);
+        publish(current.liveCount - 1);
+        metrics.recordDeletes(1);
+    }
+
+    /**
+     * Changes the value of one column of a stored row. The change is written as a new version
+     * of the row, which row then points at, so readers still using the old version are not affected.
+     *
+     * @param row    The row to change
+     * @param column Name of the column
+     * @param value  New value to store
+     * @throws IllegalArgumentException if column is not in this.columnNames, value is not
+     * a valid value of its type or is null and column is indexed, or this is a shard of a
+     * PartitionedTable and column is its partition key
+     */
+    void update(DataObject row, String column, String value) throws IllegalArgumentException {
+        int slot = entries.slotOf(column);
+        if (slot < 0) {
+            throw new IllegalArgumentException("No such column: " + column);
+        }
+        if (column.equals(lockedColumn)) {
+            throw new IllegalArgumentException("Cannot change the partition key " + column
+                    + "; delete the row and insert it again");
+        }
+        entries.column(slot).validate(value);
+        WriteAheadLog wal;
+        long lsn = 0;
+        writeLock.lock();
+        try {
+            wal = writableLog();
+            if (!isCurrent(row)) {
+                return;
+            }
+            if (value == null && indexTrees.containsKey(column)) {
+                throw new IllegalArgumentException("Column " + column + " is indexed and needs a value");
+            }
+            if (wal != null) {
+                lsn = wal.logUpdate(row.rowId(), slot, value);
+            }
+            row.bind(this, entries, updateRow(row.rowId(), slot, value));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            writeLock.unlock();
+        }
+        commit(wal, lsn);
+        maybeCompact();
+    }
+
+    // Writes a new version of a live row with one column changed, and returns its row id.
+    // Caller holds writeLock.
+    private int updateRow(int rowId, int slot, String value) {
+        String[] values = entries.row(rowId);
+        values[slot] = value;
+        int newRowId = append(values);
+        entries.markDeleted(rowId, current.version + 1);
+        publish(current.liveCount);
+        metrics.recordUpdate();
+        return newRowId;
+    }
+
+    // Checks that row is the latest version of a row in this table. A row from before a
+    // compaction is first moved over to its new row id. Caller holds writeLock.
+    private boolean isCurrent(DataObject row) {
+        if (row.table() != this) {
+            return false;
+        }
+        int rowId = currentRowId(row.store(), row.rowId());
+        if (rowId < 0) {
+            return false;
+        }
+        if (row.store() != entries) {
+            row.bind(this, entries, rowId);
+        }
+        return current.isVisible(rowId);
+    }
+
+    // Follows a row of this table through the compactions since it was read.
+    // Returns its row id in entries, or -1 if it was dropped. Caller holds writeLock.
+    private int currentRowId(ColumnStore store, int rowId) {
+        while (store != entries) {
+            if (store.next() == null) {
+                return -1;
+            }
+            rowId = store.forwardedId(rowId);
+            if (rowId < 0) {
+                return -1;
+            }
+            store = store.next();
+        }
+        return rowId;
+    }
+
+    /**
+     * Reclaims the space held by deleted rows and by the old row versions that set leaves
+     * behind. Rows are only marked deleted when they are deleted, and stay in their index
+     * buckets until a compaction, because queries running against older snapshots may still
+     * need them.
+     * <p/>
+     * Compaction copies the live rows to new column storage, in the same order, and rebuilds
+     * every index over the copy. The copy is made from a snapshot while queries and writers
+     * carry on; writers are only held up at the end, while the writes made during the copy
+     * are carried over to it. Queries that started before the compaction keep reading the old
+     * storage, and DataObjects read before it can still be changed and deleted.
+     * <p/>
+     * Compaction runs in the background on its own once enough of the table is dead (see
+     * setCompactionThreshold). Does nothing if no rows are dead.
+     */
+    public void compact() {
+        synchronized (compactionLock) {
+            TableSnapshot s = current;
+            if (s.liveCount == s.rowCount) {
+                return;
+            }
+
+            // Copy the rows that are live in s, and build indexes over the copy
+            ColumnStore fresh = s.store.emptyCopy();
+            int[] newIds = new int[s.rowCount];
+            for (int rowId = 0; rowId < s.rowCount; rowId++) {
+                newIds[rowId] = s.isVisible(rowId) ? fresh.appendFrom(s.store, rowId) : -1;
+            }
+            HashMap<String, Index> freshIndexes = new HashMap<String, Index>();
+            for (Map.Entry<String, Index> entry : s.indexes.entrySet()) {
+                freshIndexes.put(entry.getKey(), buildIndex(fresh, current.version,
+                        fresh.slotOf(entry.getKey()), entry.getValue().kind()));
+            }
+
+            WriteAheadLog wal;
+            long lsn = 0;
+            writeLock.lock();
+            try {
+                // Carry over the writes made since s. Rows deleted meanwhile are kept in the
+                // copy as deleted rows, since snapshots from before the switch cannot see the copy.
+                TableSnapshot now = current;
+                newIds = Arrays.copyOf(newIds, now.rowCount);
+                IntList tombstoned = new IntList();
+                for (int rowId = 0; rowId < now.rowCount; rowId++) {
+                    if (rowId >= s.rowCount) {
+                        newIds[rowId] = fresh.appendFrom(entries, rowId);
+                        for (Index index : freshIndexes.values()) {
+                            index.add(newIds[rowId]);
+                        }
+                    }
+                    if (newIds[rowId] >= 0 && !now.isVisible(rowId)) {
+                        fresh.markDeleted(newIds[rowId], entries.deletedAt(rowId));
+                        tombstoned.add(rowId);
+                    }
+                }
+                // Indexes created or widened since s
+                for (Map.Entry<String, Index> entry : indexTrees.entrySet()) {
+                    Index copied = freshIndexes.get(entry.getKey());
+                    if (copied == null || copied.kind() != entry.getValue().kind()) {
+                        freshIndexes.put(entry.getKey(), buildIndex(fresh, now.version,
+                                fresh.slotOf(entry.getKey()), entry.getValue().kind()));
                     }
                 }
+                wal = log;
+                if (wal != null) {
+                    lsn = wal.logCompact(tombstoned);
+                }
+                switchTo(fresh, freshIndexes, newIds);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            } finally {
+                writeLock.unlock();
             }
+            commit(wal, lsn);
+        }
+    }
 
+    /**
+     * Sets how much of a table has to be dead before a compaction is started in the background
+     *
+     * @param deadFraction Fraction of the stored rows that are deleted rows or old row versions;
+     *                     DEFAULT_COMPACTION_THRESHOLD by default. 1 turns automatic compaction off.
+     * @throws IllegalArgumentException if deadFraction is not between 0 and 1
+     */
+    public void setCompactionThreshold(double deadFraction) throws IllegalArgumentException {
+        if (!(deadFraction >= 0 && deadFraction <= 1)) {
+            throw new IllegalArgumentException("Compaction threshold must be between 0 and 1");
+        }
+        this.compactionThreshold = deadFraction;
+    }
+
+    // Starts a compaction in the background if enough of the table is dead
+    private void maybeCompact() {
+        TableSnapshot s = current;
+        if (s.rowCount < MIN_COMPACTION_ROWS || s.rowCount - s.liveCount <= compactionThreshold * s.rowCount) {
+            return;
+        }
+        if (compactionRunning.compareAndSet(false, true)) {
+            CompletableFuture.runAsync(() -> {
+                try {
+                    compact();
+                } catch (RuntimeException e) {
+                    // Nothing waits on the compaction, so count the failure where it can be seen
+                    metrics.recordCompactionFailure(e);
+                } finally {
+                    compactionRunning.set(false);
+                }
+            });
         }
+    }
+
+    // Replaces the storage and indexes with compacted ones. Caller holds writeLock.
+    private void switchTo(ColumnStore fresh, HashMap<String, Index> freshIndexes, int[] newIds) {
+        entries.forward(fresh, newIds);
+        entries = fresh;
+        indexTrees = freshIndexes;
+        publish(current.liveCount);
+    }
 
+    // Builds an index in slot over the rows of store that are live at version
+    private static Index buildIndex(ColumnStore store, long version, int slot, IndexKind kind)
+            throws IllegalArgumentException {
+        Column column = store.column(slot);
+        // Only STRING columns hold null
+        boolean mayHoldNull = !column.hasLongKeys();
+        IntList rows = new IntList();
+        for (int rowId = 0; rowId < store.rowCount(); rowId++) {
+            if (store.deletedAt(rowId) <= version) {
+                continue;
+            }
+            if (mayHoldNull && column.compare(rowId, null) == 0) {
+                throw new IllegalArgumentException("Cannot index column " + store.columnNames().get(slot)
+                        + ": row " + rowId + " has no value in it");
+            }
+            rows.add(rowId);
+        }
+        return Index.build(column, kind, rows);
     }
 
     /**
@@ -278,16 +1270,269 @@ public class DbTable {
                 writer.print(this.columnNames.get(x) + ",");
             } else writer.println(this.columnNames.get(x));
         }
-        for (int i = 0; i < entries.size(); i++) {
+        TableSnapshot s = current;
+        for (int i = s.nextVisible(0); i >= 0; i = s.nextVisible(i + 1)) {
             for (int j = 0; j < columnNames.size(); j++) {
                 if (j != columnNames.size() - 1) {
-                    writer.print(this.entries.get(i).get(this.columnNames.get(j)) + ",");
-                } else writer.println(this.entries.get(i).get(this.columnNames.get(j)));
+                    writer.print(s.store.get(i, j) + ",");
+                } else writer.println(s.store.get(i, j));
             }
         }
         writer.close();
     }
 
+    /**
+     * Writes the table and all of its indexes to a binary table file (see TableFile for the format).
+     * Unlike writeToFile, a binary file can be reopened with openFile without re-parsing the
+     * rows or rebuilding the indexes.
+     *
+     * @param outputFileName Name of the file to write. If the file already exists then it will be overwritten.
+     * @throws java.io.IOException if the file cannot be written to
+     */
+    public void writeToBinaryFile(String outputFileName) throws java.io.IOException {
+        TableFile.write(current, outputFileName);
+    }
+
+    /**
+     * Opens a binary table file written by writeToBinaryFile. The file is memory-mapped, so the
+     * table can be queried right away and rows are paged in as they are read. Saved indexes are
+     * read back the first time a query uses them. The table keeps its STRING values the way the
+     * table that wrote the file did (see Storage).
+     *
+     * @param inputFileName Name of the file to open
+     * @return DbTable instance
+     * @throws java.io.IOException if the file doesn't exist or cannot be read
+     * @throws IllegalArgumentException if the file is not a binary table file of a supported version
+     */
+    public static DbTable openFile(String inputFileName) throws IllegalArgumentException, java.io.IOException {
+        return TableFile.open(inputFileName);
+    }
+
+    /**
+     * Opens a durable table, creating it if it does not exist yet. Every insert, delete, set
+     * and createIndex on a durable table is written to a write-ahead log and forced to disk
+     * before the call returns; writers that commit at the same time share one fsync.
+     * The log is checkpointed in the background every so often (see setCheckpointInterval),
+     * and reopening the table after a crash replays the log since the last checkpoint.
+     * See WriteAheadLog for the files a durable table is kept in.
+     * <p/>
+     * Writes become visible to other threads' queries as soon as they are applied, which may
+     * be just before they are on disk.
+     *
+     * @param baseName    Path and name shared by the table's files, e.g. "data/courses"
+     * @param columnNames Columns of the table. May be null if the table already exists.
+     * @return DbTable instance
+     * @throws java.io.IOException if the table's files cannot be read or written
+     * @throws IllegalArgumentException if the table does not exist and columnNames is null,
+     * or it exists with different columns
+     */
+    public static DbTable openDurable(String baseName, ArrayList<String> columnNames)
+            throws IllegalArgumentException, java.io.IOException {
+        return WriteAheadLog.open(baseName, columnNames, null, null);
+    }
+
+    /**
+     * Same as openDurable(baseName, columnNames), for a table with typed columns
+     *
+     * @param columnTypes Type of each column; null for all STRING, or for whatever types an existing table has
+     * @throws IllegalArgumentException if the table exists with different columns or types
+     */
+    public static DbTable openDurable(String baseName, ArrayList<String> columnNames,
+                                      ArrayList<ColumnType> columnTypes)
+            throws IllegalArgumentException, java.io.IOException {
+        return WriteAheadLog.open(baseName, columnNames, columnTypes, null);
+    }
+
+    /**
+     * Same as openDurable(baseName, columnNames, columnTypes), for a table whose STRING values
+     * are kept as the given storage. The storage is saved with every checkpoint, so the table
+     * is reopened and recovered with it.
+     *
+     * @param storage Where STRING values are kept; null for HEAP, or for whatever an existing table has
+     * @throws IllegalArgumentException if the table exists with different columns, types or storage
+     */
+    public static DbTable openDurable(String baseName, ArrayList<String> columnNames,
+                                      ArrayList<ColumnType> columnTypes, Storage storage)
+            throws IllegalArgumentException, java.io.IOException {
+        return WriteAheadLog.open(baseName, columnNames, columnTypes, storage);
+    }
+
+    /**
+     * Writes a checkpoint of a durable table so that reopening it only replays the writes made
+     * after this point. Writers are only held up while the log switches to a new segment; the
+     * checkpoint itself is written from a snapshot.
+     *
+     * @throws java.io.IOException if the checkpoint cannot be written
+     * @throws IllegalStateException if the table was not opened with openDurable, or has been closed
+     */
+    public void checkpoint() throws java.io.IOException {
+        synchronized (checkpointLock) {
+            TableSnapshot s;
+            long checkpoint;
+            WriteAheadLog wal;
+            writeLock.lock();
+            try {
+                wal = log;
+                if (wal == null) {
+                    throw new IllegalStateException("Table is not open for durable writes");
+                }
+                s = current;
+                checkpoint = wal.rotate();
+            } finally {
+                writeLock.unlock();
+            }
+            wal.checkpoint(s, checkpoint);
+        }
+    }
+
+    /**
+     * Sets how much log a durable table writes before it starts a checkpoint in the background
+     *
+     * @param logBytes Bytes logged since the last checkpoint; DEFAULT_CHECKPOINT_INTERVAL by default
+     * @throws IllegalArgumentException if logBytes is not positive
+     */
+    public void setCheckpointInterval(long logBytes) throws IllegalArgumentException {
+        if (logBytes <= 0) {
+            throw new IllegalArgumentException("Checkpoint interval must be positive");
+        }
+        this.checkpointInterval = logBytes;
+    }
+
+    /**
+     * Forces every write of a durable table to disk and closes its log. The table can still be
+     * queried afterwards, but inserts, deletes, sets and createIndex throw IllegalStateException,
+     * since they could no longer be logged. Does nothing for other tables.
+     *
+     * @throws java.io.IOException if the log cannot be written
+     */
+    public void close() throws java.io.IOException {
+        synchronized (checkpointLock) {
+            WriteAheadLog wal;
+            writeLock.lock();
+            try {
+                wal = log;
+                log = null;
+                if (wal != null) {
+                    closed = true;
+                }
+            } finally {
+                writeLock.unlock();
+            }
+            if (wal != null) {
+                wal.close();
+            }
+        }
+    }
+
+    // Log to write a change to, or null for a table that is not durable. Caller holds writeLock.
+    private WriteAheadLog writableLog() throws IllegalStateException {
+        if (closed) {
+            throw new IllegalStateException("Table has been closed");
+        }
+        return log;
+    }
+
+    // Makes set reject changes to a column
+    void lockColumn(String column) {
+        this.lockedColumn = column;
+    }
+
+    // Starts logging the writes of a table that has been opened by WriteAheadLog
+    void attachLog(WriteAheadLog wal) {
+        writeLock.lock();
+        try {
+            this.log = wal;
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    // Waits until a logged write is on disk, then starts a checkpoint if enough has been logged
+    private void commit(WriteAheadLog wal, long lsn) {
+        if (wal == null) {
+            return;
+        }
+        try {
+            wal.sync(lsn);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        if (wal.segmentBytes() >= checkpointInterval && checkpointRunning.compareAndSet(false, true)) {
+            CompletableFuture.runAsync(() -> {
+                try {
+                    checkpoint();
+                } catch (IOException | RuntimeException e) {
+                    // The log still holds every write, so the next checkpoint covers this one
+                    metrics.recordCheckpointFailure(e);
+                } finally {
+                    checkpointRunning.set(false);
+                }
+            });
+        }
+    }
+
+    // Replays writes read back from the write-ahead log, while the table is being opened
+
+    void redoInsert(String[] values) {
+        appendRows(Collections.singletonList(values));
+    }
+
+    void redoDelete(int rowId) {
+        writeLock.lock();
+        try {
+            if (current.isVisible(rowId)) {
+                deleteRow(rowId);
+            }
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    void redoUpdate(int rowId, int slot, String value) {
+        writeLock.lock();
+        try {
+            if (current.isVisible(rowId)) {
+                updateRow(rowId, slot, value);
+            }
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    // Repeats a compaction: the copy held the rows that were live when it switched over, plus
+    // the tombstoned rows, which had been deleted while it was copying
+    void redoCompact(int[] tombstoned) {
+        writeLock.lock();
+        try {
+            TableSnapshot now = current;
+            ColumnStore fresh = entries.emptyCopy();
+            int[] newIds = new int[now.rowCount];
+            int next = 0;
+            for (int rowId = 0; rowId < now.rowCount; rowId++) {
+                boolean kept = next < tombstoned.length && tombstoned[next] == rowId;
+                if (kept) {
+                    next++;
+                }
+                if (kept || now.isVisible(rowId)) {
+                    newIds[rowId] = fresh.appendFrom(entries, rowId);
+                    if (kept) {
+                        fresh.markDeleted(newIds[rowId], now.version);
+                    }
+                } else {
+                    newIds[rowId] = -1;
+                }
+            }
+            HashMap<String, Index> freshIndexes = new HashMap<String, Index>();
+            for (Map.Entry<String, Index> entry : indexTrees.entrySet()) {
+                freshIndexes.put(entry.getKey(), buildIndex(fresh, now.version,
+                        fresh.slotOf(entry.getKey()), entry.getValue().kind()));
+            }
+            switchTo(fresh, freshIndexes, newIds);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
     /**
      * Reads a saved table file (usually one written by the writeToFile method) and re-constructs the DbTable instance.
      * See writeToFile for description of file format.
@@ -327,39 +1572,70 @@ public class DbTable {
     }
 
     /**
-     * Creates an index for the specified column in the indexTrees data structure.
+     * Creates an ORDERED index for the specified column in the indexTrees data structure.
      * If the specified column is already indexed then it does nothing.
      *
      * @param columnName The name of the column in this.columnNames to index
      * @throws IllegalArgumentException if columnName is not a string in this.columnNames
+     * @throws IllegalStateException if this is a durable table that has been closed
      */
     public void createIndex(String columnName) throws IllegalArgumentException {
+        createIndex(columnName, IndexKind.ORDERED);
+    }
+
+    /**
+     * Creates an index of the given kind for the specified column in the indexTrees data structure.
+     * If the column already has an index that covers kind then it does nothing; if it has an index
+     * of the other kind, the missing structure is added and the index becomes BOTH.
+     * <p/>
+     * Equal and NotEqual comparisons can use any kind of index. LessThan, LessEq, GreaterThan and
+     * GreaterEq can only use ORDERED or BOTH; on a HASH-only column they fall back to a scan.
+     *
+     * @param columnName The name of the column in this.columnNames to index
+     * @param kind       HASH, ORDERED or BOTH
+     * @throws IllegalArgumentException if columnName is not a string in this.columnNames, or a
+     * row holds null in it; indexes hold no null keys
+     * @throws IllegalStateException if this is a durable table that has been closed
+     */
+    public void createIndex(String columnName, IndexKind kind) throws IllegalArgumentException {
         // Make sure that columnName is contained in this.columnNames
         if (!this.columnNames.contains(columnName)) {
             throw new IllegalArgumentException("Cannot create an index on a non-existent column");
         }
 
-        // Check to see if there is already an index for columnName
-        if (this.indexTrees.get(columnName) != null) {
-            return;
-        }
-
-        // Create a new index tree for this column
-        TreeMap<String, ArrayList<DataObject>> newIndexTree = new TreeMap<String, ArrayList<DataObject>>();
-
-        // Index every DataObject in this.entries
-        for (DataObject obj : this.entries) {
-            String columnValue = obj.get(columnName);
-            if (newIndexTree.containsKey(columnValue)) {
-                ArrayList<DataObject> items = newIndexTree.get(columnValue);
-                items.add(obj);
+        WriteAheadLog wal;
+        long lsn = 0;
+        writeLock.lock();
+        try {
+            wal = writableLog();
+            // Check to see if there is already an index for columnName
+            Index existing = this.indexTrees.get(columnName);
+            if (existing != null && existing.covers(kind)) {
+                return;
+            }
+            Index newIndex;
+            if (existing != null) {
+                // Add the missing structure to a copy, leaving the published index alone
+                newIndex = existing.widened(kind);
             } else {
-                ArrayList<DataObject> items = new ArrayList<DataObject>();
-                items.add(obj);
-                newIndexTree.put(columnValue, items);
+                long started = System.nanoTime();
+                newIndex = buildIndex(entries, current.version, entries.slotOf(columnName), kind);
+                metrics.recordIndexBuild(System.nanoTime() - started);
+            }
+            // Logged once the index is built, so a column it cannot be built on is never logged
+            if (wal != null) {
+                lsn = wal.logCreateIndex(columnName, kind);
             }
+            HashMap<String, Index> newIndexTrees = new HashMap<String, Index>(this.indexTrees);
+            newIndexTrees.put(columnName, newIndex);
+            this.indexTrees = newIndexTrees;
+            publish(current.liveCount);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            writeLock.unlock();
         }
-        this.indexTrees.put(columnName, newIndexTree);
+        commit(wal, lsn);
     }
 
     /**
@@ -367,27 +1643,51 @@ public class DbTable {
      *
      * ex1: If arraySet = {{1,2,3}, {2,3}}, intersect returns {2,3}
      * ex2: If arraySet = {{1,2}, {2,3}, {2, 4}}, intersect returns {2}
+     * <p/>
+     * When every object is a row of the same table the sets are intersected as row id bitmaps.
      *
      * @param arraySet Sets to intersect
      * @return All data objects that belong to each set
      */
     public static ArrayList<DataObject> intersect(ArrayList<ArrayList<DataObject>> arraySet) {
-        HashMap<DataObject, Integer> frequency = new HashMap<DataObject, Integer>();
+        ArrayList<DataObject> rtn = new ArrayList<DataObject>();
+        if (arraySet.isEmpty()) {
+            return rtn;
+        }
+
+        DataObject first = commonStore(arraySet);
+        if (first != null) {
+            RowBitmap result = null;
+            for (ArrayList<DataObject> objects : arraySet) {
+                RowBitmap bitmap = new RowBitmap();
+                for (DataObject object : objects) {
+                    bitmap.add(object.rowId());
+                }
+                result = result == null ? bitmap : result.and(bitmap);
+            }
+            for (int rowId = result.nextSetBit(0); rowId >= 0; rowId = result.nextSetBit(rowId + 1)) {
+                rtn.add(new DataObject(first.table(), first.store(), rowId));
+            }
+            return rtn;
+        }
+
+        // Views match when they show the same stored row; detached objects only match themselves
+        HashMap<Object, Integer> frequency = new HashMap<Object, Integer>();
+        HashMap<Object, DataObject> objectOf = new HashMap<Object, DataObject>();
         for (ArrayList<DataObject> objects : arraySet) {
             for (DataObject object : objects) {
-
-                if (frequency.containsKey(object)) {
-                    frequency.put(object, frequency.get(object)+1);
+                Object key = object.store() == null ? object : new RowKey(object.store(), object.rowId());
+                if (frequency.containsKey(key)) {
+                    frequency.put(key, frequency.get(key)+1);
                 } else {
-                    frequency.put(object, 1);
+                    frequency.put(key, 1);
+                    objectOf.put(key, object);
                 }
             }
         }
 
-        ArrayList<DataObject> rtn = new ArrayList<DataObject>();
-
-        for (Map.Entry<DataObject, Integer> entry : frequency.entrySet()) {
-            DataObject obj = entry.getKey();
+        for (Map.Entry<Object, Integer> entry : frequency.entrySet()) {
+            DataObject obj = objectOf.get(entry.getKey());
             int count = entry.getValue();
 
             if (count == arraySet.size()) {
@@ -396,4 +1696,41 @@ public class DbTable {
         }
         return rtn;
     }
+
+    // A stored row, as viewed by a DataObject when intersect looked at it
+    private static final class RowKey {
+        final ColumnStore store;
+        final int rowId;
+
+        RowKey(ColumnStore store, int rowId) {
+            this.store = store;
+            this.rowId = rowId;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof RowKey && ((RowKey) o).store == store && ((RowKey) o).rowId == rowId;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * System.identityHashCode(store) + rowId;
+        }
+    }
+
+    // Returns one of the objects if they are all rows of the same column storage, otherwise null
+    private static DataObject commonStore(ArrayList<ArrayList<DataObject>> arraySet) {
+        DataObject first = null;
+        for (ArrayList<DataObject> objects : arraySet) {
+            for (DataObject object : objects) {
+                if (object.store() == null || (first != null && object.store() != first.store())) {
+                    return null;
+                }
+                if (first == null) {
+                    first = object;
+                }
+            }
+        }
+        return first;
+    }
 }
@@ -0,0 +1,165 @@
+/*
+ * Column of double values, stored in a primitive array. Values are ordered as by
+ * Double.compare, so NaN sorts above every other value.
+ * <p/>
+ * A column opened from a table file reads its values in place from the file's mapping, so
+ * only the pages a query touches are loaded. The first append copies them into the array.
+ */
+
+import java.nio.DoubleBuffer;
+import java.util.Arrays;
+import java.util.function.IntPredicate;
+
+public class DoubleColumn extends Column {
+
+    // Grown by copying; rows already stored keep the same value in every copy
+    private volatile double[] values;
+
+    // Values of the rows read from a table file, until the first append copies them into
+    // values. Null once copied; values is set before this is cleared.
+    private volatile DoubleBuffer mapped;
+
+    private int size;
+
+    public DoubleColumn() {
+        this.values = new double[16];
+        this.size = 0;
+    }
+
+    /**
+     * Initializes a column over values mapped from a table file
+     *
+     * @param mapped Values of rows 0 to size - 1
+     * @param size   Number of rows
+     */
+    DoubleColumn(DoubleBuffer mapped, int size) {
+        this.mapped = mapped;
+        this.size = size;
+    }
+
+    @Override
+    public DbTable.ColumnType type() {
+        return DbTable.ColumnType.DOUBLE;
+    }
+
+    public double getDouble(int row) {
+        DoubleBuffer m = mapped;
+        return m != null ? m.get(row) : values[row];
+    }
+
+    @Override
+    public String get(int row) {
+        return Double.toString(getDouble(row));
+    }
+
+    @Override
+    public void append(String value) {
+        appendDouble(parse(value));
+    }
+
+    @Override
+    public void appendFrom(Column source, int row) {
+        if (source instanceof DoubleColumn) {
+            appendDouble(((DoubleColumn) source).getDouble(row));
+        } else {
+            super.appendFrom(source, row);
+        }
+    }
+
+    private void appendDouble(double value) {
+        double[] v = values;
+        DoubleBuffer m = mapped;
+        // A new array gets the row before it is published, as StringColumn does
+        if (m != null) {
+            // Copy the mapped rows before the first row of our own
+            v = new double[Math.max(16, size * 2)];
+            m.get(0, v, 0, size);
+            v[size++] = value;
+            values = v;
+            mapped = null;
+        } else if (size == v.length) {
+            v = Arrays.copyOf(v, size * 2);
+            v[size++] = value;
+            values = v;
+        } else {
+            v[size++] = value;
+        }
+    }
+
+    @Override
+    public void validate(String value) throws IllegalArgumentException {
+        parse(value);
+    }
+
+    @Override
+    public int compare(int row, String value) {
+        return Double.compare(getDouble(row), parse(value));
+    }
+
+    @Override
+    public int compareRows(int a, int b) {
+        return Double.compare(getDouble(a), getDouble(b));
+    }
+
+    @Override
+    public IntPredicate test(DbTable.CompareType ctype, String value) throws IllegalArgumentException {
+        final double v = parse(value);
+        final DoubleBuffer m = mapped;
+        if (m != null) {
+            // Rows stored so far are all in the mapping
+            switch (ctype) {
+                case Equal: return (int row) -> Double.compare(m.get(row), v) == 0;
+                case NotEqual: return (int row) -> Double.compare(m.get(row), v) != 0;
+                case LessThan: return (int row) -> Double.compare(m.get(row), v) < 0;
+                case LessEq: return (int row) -> Double.compare(m.get(row), v) <= 0;
+                case GreaterThan: return (int row) -> Double.compare(m.get(row), v) > 0;
+                default: return (int row) -> Double.compare(m.get(row), v) >= 0;
+            }
+        }
+        // Every row stored so far is in the current array
+        final double[] data = values;
+        switch (ctype) {
+            case Equal: return (int row) -> Double.compare(data[row], v) == 0;
+            case NotEqual: return (int row) -> Double.compare(data[row], v) != 0;
+            case LessThan: return (int row) -> Double.compare(data[row], v) < 0;
+            case LessEq: return (int row) -> Double.compare(data[row], v) <= 0;
+            case GreaterThan: return (int row) -> Double.compare(data[row], v) > 0;
+            default: return (int row) -> Double.compare(data[row], v) >= 0;
+        }
+    }
+
+    @Override
+    public long longKey(int row) {
+        return key(getDouble(row));
+    }
+
+    @Override
+    public long longKey(String value) throws IllegalArgumentException {
+        return key(parse(value));
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    static double parse(String value) throws IllegalArgumentException {
+        if (value == null) {
+            throw new IllegalArgumentException("Not a valid DOUBLE: null");
+        }
+        try {
+            double v = Double.parseDouble(value);
+            // 0.0 and -0.0 are the same value
+            return v == 0.0 ? 0.0 : v;
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Not a valid DOUBLE: " + value);
+        }
+    }
+
+    // Long key of a value: its IEEE bits, with all but the sign bit flipped for negative values
+    // so that the keys order like the values
+    static long key(double value) {
+        long bits = Double.doubleToLongBits(value);
+        return bits >= 0 ? bits : bits ^ Long.MAX_VALUE;
+    }
+}
@@ -0,0 +1,329 @@
+/*
+ * Index on one column of a DbTable, mapping each column value to the row ids that hold it.
+ * Depending on its kind the index keeps a hash map for O(1) equality probes, a sorted map for
+ * ordered range scans, or both sharing the same buckets.
+ * <p/>
+ * STRING columns are indexed by their values (see StringIndex). Typed columns are indexed by
+ * a primitive long that orders like their values (see Column.longKey and LongIndex), so their
+ * keys are never Strings or boxed numbers. Either way callers give values as a select does.
+ * <p/>
+ * Only the table's writer adds to an index, and readers may use it at the same time. The
+ * planner's statistics are rebuilt by the writer as it adds rows and published as one
+ * immutable object, so estimating a select never locks or walks the index. Deleted
+ * rows stay in their buckets, since older snapshots may still see them; readers filter
+ * buckets through their TableSnapshot. Rows are added in row id order, so each bucket holds
+ * its row ids in increasing order. No bucket is kept for null: the table rejects null in an
+ * indexed column.
+ */
+
+import java.util.Collections;
+import java.util.function.Consumer;
+
+public abstract class Index {
+
+    private final DbTable.IndexKind kind;
+
+    // The indexed column, whose rows are read when they are added
+    final Column column;
+
+    // Statistics used by the query planner. Only the writer changes them; stats is replaced
+    // whole, so a reader sees the largest bucket and histogram of the same refresh.
+    volatile long entryCount;
+    private long changesSinceStats;
+    private volatile Stats stats;
+
+    // Fills the index the first time it is used, for indexes read from a table file
+    private volatile Consumer<Index> loader;
+
+    Index(Column column, DbTable.IndexKind kind, Consumer<Index> loader) {
+        this.column = column;
+        this.kind = kind;
+        this.loader = loader;
+    }
+
+    /**
+     * Creates an empty index on a column
+     *
+     * @param column Column to index
+     * @param kind   HASH, ORDERED or BOTH
+     * @return The new index
+     */
+    static Index create(Column column, DbTable.IndexKind kind) {
+        return create(column, kind, null);
+    }
+
+    /**
+     * Creates an index whose buckets are only put in place by loader, the first time the
+     * index is used
+     *
+     * @param column Column to index
+     * @param kind   HASH, ORDERED or BOTH
+     * @param loader Fills the index, or null if it starts empty
+     * @return The new index
+     */
+    static Index create(Column column, DbTable.IndexKind kind, Consumer<Index> loader) {
+        return column.hasLongKeys() ? new LongIndex(column, kind, loader) : new StringIndex(column, kind, loader);
+    }
+
+    /**
+     * Builds an index on some rows of a column. The rows are grouped by value, and the distinct
+     * values are sorted once so an ordered structure is assembled in one linear pass.
+     *
+     * @param column Column to index
+     * @param kind   HASH, ORDERED or BOTH
+     * @param rows   Row ids to index, in increasing order; each holds a value
+     * @return The new index
+     */
+    static Index build(Column column, DbTable.IndexKind kind, IntList rows) {
+        return column.hasLongKeys() ? LongIndex.build(column, kind, rows) : StringIndex.build(column, kind, rows);
+    }
+
+    public DbTable.IndexKind kind() {
+        return kind;
+    }
+
+    /**
+     * @return true if this index covers everything an index of the wanted kind would
+     */
+    public boolean covers(DbTable.IndexKind wanted) {
+        return kind == DbTable.IndexKind.BOTH || kind == wanted;
+    }
+
+    /**
+     * @return true if this index can answer LessThan, LessEq, GreaterThan and GreaterEq
+     */
+    public boolean isOrdered() {
+        return kind != DbTable.IndexKind.HASH;
+    }
+
+    /**
+     * Builds a copy of this index that also has whatever structure wanted needs. Asking an
+     * ORDERED index for HASH (or the other way round) gives a BOTH index. The copy shares
+     * this index's buckets.
+     *
+     * @param wanted The kind of index requested
+     * @return The copy
+     */
+    abstract Index widened(DbTable.IndexKind wanted);
+
+    // Kind of an index that has both what an index of kind has and what wanted needs
+    static DbTable.IndexKind widen(DbTable.IndexKind kind, DbTable.IndexKind wanted) {
+        return kind == wanted ? kind : DbTable.IndexKind.BOTH;
+    }
+
+    /**
+     * Adds a row that the column has just been given
+     *
+     * @param rowId Row id, greater than any in the index
+     */
+    public abstract void add(int rowId);
+
+    /**
+     * Adds rows [from, to) of the column, and returns the index that holds them. A batch is
+     * grouped by value so each bucket is looked up once; when it brings in many new keys and
+     * the index is ordered, the sorted structure is rebuilt by merging the sorted new keys with
+     * the existing ones in one pass, which is far cheaper than inserting each key. The result
+     * is then a new index sharing this one's buckets, and this one keeps its keys for the
+     * snapshots that use it.
+     *
+     * @param from First row id to add, greater than any in the index
+     * @param to   Row id after the last one to add
+     * @return This index, or the rebuilt one
+     */
+    abstract Index addRows(int from, int to);
+
+    /**
+     * Returns the row ids whose value equals value, using the hash map when there is one
+     *
+     * @param value Value to look up, as given to a select
+     * @return Bucket of row ids, or null if no row holds value
+     * @throws IllegalArgumentException if value is not a valid value of the column's type
+     */
+    public abstract IntList get(String value) throws IllegalArgumentException;
+
+    /**
+     * Returns the row ids whose value equals that of a row of another column of the same type,
+     * without turning it into a String
+     *
+     * @param other Column of the same type as the indexed one
+     * @param row   Row id in other
+     * @return Bucket of row ids, or null if no row holds the value (or it is null)
+     */
+    abstract IntList get(Column other, int row);
+
+    /**
+     * Returns the buckets of the rows satisfying "column ctype value". Equal gives at most
+     * one bucket; the range comparisons give their buckets in key order.
+     *
+     * @param ctype      Equal, LessThan, LessEq, GreaterThan or GreaterEq
+     * @param value      Value compared against, as given to a select
+     * @param descending true to walk a range from its largest key down
+     * @throws IllegalArgumentException if value is not a valid value of the column's type
+     * @throws UnsupportedOperationException for a range comparison on a HASH index
+     */
+    public Iterable<IntList> buckets(DbTable.CompareType ctype, String value, boolean descending)
+            throws IllegalArgumentException {
+        if (ctype == DbTable.CompareType.Equal) {
+            IntList bucket = get(value);
+            return bucket == null ? Collections.<IntList>emptyList() : Collections.singletonList(bucket);
+        }
+        checkOrdered();
+        return range(ctype, value, descending);
+    }
+
+    /**
+     * Returns every bucket in key order
+     *
+     * @param descending true to walk from the largest key down
+     * @throws UnsupportedOperationException if this is a HASH index
+     */
+    public Iterable<IntList> buckets(boolean descending) {
+        checkOrdered();
+        return ordered(descending);
+    }
+
+    /**
+     * @return Every bucket, in no particular order
+     */
+    public abstract Iterable<IntList> allBuckets();
+
+    // Buckets of an ordered index satisfying a range comparison
+    abstract Iterable<IntList> range(DbTable.CompareType ctype, String value, boolean descending);
+
+    // Buckets of an ordered index in key order
+    abstract Iterable<IntList> ordered(boolean descending);
+
+    /**
+     * @return Number of distinct keys in the index
+     */
+    public abstract int size();
+
+    /**
+     * @return Number of row ids in the index, including rows deleted since it was built
+     */
+    public long entryCount() {
+        ensureLoaded();
+        return entryCount;
+    }
+
+    /**
+     * Roughly estimates the heap the index uses: a map entry per key in each structure, the
+     * key itself, and its bucket of 4-byte row ids. An index read from a table file that no
+     * query has used yet is not in memory, and counts as 0.
+     *
+     * @return Estimated size in bytes
+     */
+    public long estimatedBytes() {
+        if (loader != null) {
+            return 0;
+        }
+        return size() * bytesPerKey() + entryCount * 4;
+    }
+
+    // Approximate heap bytes per key, for estimatedBytes
+    abstract long bytesPerKey();
+
+    /**
+     * @return Size of the largest bucket as of the last statistics refresh
+     */
+    public int largestBucket() {
+        ensureLoaded();
+        Stats current = stats;
+        return current == null ? 0 : current.largestBucket;
+    }
+
+    /**
+     * Estimates how many rows satisfy "column ctype value". Equal is answered exactly from the
+     * bucket size, range comparisons from the key histogram.
+     *
+     * @param ctype Comparison to estimate
+     * @param value Value compared against, as given to a select
+     * @return Estimated number of matching rows
+     * @throws IllegalArgumentException if value is not a valid value of the column's type
+     */
+    public long estimate(DbTable.CompareType ctype, String value) throws IllegalArgumentException {
+        IntList bucket = get(value);
+        long equal = bucket == null ? 0 : bucket.size();
+        long total = entryCount;
+        if (ctype == DbTable.CompareType.Equal) {
+            return equal;
+        }
+        if (ctype == DbTable.CompareType.NotEqual) {
+            return total - equal;
+        }
+        ensureLoaded();
+        Stats current = stats;
+        KeyHistogram h = current == null ? null : current.histogram;
+        if (h == null) {
+            return total;
+        }
+        // The histogram only sees the keys as of its last refresh, so keep the estimate in range
+        long below = Math.min(rowsBelow(h, value), total);
+        if (ctype == DbTable.CompareType.LessThan) {
+            return below;
+        } else if (ctype == DbTable.CompareType.LessEq) {
+            return Math.min(total, below + equal);
+        } else if (ctype == DbTable.CompareType.GreaterThan) {
+            return Math.max(0, total - below - equal);
+        } else {
+            return total - below;
+        }
+    }
+
+    // Histogram over the keys of an ordered index, or null for a HASH index
+    abstract KeyHistogram histogram();
+
+    // Estimated number of rows below value, from a histogram made by histogram()
+    abstract long rowsBelow(KeyHistogram h, String value);
+
+    // Counts rows the writer has added, and rebuilds the statistics once about a tenth of the
+    // entries have changed
+    final void changed(long rows) {
+        changesSinceStats += rows;
+        if (stats == null || changesSinceStats > Math.max(64, entryCount / 10)) {
+            refreshStats();
+        }
+    }
+
+    // Rebuilds the histogram and bucket statistics from the buckets. Called by the writer, or by
+    // whoever builds or loads the index before it is used.
+    final void refreshStats() {
+        changesSinceStats = 0;
+        int largest = 0;
+        for (IntList bucket : allBuckets()) {
+            largest = Math.max(largest, bucket.size());
+        }
+        stats = new Stats(largest, histogram());
+    }
+
+    final void ensureLoaded() {
+        // The loading thread holds the lock, and reaches here again as it builds the statistics
+        if (loader != null && !Thread.holdsLock(this)) {
+            synchronized (this) {
+                Consumer<Index> load = loader;
+                if (load != null) {
+                    load.accept(this);
+                    refreshStats();
+                    loader = null;
+                }
+            }
+        }
+    }
+
+    private void checkOrdered() {
+        if (!isOrdered()) {
+            throw new UnsupportedOperationException("A HASH index cannot answer range comparisons");
+        }
+    }
+
+    // Planner statistics as of one refresh
+    private static final class Stats {
+        final int largestBucket;
+        final KeyHistogram histogram;
+
+        Stats(int largestBucket, KeyHistogram histogram) {
+            this.largestBucket = largestBucket;
+            this.histogram = histogram;
+        }
+    }
+}
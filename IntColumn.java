@@ -0,0 +1,152 @@
+/*
+ * Column of int values, stored in a primitive array.
+ * <p/>
+ * A column opened from a table file reads its values in place from the file's mapping, so
+ * only the pages a query touches are loaded. The first append copies them into the array.
+ */
+
+import java.nio.IntBuffer;
+import java.util.Arrays;
+import java.util.function.IntPredicate;
+
+public class IntColumn extends Column {
+
+    // Grown by copying; rows already stored keep the same value in every copy
+    private volatile int[] values;
+
+    // Values of the rows read from a table file, until the first append copies them into
+    // values. Null once copied; values is set before this is cleared.
+    private volatile IntBuffer mapped;
+
+    private int size;
+
+    public IntColumn() {
+        this.values = new int[16];
+        this.size = 0;
+    }
+
+    /**
+     * Initializes a column over values mapped from a table file
+     *
+     * @param mapped Values of rows 0 to size - 1
+     * @param size   Number of rows
+     */
+    IntColumn(IntBuffer mapped, int size) {
+        this.mapped = mapped;
+        this.size = size;
+    }
+
+    @Override
+    public DbTable.ColumnType type() {
+        return DbTable.ColumnType.INT;
+    }
+
+    public int getInt(int row) {
+        IntBuffer m = mapped;
+        return m != null ? m.get(row) : values[row];
+    }
+
+    @Override
+    public String get(int row) {
+        return Integer.toString(getInt(row));
+    }
+
+    @Override
+    public void append(String value) {
+        appendInt(parse(value));
+    }
+
+    @Override
+    public void appendFrom(Column source, int row) {
+        if (source instanceof IntColumn) {
+            appendInt(((IntColumn) source).getInt(row));
+        } else {
+            super.appendFrom(source, row);
+        }
+    }
+
+    private void appendInt(int value) {
+        int[] v = values;
+        IntBuffer m = mapped;
+        // A new array gets the row before it is published, as StringColumn does
+        if (m != null) {
+            // Copy the mapped rows before the first row of our own
+            v = new int[Math.max(16, size * 2)];
+            m.get(0, v, 0, size);
+            v[size++] = value;
+            values = v;
+            mapped = null;
+        } else if (size == v.length) {
+            v = Arrays.copyOf(v, size * 2);
+            v[size++] = value;
+            values = v;
+        } else {
+            v[size++] = value;
+        }
+    }
+
+    @Override
+    public void validate(String value) throws IllegalArgumentException {
+        parse(value);
+    }
+
+    @Override
+    public int compare(int row, String value) {
+        return Integer.compare(getInt(row), parse(value));
+    }
+
+    @Override
+    public int compareRows(int a, int b) {
+        return Integer.compare(getInt(a), getInt(b));
+    }
+
+    @Override
+    public IntPredicate test(DbTable.CompareType ctype, String value) throws IllegalArgumentException {
+        final int v = parse(value);
+        final IntBuffer m = mapped;
+        if (m != null) {
+            // Rows stored so far are all in the mapping
+            switch (ctype) {
+                case Equal: return (int row) -> m.get(row) == v;
+                case NotEqual: return (int row) -> m.get(row) != v;
+                case LessThan: return (int row) -> m.get(row) < v;
+                case LessEq: return (int row) -> m.get(row) <= v;
+                case GreaterThan: return (int row) -> m.get(row) > v;
+                default: return (int row) -> m.get(row) >= v;
+            }
+        }
+        // Every row stored so far is in the current array
+        final int[] data = values;
+        switch (ctype) {
+            case Equal: return (int row) -> data[row] == v;
+            case NotEqual: return (int row) -> data[row] != v;
+            case LessThan: return (int row) -> data[row] < v;
+            case LessEq: return (int row) -> data[row] <= v;
+            case GreaterThan: return (int row) -> data[row] > v;
+            default: return (int row) -> data[row] >= v;
+        }
+    }
+
+    @Override
+    public long longKey(int row) {
+        return getInt(row);
+    }
+
+    @Override
+    public long longKey(String value) throws IllegalArgumentException {
+        return parse(value);
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    static int parse(String value) throws IllegalArgumentException {
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Not a valid INT: " + value);
+        }
+    }
+}
@@ -0,0 +1,71 @@
+/*
+ * Growable array of primitive ints, used to hold row ids without boxing.
+ * <p/>
+ * One thread may add values while others read: a value is written before the size that
+ * covers it is published, and a grown array is published before the size grows past the old one.
+ */
+
+import java.util.Arrays;
+
+public class IntList {
+
+    private volatile int[] data;
+    private volatile int size;
+
+    public IntList() {
+        this(4);
+    }
+
+    public IntList(int initialCapacity) {
+        data = new int[Math.max(1, initialCapacity)];
+        size = 0;
+    }
+
+    public void add(int value) {
+        int[] a = data;
+        int n = size;
+        if (n == a.length) {
+            a = Arrays.copyOf(a, n * 2);
+            data = a;
+        }
+        a[n] = value;
+        size = n + 1;
+    }
+
+    /**
+     * Appends every value of other, growing the array at most once
+     *
+     * @param other Values to append
+     */
+    public void addAll(IntList other) {
+        int[] from = other.data;
+        int count = other.size;
+        int[] a = data;
+        int n = size;
+        if (n + count > a.length) {
+            a = Arrays.copyOf(a, Math.max(a.length * 2, n + count));
+            data = a;
+        }
+        System.arraycopy(from, 0, a, n, count);
+        size = n + count;
+    }
+
+    public int get(int i) {
+        if (i >= size) {
+            throw new IndexOutOfBoundsException("Index: " + i + ", Size: " + size);
+        }
+        return data[i];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public int[] toArray() {
+        return Arrays.copyOf(data, size);
+    }
+}
@@ -0,0 +1,157 @@
+/*
+ * Lazily walks the pairs of rows of two TableSnapshots whose join columns hold equal values,
+ * as made by DbTable.join. Outer rows are read one at a time from a select cursor, and each is
+ * matched against the inner rows in one of two ways:
+ * <pre>
+ *   index nested loop   the inner table has an index on its join column, so the outer row's
+ *                       value is looked up in it and the bucket's rows are checked against
+ *                       the inner predicates
+ *   hash join           the inner rows that satisfy the inner predicates are read once, on
+ *                       the first call to hasNext, into a HASH index of their join values
+ * </pre>
+ * Only the hash index (or nothing, for an index nested loop) is held in memory; pairs are
+ * found as the iterator is advanced. Closing the cursor closes the select cursors it reads.
+ */
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.function.IntPredicate;
+
+public class JoinCursor implements Iterator<DataObject[]>, AutoCloseable {
+
+    private final TableSnapshot outer;
+    private final TableSnapshot inner;
+    private final RowCursor outerRows;
+    private final Column outerColumn;
+    private final Column innerColumn;
+
+    // Whether outer rows can be looked up in an index on the inner column as they are.
+    // Otherwise the outer value is read as a value of the inner column's type.
+    private final boolean sameType;
+
+    // Index nested loop: the inner index, and the inner predicates to check on each of its rows
+    private final Index innerIndex;
+    private final IntPredicate[] innerTests;
+    private final int[] allInnerTests;
+
+    // Hash join: inner row ids by join value, built on first use
+    private Index built;
+    private final RowCursor innerRows;
+
+    // Inner rows matching the current outer row, and the next one to look at
+    private int outerRow;
+    private IntList matches;
+    private int pos;
+    private DataObject[] pending;
+
+    JoinCursor(TableSnapshot outer, RowCursor outerRows, int outerSlot,
+               TableSnapshot inner, int innerSlot, Index innerIndex, IntPredicate[] innerTests, RowCursor innerRows) {
+        this.outer = outer;
+        this.inner = inner;
+        this.outerRows = outerRows;
+        this.outerColumn = outer.store.column(outerSlot);
+        this.innerColumn = inner.store.column(innerSlot);
+        this.sameType = outerColumn.type() == innerColumn.type();
+        this.innerIndex = innerIndex;
+        this.innerTests = innerTests;
+        this.allInnerTests = new int[innerTests.length];
+        for (int i = 0; i < allInnerTests.length; i++) {
+            allInnerTests[i] = i;
+        }
+        this.innerRows = innerRows;
+    }
+
+    /**
+     * @return true if inner rows are found through the inner table's index, false for a hash join
+     */
+    public boolean usesIndex() {
+        return innerIndex != null;
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (pending != null) {
+            return true;
+        }
+        if (innerIndex == null && built == null) {
+            build();
+        }
+        while (true) {
+            while (matches != null && pos < matches.size()) {
+                int innerRow = matches.get(pos++);
+                if (innerIndex == null || (inner.isVisible(innerRow)
+                        && DbTable.matches(innerTests, innerRow, allInnerTests))) {
+                    pending = new DataObject[]{
+                            new DataObject(outer.table, outer.store, outerRow),
+                            new DataObject(inner.table, inner.store, innerRow)};
+                    return true;
+                }
+            }
+            outerRow = outerRows.nextRowId();
+            if (outerRow < 0) {
+                matches = null;
+                return false;
+            }
+            matches = matchesOf(innerIndex != null ? innerIndex : built, outerRow);
+            pos = 0;
+        }
+    }
+
+    /**
+     * @return The next pair: the outer row, then the inner row
+     */
+    @Override
+    public DataObject[] next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        DataObject[] pair = pending;
+        pending = null;
+        return pair;
+    }
+
+    /**
+     * Closes the select cursors of both sides, so a join abandoned early is still recorded
+     * in the tables' metrics
+     */
+    @Override
+    public void close() {
+        outerRows.close();
+        if (innerRows != null) {
+            innerRows.close();
+        }
+    }
+
+    // Reads the matching inner rows into a hash index
+    private void build() {
+        IntList matching = new IntList();
+        for (int row = innerRows.nextRowId(); row >= 0; row = innerRows.nextRowId()) {
+            // Null equals no value, and an index holds none
+            if (innerColumn.hasLongKeys() || innerColumn.compare(row, null) != 0) {
+                matching.add(row);
+            }
+        }
+        // An index takes its rows in row id order, and the cursor may have walked another index
+        int[] sorted = matching.toArray();
+        Arrays.sort(sorted);
+        IntList rows = new IntList(sorted.length);
+        for (int row : sorted) {
+            rows.add(row);
+        }
+        built = Index.build(innerColumn, DbTable.IndexKind.HASH, rows);
+    }
+
+    // Inner rows whose join value equals that of an outer row, or null if there are none
+    private IntList matchesOf(Index index, int row) {
+        if (sameType) {
+            return index.get(outerColumn, row);
+        }
+        try {
+            return index.get(outerColumn.get(row));
+        } catch (IllegalArgumentException e) {
+            // The outer value is not a value of the inner column's type
+            return null;
+        }
+    }
+}
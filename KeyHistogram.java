@@ -0,0 +1,119 @@
+/*
+ * Equi-depth histogram over the keys of an ordered index, used to estimate how many rows a
+ * range comparison will match without walking the index.
+ */
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.NavigableMap;
+
+public class KeyHistogram {
+
+    public static final int BUCKETS = 64;
+
+    // keys[i] (or longKeys[i], for an index on a typed column) is the first key of histogram
+    // bucket i, rowsBefore[i] counts rows with smaller keys
+    private final String[] keys;
+    private final long[] longKeys;
+    private final long[] rowsBefore;
+    private final long totalRows;
+
+    /**
+     * Builds a histogram from one pass over the buckets of an ordered index
+     *
+     * @param ordered   Keys of the index in order, with their buckets of row ids
+     * @param totalRows Total number of row ids in the index
+     */
+    public KeyHistogram(NavigableMap<String, IntList> ordered, long totalRows) {
+        long depth = Math.max(1, totalRows / BUCKETS);
+        ArrayList<String> boundaryKeys = new ArrayList<String>();
+        long[] before = new long[BUCKETS + 1];
+        long seen = 0;
+        long nextBoundary = 0;
+        for (Map.Entry<String, IntList> entry : ordered.entrySet()) {
+            if (seen >= nextBoundary && boundaryKeys.size() < before.length) {
+                before[boundaryKeys.size()] = seen;
+                boundaryKeys.add(entry.getKey());
+                nextBoundary = seen + depth;
+            }
+            seen += entry.getValue().size();
+        }
+        this.keys = boundaryKeys.toArray(new String[0]);
+        this.longKeys = null;
+        this.rowsBefore = Arrays.copyOf(before, keys.length);
+        this.totalRows = totalRows;
+    }
+
+    /**
+     * Builds a histogram from one pass over the buckets of an ordered index on a typed column
+     *
+     * @param ordered   Keys of the index in order, with their buckets of row ids
+     * @param totalRows Total number of row ids in the index
+     */
+    public KeyHistogram(LongKeyTree ordered, long totalRows) {
+        long depth = Math.max(1, totalRows / BUCKETS);
+        long[] boundaryKeys = new long[BUCKETS + 1];
+        long[] before = new long[BUCKETS + 1];
+        int boundaries = 0;
+        long seen = 0;
+        long nextBoundary = 0;
+        LongKeyTree.Cursor cursor = ordered.cursor(false);
+        while (cursor.hasNext()) {
+            IntList bucket = cursor.next();
+            if (seen >= nextBoundary && boundaries < before.length) {
+                before[boundaries] = seen;
+                boundaryKeys[boundaries++] = cursor.key();
+                nextBoundary = seen + depth;
+            }
+            seen += bucket.size();
+        }
+        this.keys = null;
+        this.longKeys = Arrays.copyOf(boundaryKeys, boundaries);
+        this.rowsBefore = Arrays.copyOf(before, boundaries);
+        this.totalRows = totalRows;
+    }
+
+    /**
+     * Estimates the number of rows whose key is strictly less than key
+     *
+     * @param key Key to compare against
+     * @return Estimated row count
+     */
+    public long rowsBelow(String key) {
+        return rowsBelow(Arrays.binarySearch(keys, key));
+    }
+
+    /**
+     * Estimates the number of rows whose key is strictly less than key, for a histogram over
+     * an index on a typed column
+     *
+     * @param key Key to compare against
+     * @return Estimated row count
+     */
+    public long rowsBelow(long key) {
+        return rowsBelow(Arrays.binarySearch(longKeys, key));
+    }
+
+    // Estimate for a key found at pos by a binary search of the bucket boundaries
+    private long rowsBelow(int pos) {
+        if (rowsBefore.length == 0) {
+            return 0;
+        }
+        if (pos >= 0) {
+            // key is a bucket boundary, so the count is exact
+            return rowsBefore[pos];
+        }
+        int bucket = -pos - 2;
+        if (bucket < 0) {
+            return 0;
+        }
+        // Assume key falls halfway through its histogram bucket
+        long end = bucket + 1 < rowsBefore.length ? rowsBefore[bucket + 1] : totalRows;
+        return rowsBefore[bucket] + (end - rowsBefore[bucket]) / 2;
+    }
+
+    public long totalRows() {
+        return totalRows;
+    }
+}
@@ -0,0 +1,164 @@
+/*
+ * Column of long values, stored in a primitive array.
+ * <p/>
+ * A column opened from a table file reads its values in place from the file's mapping, so
+ * only the pages a query touches are loaded. The first append copies them into the array.
+ */
+
+import java.nio.LongBuffer;
+import java.util.Arrays;
+import java.util.function.IntPredicate;
+
+public class LongColumn extends Column {
+
+    // Grown by copying; rows already stored keep the same value in every copy
+    private volatile long[] values;
+
+    // Values of the rows read from a table file, until the first append copies them into
+    // values. Null once copied; values is set before this is cleared.
+    private volatile LongBuffer mapped;
+
+    private int size;
+
+    public LongColumn() {
+        this.values = new long[16];
+        this.size = 0;
+    }
+
+    /**
+     * Initializes a column over values mapped from a table file
+     *
+     * @param mapped Values of rows 0 to size - 1
+     * @param size   Number of rows
+     */
+    LongColumn(LongBuffer mapped, int size) {
+        this.mapped = mapped;
+        this.size = size;
+    }
+
+    @Override
+    public DbTable.ColumnType type() {
+        return DbTable.ColumnType.LONG;
+    }
+
+    public long getLong(int row) {
+        LongBuffer m = mapped;
+        return m != null ? m.get(row) : values[row];
+    }
+
+    @Override
+    public String get(int row) {
+        return format(getLong(row));
+    }
+
+    @Override
+    public void append(String value) {
+        appendLong(parse(value));
+    }
+
+    @Override
+    public void appendFrom(Column source, int row) {
+        if (source instanceof LongColumn) {
+            appendLong(((LongColumn) source).getLong(row));
+        } else {
+            super.appendFrom(source, row);
+        }
+    }
+
+    private void appendLong(long value) {
+        long[] v = values;
+        LongBuffer m = mapped;
+        // A new array gets the row before it is published, as StringColumn does
+        if (m != null) {
+            // Copy the mapped rows before the first row of our own
+            v = new long[Math.max(16, size * 2)];
+            m.get(0, v, 0, size);
+            v[size++] = value;
+            values = v;
+            mapped = null;
+        } else if (size == v.length) {
+            v = Arrays.copyOf(v, size * 2);
+            v[size++] = value;
+            values = v;
+        } else {
+            v[size++] = value;
+        }
+    }
+
+    @Override
+    public void validate(String value) throws IllegalArgumentException {
+        parse(value);
+    }
+
+    @Override
+    public int compare(int row, String value) {
+        return Long.compare(getLong(row), parse(value));
+    }
+
+    @Override
+    public int compareRows(int a, int b) {
+        return Long.compare(getLong(a), getLong(b));
+    }
+
+    @Override
+    public IntPredicate test(DbTable.CompareType ctype, String value) throws IllegalArgumentException {
+        final long v = parse(value);
+        final LongBuffer m = mapped;
+        if (m != null) {
+            // Rows stored so far are all in the mapping
+            switch (ctype) {
+                case Equal: return (int row) -> m.get(row) == v;
+                case NotEqual: return (int row) -> m.get(row) != v;
+                case LessThan: return (int row) -> m.get(row) < v;
+                case LessEq: return (int row) -> m.get(row) <= v;
+                case GreaterThan: return (int row) -> m.get(row) > v;
+                default: return (int row) -> m.get(row) >= v;
+            }
+        }
+        // Every row stored so far is in the current array
+        final long[] data = values;
+        switch (ctype) {
+            case Equal: return (int row) -> data[row] == v;
+            case NotEqual: return (int row) -> data[row] != v;
+            case LessThan: return (int row) -> data[row] < v;
+            case LessEq: return (int row) -> data[row] <= v;
+            case GreaterThan: return (int row) -> data[row] > v;
+            default: return (int row) -> data[row] >= v;
+        }
+    }
+
+    @Override
+    public long longKey(int row) {
+        return getLong(row);
+    }
+
+    @Override
+    public long longKey(String value) throws IllegalArgumentException {
+        return parse(value);
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Parses a value given as a String
+     *
+     * @throws IllegalArgumentException if value is not a valid value of this column's type
+     */
+    protected long parse(String value) throws IllegalArgumentException {
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Not a valid LONG: " + value);
+        }
+    }
+
+    /**
+     * Formats a stored value as a String
+     */
+    protected String format(long value) {
+        return Long.toString(value);
+    }
+}
@@ -0,0 +1,281 @@
+/*
+ * Index on an INT, LONG, DOUBLE or TIMESTAMP column, keyed by each value's primitive long key
+ * (see Column.longKey): a LongKeyHash for equality probes and a LongKeyTree for ranges,
+ * sharing their buckets. Values given to a lookup are parsed once into a key.
+ */
+
+import java.util.Arrays;
+import java.util.function.Consumer;
+
+final class LongIndex extends Index {
+
+    // Approximate heap bytes per key, for estimatedBytes: a key and a reference in a tree leaf
+    // or in the hash table (with their spare room), and the bucket
+    private static final int HASH_ENTRY_BYTES = 20;
+    private static final int ORDERED_ENTRY_BYTES = 16;
+    private static final int BUCKET_BYTES = 40;
+
+    private final LongKeyHash hash;
+    private final LongKeyTree ordered;
+
+    LongIndex(Column column, DbTable.IndexKind kind, Consumer<Index> loader) {
+        this(column, kind, kind != DbTable.IndexKind.ORDERED ? new LongKeyHash() : null,
+                kind != DbTable.IndexKind.HASH ? new LongKeyTree() : null, loader);
+    }
+
+    private LongIndex(Column column, DbTable.IndexKind kind, LongKeyHash hash, LongKeyTree ordered,
+                      Consumer<Index> loader) {
+        super(column, kind, loader);
+        this.hash = hash;
+        this.ordered = ordered;
+    }
+
+    static LongIndex build(Column column, DbTable.IndexKind kind, IntList rows) {
+        LongKeyHash groups = new LongKeyHash();
+        for (int i = 0; i < rows.size(); i++) {
+            int rowId = rows.get(i);
+            long key = column.longKey(rowId);
+            IntList bucket = groups.get(key);
+            if (bucket == null) {
+                bucket = new IntList();
+                groups.put(key, bucket);
+            }
+            bucket.add(rowId);
+        }
+        if (kind == DbTable.IndexKind.HASH) {
+            LongIndex index = new LongIndex(column, kind, groups, null, null);
+            index.entryCount = rows.size();
+            index.refreshStats();
+            return index;
+        }
+        long[] keys = groups.keys();
+        Arrays.parallelSort(keys);
+        IntList[] buckets = new IntList[keys.length];
+        for (int i = 0; i < keys.length; i++) {
+            buckets[i] = groups.get(keys[i]);
+        }
+        LongIndex index = new LongIndex(column, kind, kind == DbTable.IndexKind.BOTH ? groups : null,
+                new LongKeyTree(keys, buckets, keys.length), null);
+        index.entryCount = rows.size();
+        index.refreshStats();
+        return index;
+    }
+
+    // Builds an index from distinct keys that are already in ascending order
+    private static LongIndex fromSorted(Column column, DbTable.IndexKind kind, long[] keys, IntList[] buckets,
+                                        int count) {
+        LongKeyHash hash = null;
+        if (kind != DbTable.IndexKind.ORDERED) {
+            hash = new LongKeyHash(count);
+            for (int i = 0; i < count; i++) {
+                hash.put(keys[i], buckets[i]);
+            }
+        }
+        LongKeyTree ordered = kind != DbTable.IndexKind.HASH ? new LongKeyTree(keys, buckets, count) : null;
+        LongIndex index = new LongIndex(column, kind, hash, ordered, null);
+        for (int i = 0; i < count; i++) {
+            index.entryCount += buckets[i].size();
+        }
+        index.refreshStats();
+        return index;
+    }
+
+    @Override
+    Index widened(DbTable.IndexKind wanted) {
+        ensureLoaded();
+        int count = size();
+        long[] keys = new long[count];
+        IntList[] buckets = new IntList[count];
+        sortedInto(keys, buckets);
+        return fromSorted(column, widen(kind(), wanted), keys, buckets, count);
+    }
+
+    @Override
+    public void add(int rowId) {
+        ensureLoaded();
+        long key = column.longKey(rowId);
+        IntList bucket = lookup(key);
+        if (bucket == null) {
+            bucket = new IntList();
+            bucket.add(rowId);
+            putBucket(key, bucket);
+            changed(1);
+            return;
+        }
+        bucket.add(rowId);
+        entryCount++;
+        changed(1);
+    }
+
+    @Override
+    Index addRows(int from, int to) {
+        ensureLoaded();
+        if (to - from == 1) {
+            add(from);
+            return this;
+        }
+        LongKeyHash groups = new LongKeyHash();
+        for (int rowId = from; rowId < to; rowId++) {
+            long key = column.longKey(rowId);
+            IntList group = groups.get(key);
+            if (group == null) {
+                group = new IntList();
+                groups.put(key, group);
+            }
+            group.add(rowId);
+        }
+        long added = to - from;
+        long[] batch = groups.keys();
+
+        if (ordered == null || batch.length * 4 < ordered.size()) {
+            for (long key : batch) {
+                IntList group = groups.get(key);
+                IntList bucket = lookup(key);
+                if (bucket != null) {
+                    bucket.addAll(group);
+                } else {
+                    if (hash != null) {
+                        hash.put(key, group);
+                    }
+                    if (ordered != null) {
+                        ordered.put(key, group);
+                    }
+                }
+            }
+            entryCount += added;
+            changed(added);
+            return this;
+        }
+
+        // Walk the existing keys and the sorted batch keys side by side
+        Arrays.parallelSort(batch);
+        long[] keys = new long[ordered.size() + batch.length];
+        IntList[] buckets = new IntList[keys.length];
+        int n = 0;
+        LongKeyTree.Cursor old = ordered.cursor(false);
+        IntList next = old.hasNext() ? old.next() : null;
+        int b = 0;
+        while (next != null || b < batch.length) {
+            int order = next == null ? 1 : b == batch.length ? -1 : Long.compare(old.key(), batch[b]);
+            if (order <= 0) {
+                if (order == 0) {
+                    next.addAll(groups.get(batch[b++]));
+                }
+                keys[n] = old.key();
+                buckets[n++] = next;
+                next = old.hasNext() ? old.next() : null;
+            } else {
+                keys[n] = batch[b];
+                buckets[n++] = groups.get(batch[b++]);
+            }
+        }
+        return fromSorted(column, kind(), keys, buckets, n);
+    }
+
+    @Override
+    public IntList get(String value) throws IllegalArgumentException {
+        ensureLoaded();
+        return value == null ? null : lookup(column.longKey(value));
+    }
+
+    @Override
+    IntList get(Column other, int row) {
+        ensureLoaded();
+        return lookup(other.longKey(row));
+    }
+
+    @Override
+    Iterable<IntList> range(DbTable.CompareType ctype, String value, boolean descending) {
+        ensureLoaded();
+        final long key = column.longKey(value);
+        switch (ctype) {
+            case LessThan: return () -> ordered.cursor(Long.MIN_VALUE, true, key, false, descending);
+            case LessEq: return () -> ordered.cursor(Long.MIN_VALUE, true, key, true, descending);
+            case GreaterThan: return () -> ordered.cursor(key, false, Long.MAX_VALUE, true, descending);
+            default: return () -> ordered.cursor(key, true, Long.MAX_VALUE, true, descending);
+        }
+    }
+
+    @Override
+    Iterable<IntList> ordered(boolean descending) {
+        ensureLoaded();
+        return () -> ordered.cursor(descending);
+    }
+
+    @Override
+    public Iterable<IntList> allBuckets() {
+        ensureLoaded();
+        return hash != null ? hash : () -> ordered.cursor(false);
+    }
+
+    /**
+     * @return A walk of every bucket in key order, with its key; a HASH index is sorted first
+     */
+    LongKeyTree.Cursor sorted() {
+        ensureLoaded();
+        if (ordered != null) {
+            return ordered.cursor(false);
+        }
+        int count = size();
+        long[] keys = new long[count];
+        IntList[] buckets = new IntList[count];
+        sortedInto(keys, buckets);
+        return new LongKeyTree(keys, buckets, count).cursor(false);
+    }
+
+    @Override
+    public int size() {
+        ensureLoaded();
+        return hash != null ? hash.size() : ordered.size();
+    }
+
+    @Override
+    long bytesPerKey() {
+        return BUCKET_BYTES + (hash != null ? HASH_ENTRY_BYTES : 0) + (ordered != null ? ORDERED_ENTRY_BYTES : 0);
+    }
+
+    @Override
+    KeyHistogram histogram() {
+        return ordered != null ? new KeyHistogram(ordered, entryCount) : null;
+    }
+
+    @Override
+    long rowsBelow(KeyHistogram h, String value) {
+        return h.rowsBelow(column.longKey(value));
+    }
+
+    /**
+     * Puts a whole bucket in place while the index is being loaded. Keys put in ascending
+     * order fill the tree's leaves in place.
+     */
+    void putBucket(long key, IntList bucket) {
+        if (hash != null) {
+            hash.put(key, bucket);
+        }
+        if (ordered != null) {
+            ordered.put(key, bucket);
+        }
+        entryCount += bucket.size();
+    }
+
+    private IntList lookup(long key) {
+        return hash != null ? hash.get(key) : ordered.get(key);
+    }
+
+    // Fills keys and buckets with every key in ascending order and its bucket
+    private void sortedInto(long[] keys, IntList[] buckets) {
+        if (ordered != null) {
+            LongKeyTree.Cursor cursor = ordered.cursor(false);
+            for (int i = 0; i < keys.length && cursor.hasNext(); i++) {
+                buckets[i] = cursor.next();
+                keys[i] = cursor.key();
+            }
+            return;
+        }
+        System.arraycopy(hash.keys(), 0, keys, 0, keys.length);
+        Arrays.parallelSort(keys);
+        for (int i = 0; i < keys.length; i++) {
+            buckets[i] = hash.get(keys[i]);
+        }
+    }
+}
@@ -0,0 +1,156 @@
+/*
+ * Hash map from long keys to buckets of row ids: the equality structure of an index on a typed
+ * column. Keys sit in a primitive array probed linearly, so they are never boxed.
+ * <p/>
+ * Only one thread (the table's writer) puts keys, and readers probe at the same time without
+ * locking. A key is written before its bucket, and the bucket through a volatile write, so a
+ * reader that finds a bucket also finds its key. Growing builds a whole new table and then
+ * publishes it, and readers still probing the old one find every key it had.
+ */
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+final class LongKeyHash implements Iterable<IntList> {
+
+    private static final class Table {
+        final long[] keys;
+        final AtomicReferenceArray<IntList> buckets;
+        final int mask;
+
+        Table(int capacity) {
+            this.keys = new long[capacity];
+            this.buckets = new AtomicReferenceArray<IntList>(capacity);
+            this.mask = capacity - 1;
+        }
+    }
+
+    private volatile Table table;
+    private volatile int size;
+
+    LongKeyHash() {
+        this(16);
+    }
+
+    /**
+     * @param expected Number of keys to make room for without growing
+     */
+    LongKeyHash(int expected) {
+        int capacity = 16;
+        while (capacity * 3 / 4 < expected) {
+            capacity *= 2;
+        }
+        this.table = new Table(capacity);
+    }
+
+    /**
+     * @return Number of keys in the map
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * @return Bucket of key, or null if the map does not hold key
+     */
+    IntList get(long key) {
+        Table t = table;
+        for (int i = slot(key, t.mask); ; i = (i + 1) & t.mask) {
+            IntList bucket = t.buckets.get(i);
+            if (bucket == null) {
+                return null;
+            }
+            if (t.keys[i] == key) {
+                return bucket;
+            }
+        }
+    }
+
+    /**
+     * Puts a key the map does not hold yet. Only the table's writer may call this.
+     *
+     * @param key    New key
+     * @param bucket Its row ids
+     */
+    void put(long key, IntList bucket) {
+        Table t = table;
+        if (size + 1 > t.keys.length * 3 / 4) {
+            Table grown = new Table(t.keys.length * 2);
+            for (int i = 0; i < t.keys.length; i++) {
+                IntList b = t.buckets.get(i);
+                if (b != null) {
+                    insert(grown, t.keys[i], b);
+                }
+            }
+            table = grown;
+            t = grown;
+        }
+        insert(t, key, bucket);
+        size++;
+    }
+
+    /**
+     * @return Every key, in no particular order
+     */
+    long[] keys() {
+        Table t = table;
+        long[] keys = new long[size];
+        int n = 0;
+        for (int i = 0; i < t.keys.length && n < keys.length; i++) {
+            if (t.buckets.get(i) != null) {
+                keys[n++] = t.keys[i];
+            }
+        }
+        return n == keys.length ? keys : Arrays.copyOf(keys, n);
+    }
+
+    /**
+     * @return Every bucket, in no particular order
+     */
+    @Override
+    public Iterator<IntList> iterator() {
+        final Table t = table;
+        return new Iterator<IntList>() {
+            private int i = advance(0);
+
+            @Override
+            public boolean hasNext() {
+                return i < t.keys.length;
+            }
+
+            @Override
+            public IntList next() {
+                if (i >= t.keys.length) {
+                    throw new NoSuchElementException();
+                }
+                IntList bucket = t.buckets.get(i);
+                i = advance(i + 1);
+                return bucket;
+            }
+
+            private int advance(int from) {
+                while (from < t.keys.length && t.buckets.get(from) == null) {
+                    from++;
+                }
+                return from;
+            }
+        };
+    }
+
+    private static void insert(Table t, long key, IntList bucket) {
+        int i = slot(key, t.mask);
+        while (t.buckets.get(i) != null) {
+            i = (i + 1) & t.mask;
+        }
+        t.keys[i] = key;
+        t.buckets.set(i, bucket);
+    }
+
+    // Spreads the key's bits so that nearby keys land in different slots
+    private static int slot(long key, int mask) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32)) & mask;
+    }
+}
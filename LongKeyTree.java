@@ -0,0 +1,464 @@
+/*
+ * Sorted map from long keys to buckets of row ids: the ordered structure of an index on a typed
+ * column. It is a B+-tree of primitive key arrays, so keys are never boxed.
+ * <p/>
+ * Only one thread (the table's writer) puts keys, and readers walk the tree at the same time
+ * without locking. A leaf takes a key greater than its last one in place, publishing it through
+ * its volatile count; any other change to a node is made on a copy that replaces it with one
+ * volatile write. When a node splits, the new right half is linked into the parent before the
+ * left half replaces the old node, so a reader always finds every key in one or the other.
+ * Readers that move from leaf to leaf search again from the root for the keys after (or
+ * before) the last one they saw, so a split between two steps neither hides nor repeats a key.
+ */
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+final class LongKeyTree {
+
+    private static final int LEAF_CAPACITY = 32;
+    private static final int INNER_CAPACITY = 64;
+
+    // Nodes built from sorted keys are filled this far, leaving room for keys put later
+    private static final int LEAF_FILL = LEAF_CAPACITY * 3 / 4;
+    private static final int INNER_FILL = INNER_CAPACITY * 3 / 4;
+
+    private abstract static class Node {
+        // Leaf: the keys, ascending. Inner: keys[i] is the smallest key under children[i];
+        // keys[0] is never compared.
+        final long[] keys;
+        volatile int count;
+
+        Node(long[] keys, int count) {
+            this.keys = keys;
+            this.count = count;
+        }
+    }
+
+    private static final class Leaf extends Node {
+        final IntList[] buckets;
+
+        Leaf(long[] keys, IntList[] buckets, int count) {
+            super(keys, count);
+            this.buckets = buckets;
+        }
+    }
+
+    private static final class Inner extends Node {
+        final AtomicReferenceArray<Node> children;
+
+        Inner(long[] keys, Node[] children, int from, int to) {
+            super(new long[INNER_CAPACITY], to - from);
+            this.children = new AtomicReferenceArray<Node>(INNER_CAPACITY);
+            System.arraycopy(keys, from, this.keys, 0, to - from);
+            for (int i = from; i < to; i++) {
+                this.children.set(i - from, children[i]);
+            }
+        }
+    }
+
+    private volatile Node root;
+    private volatile int size;
+
+    // The writer's path down to the leaf of the key being put: path[d] is the inner node at
+    // depth d and at[d] the child taken in it
+    private Inner[] path = new Inner[8];
+    private int[] at = new int[8];
+
+    LongKeyTree() {
+        this.root = new Leaf(new long[LEAF_CAPACITY], new IntList[LEAF_CAPACITY], 0);
+    }
+
+    /**
+     * Builds a tree from distinct keys that are already in ascending order, level by level
+     *
+     * @param keys    Distinct keys, sorted ascending
+     * @param buckets Row ids of each key
+     * @param count   Number of keys to take from the arrays
+     */
+    LongKeyTree(long[] keys, IntList[] buckets, int count) {
+        if (count == 0) {
+            this.root = new Leaf(new long[LEAF_CAPACITY], new IntList[LEAF_CAPACITY], 0);
+            return;
+        }
+        int nodes = (count + LEAF_FILL - 1) / LEAF_FILL;
+        Node[] level = new Node[nodes];
+        long[] lows = new long[nodes];
+        for (int n = 0; n < nodes; n++) {
+            int from = n * LEAF_FILL;
+            int to = Math.min(count, from + LEAF_FILL);
+            long[] leafKeys = new long[LEAF_CAPACITY];
+            IntList[] leafBuckets = new IntList[LEAF_CAPACITY];
+            System.arraycopy(keys, from, leafKeys, 0, to - from);
+            System.arraycopy(buckets, from, leafBuckets, 0, to - from);
+            level[n] = new Leaf(leafKeys, leafBuckets, to - from);
+            lows[n] = keys[from];
+        }
+        while (nodes > 1) {
+            int parents = (nodes + INNER_FILL - 1) / INNER_FILL;
+            Node[] up = new Node[parents];
+            long[] upLows = new long[parents];
+            for (int n = 0; n < parents; n++) {
+                int from = n * INNER_FILL;
+                up[n] = new Inner(lows, level, from, Math.min(nodes, from + INNER_FILL));
+                upLows[n] = lows[from];
+            }
+            level = up;
+            lows = upLows;
+            nodes = parents;
+        }
+        this.root = level[0];
+        this.size = count;
+    }
+
+    /**
+     * @return Number of keys in the tree
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * @return Bucket of key, or null if the tree does not hold key
+     */
+    IntList get(long key) {
+        Node node = root;
+        while (node instanceof Inner) {
+            Inner inner = (Inner) node;
+            node = inner.children.get(childIndex(inner, inner.count, key));
+        }
+        Leaf leaf = (Leaf) node;
+        int pos = lowerBound(leaf.keys, leaf.count, key);
+        return pos < leaf.count && leaf.keys[pos] == key ? leaf.buckets[pos] : null;
+    }
+
+    /**
+     * Puts a key the tree does not hold yet. Only the table's writer may call this.
+     *
+     * @param key    New key
+     * @param bucket Its row ids
+     */
+    void put(long key, IntList bucket) {
+        int depth = 0;
+        Node node = root;
+        while (node instanceof Inner) {
+            Inner inner = (Inner) node;
+            if (depth == path.length) {
+                path = Arrays.copyOf(path, depth * 2);
+                at = Arrays.copyOf(at, depth * 2);
+            }
+            path[depth] = inner;
+            at[depth] = childIndex(inner, inner.count, key);
+            node = inner.children.get(at[depth]);
+            depth++;
+        }
+        Leaf leaf = (Leaf) node;
+        int count = leaf.count;
+        int pos = lowerBound(leaf.keys, count, key);
+        if (pos == count && count < LEAF_CAPACITY) {
+            leaf.keys[count] = key;
+            leaf.buckets[count] = bucket;
+            leaf.count = count + 1;
+        } else if (count < LEAF_CAPACITY) {
+            Leaf copy = new Leaf(new long[LEAF_CAPACITY], new IntList[LEAF_CAPACITY], count + 1);
+            copyInserting(leaf.keys, leaf.buckets, count, pos, key, bucket, copy.keys, copy.buckets);
+            replaceChild(depth - 1, copy);
+        } else if (pos == count) {
+            // Keys put in ascending order leave full leaves behind them
+            long[] keys = new long[LEAF_CAPACITY];
+            IntList[] buckets = new IntList[LEAF_CAPACITY];
+            keys[0] = key;
+            buckets[0] = bucket;
+            split(depth - 1, leaf, key, new Leaf(keys, buckets, 1));
+        } else {
+            long[] keys = new long[count + 1];
+            IntList[] buckets = new IntList[count + 1];
+            copyInserting(leaf.keys, leaf.buckets, count, pos, key, bucket, keys, buckets);
+            int half = (count + 1) / 2;
+            split(depth - 1, leafOf(keys, buckets, 0, half), keys[half], leafOf(keys, buckets, half, count + 1));
+        }
+        size++;
+    }
+
+    /**
+     * Walks the buckets of every key in order
+     *
+     * @param descending true to walk from the largest key down
+     */
+    Cursor cursor(boolean descending) {
+        return new Cursor(descending, Long.MIN_VALUE, true, Long.MAX_VALUE, true);
+    }
+
+    /**
+     * Walks the buckets of the keys from low to high in order
+     *
+     * @param low           Smallest key of the range
+     * @param lowInclusive  Whether low itself is in the range
+     * @param high          Largest key of the range
+     * @param highInclusive Whether high itself is in the range
+     * @param descending    true to walk from high down
+     */
+    Cursor cursor(long low, boolean lowInclusive, long high, boolean highInclusive, boolean descending) {
+        return new Cursor(descending, low, lowInclusive, high, highInclusive);
+    }
+
+    /**
+     * Position in a walk over a range of keys, advanced with next
+     */
+    final class Cursor implements Iterator<IntList> {
+        private final boolean descending;
+        // The far end of the walk
+        private final long end;
+        private final boolean endInclusive;
+
+        private Leaf leaf;
+        private int pos;
+        private int limit;
+        private boolean done;
+        private long key;
+
+        private Cursor(boolean descending, long low, boolean lowInclusive, long high, boolean highInclusive) {
+            this.descending = descending;
+            this.end = descending ? low : high;
+            this.endInclusive = descending ? lowInclusive : highInclusive;
+            if (descending) {
+                seekDown(high, highInclusive);
+            } else {
+                seekUp(low, lowInclusive);
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (done) {
+                return false;
+            }
+            if (descending ? pos < 0 : pos >= limit) {
+                if (descending) {
+                    seekDown(key, false);
+                } else {
+                    seekUp(key, false);
+                }
+                if (done) {
+                    return false;
+                }
+            }
+            long next = leaf.keys[pos];
+            if (descending ? next < end || (next == end && !endInclusive)
+                    : next > end || (next == end && !endInclusive)) {
+                done = true;
+                return false;
+            }
+            return true;
+        }
+
+        @Override
+        public IntList next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            key = leaf.keys[pos];
+            IntList bucket = leaf.buckets[pos];
+            pos += descending ? -1 : 1;
+            return bucket;
+        }
+
+        /**
+         * @return Key of the bucket last returned by next
+         */
+        long key() {
+            return key;
+        }
+
+        // Finds the first key above from (or from itself, if inclusive)
+        private void seekUp(long from, boolean inclusive) {
+            if (!inclusive && from == Long.MAX_VALUE) {
+                done = true;
+                return;
+            }
+            while (true) {
+                Node node = root;
+                long bound = 0;
+                boolean bounded = false;
+                while (node instanceof Inner) {
+                    Inner inner = (Inner) node;
+                    int count = inner.count;
+                    int i = childIndex(inner, count, from);
+                    if (i + 1 < count) {
+                        bound = inner.keys[i + 1];
+                        bounded = true;
+                    }
+                    node = inner.children.get(i);
+                }
+                Leaf found = (Leaf) node;
+                int count = found.count;
+                int p = inclusive ? lowerBound(found.keys, count, from) : upperBound(found.keys, count, from);
+                if (p < count) {
+                    leaf = found;
+                    pos = p;
+                    limit = count;
+                    return;
+                }
+                if (!bounded) {
+                    done = true;
+                    return;
+                }
+                // Every key after this leaf is at least bound
+                from = bound;
+                inclusive = true;
+            }
+        }
+
+        // Finds the last key below from (or from itself, if inclusive)
+        private void seekDown(long from, boolean inclusive) {
+            if (!inclusive && from == Long.MIN_VALUE) {
+                done = true;
+                return;
+            }
+            while (true) {
+                long route = inclusive ? from : from - 1;
+                Node node = root;
+                long bound = 0;
+                boolean bounded = false;
+                while (node instanceof Inner) {
+                    Inner inner = (Inner) node;
+                    int i = childIndex(inner, inner.count, route);
+                    if (i > 0) {
+                        bound = inner.keys[i];
+                        bounded = true;
+                    }
+                    node = inner.children.get(i);
+                }
+                Leaf found = (Leaf) node;
+                int count = found.count;
+                int p = upperBound(found.keys, count, route) - 1;
+                if (p >= 0) {
+                    leaf = found;
+                    pos = p;
+                    limit = count;
+                    return;
+                }
+                if (!bounded) {
+                    done = true;
+                    return;
+                }
+                // Every key before this leaf is below bound
+                from = bound;
+                inclusive = false;
+            }
+        }
+    }
+
+    // Puts left in place of the child at[level] of path[level] (or of the root, for level -1)
+    // and right, holding the keys from low up, just after it
+    private void split(int level, Node left, long low, Node right) {
+        if (level < 0) {
+            root = new Inner(new long[]{Long.MIN_VALUE, low}, new Node[]{left, right}, 0, 2);
+            return;
+        }
+        Inner parent = path[level];
+        int i = at[level];
+        int count = parent.count;
+        if (i == count - 1 && count < INNER_CAPACITY) {
+            parent.keys[count] = low;
+            parent.children.set(count, right);
+            parent.count = count + 1;
+            parent.children.set(i, left);
+        } else if (i == count - 1) {
+            split(level - 1, parent, low, new Inner(new long[]{low}, new Node[]{right}, 0, 1));
+            parent.children.set(i, left);
+        } else {
+            long[] keys = new long[count + 1];
+            Node[] children = new Node[count + 1];
+            for (int j = 0, k = 0; j < count; j++) {
+                keys[k] = parent.keys[j];
+                children[k++] = j == i ? left : parent.children.get(j);
+                if (j == i) {
+                    keys[k] = low;
+                    children[k++] = right;
+                }
+            }
+            if (count < INNER_CAPACITY) {
+                replaceChild(level - 1, new Inner(keys, children, 0, count + 1));
+            } else {
+                int half = (count + 1) / 2;
+                split(level - 1, new Inner(keys, children, 0, half), keys[half],
+                        new Inner(keys, children, half, count + 1));
+            }
+        }
+    }
+
+    // Puts node in place of the child at[level] of path[level], or of the root for level -1
+    private void replaceChild(int level, Node node) {
+        if (level < 0) {
+            root = node;
+        } else {
+            path[level].children.set(at[level], node);
+        }
+    }
+
+    private static Leaf leafOf(long[] keys, IntList[] buckets, int from, int to) {
+        long[] leafKeys = new long[LEAF_CAPACITY];
+        IntList[] leafBuckets = new IntList[LEAF_CAPACITY];
+        System.arraycopy(keys, from, leafKeys, 0, to - from);
+        System.arraycopy(buckets, from, leafBuckets, 0, to - from);
+        return new Leaf(leafKeys, leafBuckets, to - from);
+    }
+
+    private static void copyInserting(long[] keys, IntList[] buckets, int count, int pos, long key, IntList bucket,
+                                      long[] toKeys, IntList[] toBuckets) {
+        System.arraycopy(keys, 0, toKeys, 0, pos);
+        System.arraycopy(buckets, 0, toBuckets, 0, pos);
+        toKeys[pos] = key;
+        toBuckets[pos] = bucket;
+        System.arraycopy(keys, pos, toKeys, pos + 1, count - pos);
+        System.arraycopy(buckets, pos, toBuckets, pos + 1, count - pos);
+    }
+
+    // Child of an inner node whose keys include key: the last child whose smallest key is at most key
+    private static int childIndex(Inner inner, int count, long key) {
+        int low = 1;
+        int high = count;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (inner.keys[mid] <= key) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low - 1;
+    }
+
+    // Position of the first of count keys that is not less than key
+    private static int lowerBound(long[] keys, int count, long key) {
+        int low = 0;
+        int high = count;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (keys[mid] < key) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    // Position of the first of count keys that is greater than key
+    private static int upperBound(long[] keys, int count, long key) {
+        int low = 0;
+        int high = count;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (keys[mid] <= key) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+}
@@ -36,13 +36,13 @@ public class Main {
             values[0] = String.valueOf(search[i]);
             ArrayList<DataObject> found = table.select(columns, values, ctype);
             if (found.size() != 1) {
-                System.out.println("Error in select method. Did not find object with unique id: " + values[i]);
+                System.out.println("Error in select method. Did not find object with unique id: " + values[0]);
                 return;
             }
         }
 
         averageNonIndexedSearchTime = System.nanoTime()-averageNonIndexedSearchTime;
-        averageNonIndexedSearchTime /= 1e9;
+        averageNonIndexedSearchTime /= 1e9 * k;
 
         System.out.println("Average non-indexed search time (n= " + String.valueOf(n) + "): " + averageNonIndexedSearchTime + " sec");
 
@@ -62,9 +62,15 @@ public class Main {
             values[0] = String.valueOf(search[i]);
             ArrayList<DataObject> found = table.select(columns, values, ctype);
             if (found.size() != 1) {
-                System.out.println("Error in select method. Did not find object with unique id: " + values[i]);
+                System.out.println("Error in select method. Did not find object with unique id: " + values[0]);
                 return;
             }
         }
+
+        averageIndexedSearchTime = System.nanoTime()-averageIndexedSearchTime;
+        averageIndexedSearchTime /= 1e9 * k;
+
+        System.out.println("Average indexed search time (n= " + String.valueOf(n) + "): " + averageIndexedSearchTime + " sec");
+        System.out.println("These are rough single-run timings; see benchmarks/ for the JMH suite.");
     }
 }
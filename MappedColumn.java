@@ -0,0 +1,79 @@
+/*
+ * String column backed by a memory-mapped column block of a binary table file. Rows that were
+ * in the file are read straight from the mapping, so only the pages a query touches are loaded;
+ * rows inserted after the file was opened are appended to an in-memory column: a StringColumn,
+ * or an OffHeapStringColumn for a table whose STRING values are kept off the heap. Values
+ * decoded from the mapping are cached on the heap only in the first case.
+ */
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+public class MappedColumn extends Column {
+
+    // Code written for a null value
+    static final int NULL_CODE = -1;
+
+    // One int dictionary code per row
+    private final ByteBuffer codes;
+
+    // int count, then count + 1 int offsets into the UTF-8 bytes that follow
+    private final ByteBuffer dictionary;
+    private final int dictionaryBytes;
+
+    // Values decoded so far, by dictionary code, or null if they are not cached
+    private final String[] decoded;
+
+    private final int mappedRows;
+    private final Column tail;
+
+    MappedColumn(ByteBuffer codes, ByteBuffer dictionary, int mappedRows, DbTable.Storage storage) {
+        this.codes = codes;
+        this.dictionary = dictionary;
+        this.mappedRows = mappedRows;
+        int distinct = dictionary.getInt(0);
+        this.dictionaryBytes = 4 + 4 * (distinct + 1);
+        boolean offHeap = storage == DbTable.Storage.OFF_HEAP;
+        this.decoded = offHeap ? null : new String[distinct];
+        this.tail = offHeap ? new OffHeapStringColumn() : new StringColumn();
+    }
+
+    @Override
+    public String get(int row) {
+        if (row >= mappedRows) {
+            return tail.get(row - mappedRows);
+        }
+        int code = codes.getInt(row * 4);
+        if (code == NULL_CODE) {
+            return null;
+        }
+        String value = decoded == null ? null : decoded[code];
+        if (value == null) {
+            // Strings are immutable, so racing readers can at worst decode the same value twice
+            int start = dictionary.getInt(4 + 4 * code);
+            int end = dictionary.getInt(4 + 4 * (code + 1));
+            byte[] bytes = new byte[end - start];
+            dictionary.get(dictionaryBytes + start, bytes);
+            value = new String(bytes, StandardCharsets.UTF_8);
+            if (decoded != null) {
+                decoded[code] = value;
+            }
+        }
+        return value;
+    }
+
+    @Override
+    public void append(String value) {
+        tail.append(value);
+    }
+
+    @Override
+    public Column emptyCopy() {
+        return tail.emptyCopy();
+    }
+
+    @Override
+    public int size() {
+        return mappedRows + tail.size();
+    }
+}
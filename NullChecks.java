@@ -0,0 +1,52 @@
+/*
+ * Checks of null values in STRING columns, run by Checks: null comes before every other value
+ * in the predicates of plain selects, whether they scan in one pass or in chunks, for both
+ * kinds of storage.
+ */
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+
+public class NullChecks {
+
+    static void run() {
+        nullPredicates(DbTable.Storage.HEAP);
+        nullPredicates(DbTable.Storage.OFF_HEAP);
+    }
+
+    // A table whose name column holds b, null, a, null and c, with ids 0 to 4
+    static DbTable tableWithNulls(DbTable.Storage storage) {
+        String cols[] = {"name", "id"};
+        ArrayList<DbTable.ColumnType> types = new ArrayList<DbTable.ColumnType>(
+                Arrays.asList(DbTable.ColumnType.STRING, DbTable.ColumnType.STRING));
+        DbTable table = new DbTable(new ArrayList<String>(Arrays.asList(cols)), types, storage);
+        String names[] = {"b", null, "a", null, "c"};
+        for (int i = 0; i < names.length; i++) {
+            table.insert(new DataObject(cols, new String[]{names[i], String.valueOf(i)}));
+        }
+        return table;
+    }
+
+    // Equal, NotEqual and range predicates compare null as the smallest value
+    private static void nullPredicates(DbTable.Storage storage) {
+        DbTable table = tableWithNulls(storage);
+        String label = "select with nulls, " + storage;
+        String name[] = {"name"};
+        for (int pass = 0; pass < 2; pass++) {
+            String scan = label + (pass == 0 ? ", scan" : ", parallel scan");
+            Checks.check(scan + ", Equal", "[a]", Checks.names(table.select(name, new String[]{"a"}, Checks.equal(name))));
+            Checks.check(scan + ", Equal null", "[null, null]",
+                    Checks.names(table.select(name, new String[]{null}, Checks.equal(name))));
+            Checks.check(scan + ", NotEqual", "[b, null, null, c]", Checks.names(table.select(name, new String[]{"a"},
+                    new DbTable.CompareType[]{DbTable.CompareType.NotEqual})));
+            Checks.check(scan + ", LessThan", "[null, a, null]", Checks.names(table.select(name, new String[]{"b"},
+                    new DbTable.CompareType[]{DbTable.CompareType.LessThan})));
+            Checks.check(scan + ", GreaterEq", "[b, a, c]", Checks.names(table.select(name, new String[]{"a"},
+                    new DbTable.CompareType[]{DbTable.CompareType.GreaterEq})));
+            table.setParallelScan(1, ForkJoinPool.commonPool());
+        }
+        Checks.check(label + ", prepared count of null", "2",
+                String.valueOf(table.prepare(name, Checks.equal(name)).count(new String[]{null})));
+    }
+}
@@ -0,0 +1,220 @@
+/*
+ * Column of String values kept outside the Java heap. Values are written as a 4-byte length
+ * followed by their UTF-8 bytes into direct ByteBuffer chunks, and the heap only holds one
+ * long per row locating the value, so the garbage collector has nothing per value to trace.
+ * <p/>
+ * Comparisons against a predicate's value run on the bytes: the value is encoded once and
+ * compared byte by byte with each row, giving the same order as String.compareTo. A String is
+ * only created when a value is read through get (or indexed).
+ * <p/>
+ * Rows are only ever appended, by one writer at a time. Readers may run concurrently with
+ * the writer as long as they only read rows that were appended before they started.
+ */
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.function.IntPredicate;
+
+public class OffHeapStringColumn extends Column {
+
+    // Bytes per chunk; a value longer than this gets a chunk of its own
+    public static final int CHUNK_SIZE = 1 << 20;
+
+    private static final int NULL_LENGTH = -1;
+
+    // Chunks written so far; the last one is being filled
+    private volatile ByteBuffer[] chunks = new ByteBuffer[0];
+    private int chunkCount;
+    private int fill;
+
+    // Chunk number (high 32 bits) and position (low 32 bits) of each row's value
+    private volatile long[] locations = new long[16];
+    private int size;
+
+    @Override
+    public String get(int row) {
+        long location = locations[row];
+        ByteBuffer chunk = chunks[(int) (location >>> 32)];
+        int at = (int) location;
+        int length = chunk.getInt(at);
+        if (length == NULL_LENGTH) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        chunk.get(at + 4, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public void append(String value) {
+        byte[] bytes = value == null ? null : value.getBytes(StandardCharsets.UTF_8);
+        appendBytes(bytes, 0, bytes == null ? NULL_LENGTH : bytes.length);
+    }
+
+    @Override
+    public void appendFrom(Column source, int row) {
+        if (!(source instanceof OffHeapStringColumn)) {
+            super.appendFrom(source, row);
+            return;
+        }
+        // Copy the encoded bytes without decoding them
+        OffHeapStringColumn other = (OffHeapStringColumn) source;
+        long location = other.locations[row];
+        ByteBuffer chunk = other.chunks[(int) (location >>> 32)];
+        int at = (int) location;
+        int length = chunk.getInt(at);
+        byte[] bytes = null;
+        if (length != NULL_LENGTH) {
+            bytes = new byte[length];
+            chunk.get(at + 4, bytes);
+        }
+        appendBytes(bytes, 0, length);
+    }
+
+    @Override
+    public Column emptyCopy() {
+        return new OffHeapStringColumn();
+    }
+
+    @Override
+    public int compare(int row, String value) {
+        if (value == null) {
+            return isNull(row) ? 0 : 1;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        return compareBytes(row, ByteBuffer.wrap(bytes), 0, bytes.length);
+    }
+
+    // Null values sort before every other value. Both rows are compared where they are stored.
+    @Override
+    public int compareRows(int a, int b) {
+        long location = locations[b];
+        ByteBuffer chunk = chunks[(int) (location >>> 32)];
+        int at = (int) location;
+        int length = chunk.getInt(at);
+        if (length == NULL_LENGTH) {
+            return isNull(a) ? 0 : 1;
+        }
+        return compareBytes(a, chunk, at + 4, length);
+    }
+
+    @Override
+    public IntPredicate test(DbTable.CompareType ctype, String value) throws IllegalArgumentException {
+        if (value == null) {
+            // Only null rows equal null, and nothing is below it
+            return super.test(ctype, null);
+        }
+        final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        // Absolute reads of a heap buffer, so the test can be shared between threads
+        final ByteBuffer encoded = ByteBuffer.wrap(bytes);
+        final int length = bytes.length;
+        switch (ctype) {
+            case Equal: return (int row) -> equalBytes(row, bytes);
+            case NotEqual: return (int row) -> !equalBytes(row, bytes);
+            case LessThan: return (int row) -> compareBytes(row, encoded, 0, length) < 0;
+            case LessEq: return (int row) -> compareBytes(row, encoded, 0, length) <= 0;
+            case GreaterThan: return (int row) -> compareBytes(row, encoded, 0, length) > 0;
+            default: return (int row) -> compareBytes(row, encoded, 0, length) >= 0;
+        }
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return Bytes of off-heap memory taken by the chunks written so far
+     */
+    public long offHeapBytes() {
+        long bytes = 0;
+        ByteBuffer[] c = chunks;
+        for (int i = 0; i < chunkCount && i < c.length; i++) {
+            bytes += c[i].capacity();
+        }
+        return bytes;
+    }
+
+    // Writes a length and bytes, and records where they went. Only called by the writer.
+    private void appendBytes(byte[] bytes, int from, int length) {
+        int needed = 4 + Math.max(0, length);
+        ByteBuffer[] c = chunks;
+        if (chunkCount == 0 || fill + needed > c[chunkCount - 1].capacity()) {
+            if (chunkCount == c.length) {
+                c = Arrays.copyOf(c, Math.max(4, chunkCount * 2));
+            }
+            c[chunkCount] = ByteBuffer.allocateDirect(Math.max(CHUNK_SIZE, needed));
+            chunks = c;
+            chunkCount++;
+            fill = 0;
+        }
+        ByteBuffer chunk = c[chunkCount - 1];
+        chunk.putInt(fill, length);
+        if (length > 0) {
+            chunk.put(fill + 4, bytes, from, length);
+        }
+
+        long[] l = locations;
+        if (size == l.length) {
+            l = Arrays.copyOf(l, size * 2);
+        }
+        l[size] = ((long) (chunkCount - 1) << 32) | fill;
+        // Publish the grown array after the new location is in it
+        locations = l;
+        size++;
+        fill += needed;
+    }
+
+    private boolean isNull(int row) {
+        long location = locations[row];
+        return chunks[(int) (location >>> 32)].getInt((int) location) == NULL_LENGTH;
+    }
+
+    private boolean equalBytes(int row, byte[] bytes) {
+        long location = locations[row];
+        ByteBuffer chunk = chunks[(int) (location >>> 32)];
+        int at = (int) location;
+        if (chunk.getInt(at) != bytes.length) {
+            return false;
+        }
+        at += 4;
+        for (int i = 0; i < bytes.length; i++) {
+            if (chunk.get(at + i) != bytes[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Compares a row's UTF-8 bytes with the length bytes of other at from, in String.compareTo
+    // order, with a null row first. Bytes order UTF-8 by code point, while Strings order by
+    // UTF-16 unit, which puts characters above U+FFFF (4-byte sequences, lead byte 0xF0 and
+    // up) below U+E000 to U+FFFF (lead bytes 0xEE and 0xEF). That is the only case where the
+    // two orders differ.
+    private int compareBytes(int row, ByteBuffer other, int from, int otherLength) {
+        long location = locations[row];
+        ByteBuffer chunk = chunks[(int) (location >>> 32)];
+        int at = (int) location;
+        int length = chunk.getInt(at);
+        if (length == NULL_LENGTH) {
+            return -1;
+        }
+        at += 4;
+        int common = Math.min(length, otherLength);
+        for (int i = 0; i < common; i++) {
+            int x = chunk.get(at + i) & 0xff;
+            int y = other.get(from + i) & 0xff;
+            if (x != y) {
+                if (x >= 0xf0 && (y == 0xee || y == 0xef)) {
+                    return -1;
+                }
+                if (y >= 0xf0 && (x == 0xee || x == 0xef)) {
+                    return 1;
+                }
+                return x - y;
+            }
+        }
+        return length - otherLength;
+    }
+}
@@ -0,0 +1,404 @@
+/*
+ * A table split into shards, each an ordinary DbTable, by the value of one partition key column.
+ * Rows are hash-partitioned, or range-partitioned by split points on the key.
+ * <p/>
+ * Each shard has its own write lock, snapshots and indexes, so writers to different shards run
+ * side by side and so do the parts of a query. insert and delete go to the one shard that
+ * holds the row. A select whose predicates pin the partition key (Equal, or for range
+ * partitioning a range of the key) only runs on the shards that can hold matches; other
+ * selects run on every shard in parallel and their results are merged.
+ * <p/>
+ * A select that spans shards reads each shard's own latest snapshot, so unlike a DbTable select
+ * it is not one consistent version of the whole table while writers are busy.
+ */
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+
+public class PartitionedTable {
+
+    private final ArrayList<String> columnNames;
+    private final String keyColumn;
+    private final int keySlot;
+    private final DbTable[] shards;
+
+    // Sort keys (see Column.sortKey) of the split points of a range-partitioned table, in
+    // order: shard i holds the keys from splits[i - 1] up to but not including splits[i].
+    // null for a hash-partitioned table.
+    private final String[] splits;
+
+    // Used to turn key values into sort keys
+    private final Column keyType;
+
+    private volatile Executor executor = ForkJoinPool.commonPool();
+
+    private PartitionedTable(ArrayList<String> columnNames, ArrayList<DbTable.ColumnType> columnTypes,
+                             DbTable.Storage storage, String keyColumn, int shardCount, String[] splitValues)
+            throws IllegalArgumentException {
+        this.keySlot = columnNames.indexOf(keyColumn);
+        if (keySlot < 0) {
+            throw new IllegalArgumentException("No such column: " + keyColumn);
+        }
+        if (shardCount < 1) {
+            throw new IllegalArgumentException("A partitioned table needs at least one shard");
+        }
+        this.columnNames = new ArrayList<String>(columnNames);
+        this.keyColumn = keyColumn;
+        this.shards = new DbTable[shardCount];
+        for (int i = 0; i < shardCount; i++) {
+            shards[i] = new DbTable(columnNames, columnTypes, storage);
+            shards[i].lockColumn(keyColumn);
+            // Queries are already spread over the shards
+            shards[i].setParallelScan(Integer.MAX_VALUE, ForkJoinPool.commonPool());
+        }
+        this.keyType = Column.create(columnTypes == null ? DbTable.ColumnType.STRING : columnTypes.get(keySlot));
+        if (splitValues == null) {
+            this.splits = null;
+        } else {
+            this.splits = new String[splitValues.length];
+            for (int i = 0; i < splitValues.length; i++) {
+                splits[i] = keyType.sortKey(splitValues[i]);
+                if (i > 0 && splits[i - 1].compareTo(splits[i]) >= 0) {
+                    throw new IllegalArgumentException("Split points must be in increasing order");
+                }
+            }
+        }
+    }
+
+    /**
+     * Creates a table whose rows are spread over shards by a hash of the partition key
+     *
+     * @param columnNames Columns of the table
+     * @param columnTypes Type of each column, or null for all STRING
+     * @param keyColumn   Partition key column
+     * @param shardCount  Number of shards, e.g. the number of cores
+     * @throws IllegalArgumentException if keyColumn is not in columnNames or shardCount is not positive
+     */
+    public static PartitionedTable hashPartitioned(ArrayList<String> columnNames, ArrayList<DbTable.ColumnType> columnTypes,
+                                                   String keyColumn, int shardCount) throws IllegalArgumentException {
+        return hashPartitioned(columnNames, columnTypes, DbTable.Storage.HEAP, keyColumn, shardCount);
+    }
+
+    /**
+     * Same as hashPartitioned(columnNames, columnTypes, keyColumn, shardCount), for a table whose
+     * shards keep their STRING values as the given storage
+     *
+     * @param storage Where every shard keeps its STRING values
+     */
+    public static PartitionedTable hashPartitioned(ArrayList<String> columnNames, ArrayList<DbTable.ColumnType> columnTypes,
+                                                   DbTable.Storage storage, String keyColumn, int shardCount)
+            throws IllegalArgumentException {
+        return new PartitionedTable(columnNames, columnTypes, storage, keyColumn, shardCount, null);
+    }
+
+    /**
+     * Creates a table whose rows are spread over shards by ranges of the partition key. With n
+     * split points there are n + 1 shards: keys below the first split point, keys from each
+     * split point up to the next, and keys from the last split point up.
+     *
+     * @param columnNames Columns of the table
+     * @param columnTypes Type of each column, or null for all STRING
+     * @param keyColumn   Partition key column
+     * @param splitPoints Values of the partition key, in increasing order
+     * @throws IllegalArgumentException if keyColumn is not in columnNames, or the split points are
+     * not valid values of its type in increasing order
+     */
+    public static PartitionedTable rangePartitioned(ArrayList<String> columnNames, ArrayList<DbTable.ColumnType> columnTypes,
+                                                    String keyColumn, String... splitPoints) throws IllegalArgumentException {
+        return rangePartitioned(columnNames, columnTypes, DbTable.Storage.HEAP, keyColumn, splitPoints);
+    }
+
+    /**
+     * Same as rangePartitioned(columnNames, columnTypes, keyColumn, splitPoints), for a table
+     * whose shards keep their STRING values as the given storage
+     *
+     * @param storage Where every shard keeps its STRING values
+     */
+    public static PartitionedTable rangePartitioned(ArrayList<String> columnNames, ArrayList<DbTable.ColumnType> columnTypes,
+                                                    DbTable.Storage storage, String keyColumn, String... splitPoints)
+            throws IllegalArgumentException {
+        return new PartitionedTable(columnNames, columnTypes, storage, keyColumn, splitPoints.length + 1, splitPoints);
+    }
+
+    /**
+     * @return The shards, in partition order. Each can be queried like any DbTable.
+     */
+    public List<DbTable> shards() {
+        return Arrays.asList(shards.clone());
+    }
+
+    /**
+     * Sets where queries that span several shards run their parts
+     *
+     * @throws IllegalArgumentException if executor is null
+     */
+    public void setExecutor(Executor executor) throws IllegalArgumentException {
+        if (executor == null) {
+            throw new IllegalArgumentException();
+        }
+        this.executor = executor;
+    }
+
+    /**
+     * Inserts a row into the shard its partition key belongs to
+     *
+     * @throws IllegalArgumentException as for DbTable.insert
+     */
+    public void insert(DataObject newRow) throws IllegalArgumentException {
+        shards[shardOf(newRow.get(keyColumn))].insert(newRow);
+    }
+
+    /**
+     * Inserts a batch of rows, as one DbTable.insertAll per shard, with the shards written in parallel.
+     * Each shard's part of the batch becomes visible at once, but the shards do so independently.
+     *
+     * @throws IllegalArgumentException as for DbTable.insertAll; other shards' rows may already be inserted
+     */
+    public void insertAll(Collection<DataObject> newRows) throws IllegalArgumentException {
+        ArrayList<ArrayList<DataObject>> parts = new ArrayList<ArrayList<DataObject>>(shards.length);
+        for (int i = 0; i < shards.length; i++) {
+            parts.add(new ArrayList<DataObject>());
+        }
+        for (DataObject row : newRows) {
+            parts.get(shardOf(row.get(keyColumn))).add(row);
+        }
+        ArrayList<CompletableFuture<Void>> writes = new ArrayList<CompletableFuture<Void>>();
+        for (int i = 0; i < shards.length; i++) {
+            final DbTable shard = shards[i];
+            final ArrayList<DataObject> part = parts.get(i);
+            if (!part.isEmpty()) {
+                writes.add(CompletableFuture.runAsync(() -> shard.insertAll(part), executor));
+            }
+        }
+        for (CompletableFuture<Void> write : writes) {
+            joinRethrowing(write);
+        }
+    }
+
+    /**
+     * Removes a row returned by select from its shard. Rows of other tables are ignored.
+     */
+    public void delete(DataObject toDelete) {
+        DbTable shard = toDelete.table();
+        for (DbTable candidate : shards) {
+            if (candidate == shard) {
+                shard.delete(toDelete);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Creates an index of the given kind on every shard
+     *
+     * @throws IllegalArgumentException if columnName is not a column of the table
+     */
+    public void createIndex(String columnName, DbTable.IndexKind kind) throws IllegalArgumentException {
+        for (DbTable shard : shards) {
+            shard.createIndex(columnName, kind);
+        }
+    }
+
+    /**
+     * Same as DbTable.select. Only the shards that can hold matching rows are queried, in
+     * parallel. When the predicates include a range comparison on the partition key, the rows
+     * come in key order with either kind of partitioning: each shard sorts its rows by key,
+     * and the shards' results are concatenated in shard order (range partitioning) or merged
+     * by key (hash partitioning). Other results come shard by shard, in no particular order.
+     *
+     * @throws IllegalArgumentException as for DbTable.select
+     */
+    public ArrayList<DataObject> select(final String[] columns, final String[] values, final DbTable.CompareType[] ctype)
+            throws IllegalArgumentException {
+        if (columns.length != values.length || values.length != ctype.length) {
+            throw new IllegalArgumentException("Parameters are not the same length");
+        }
+        int[] range = shardRange(columns, values, ctype);
+        if (range[0] > range[1]) {
+            return new ArrayList<DataObject>();
+        }
+        final boolean keyOrder = hasKeyRange(columns, ctype);
+        if (range[0] == range[1]) {
+            return select(shards[range[0]], columns, values, ctype, keyOrder);
+        }
+
+        ArrayList<CompletableFuture<ArrayList<DataObject>>> parts = new ArrayList<CompletableFuture<ArrayList<DataObject>>>();
+        for (int i = range[0]; i <= range[1]; i++) {
+            final DbTable shard = shards[i];
+            parts.add(CompletableFuture.supplyAsync(() -> select(shard, columns, values, ctype, keyOrder), executor));
+        }
+        ArrayList<ArrayList<DataObject>> results = new ArrayList<ArrayList<DataObject>>(parts.size());
+        int total = 0;
+        for (CompletableFuture<ArrayList<DataObject>> part : parts) {
+            ArrayList<DataObject> rows = joinRethrowing(part);
+            results.add(rows);
+            total += rows.size();
+        }
+        // Range shards hold increasing ranges of keys, so their sorted results only need joining
+        return keyOrder && splits == null ? mergeByKey(results, total) : concat(results, total);
+    }
+
+    // Runs a select on one shard, sorted by partition key if keyOrder is set
+    private ArrayList<DataObject> select(DbTable shard, String[] columns, String[] values,
+                                         DbTable.CompareType[] ctype, boolean keyOrder) {
+        if (keyOrder) {
+            return shard.select(columns, values, ctype, keyColumn, DbTable.SortOrder.ASC, Integer.MAX_VALUE);
+        }
+        return shard.select(columns, values, ctype);
+    }
+
+    /**
+     * Same as DbTable.count, added up over the shards that can hold matching rows
+     *
+     * @throws IllegalArgumentException as for DbTable.count
+     */
+    public long count(final String[] columns, final String[] values, final DbTable.CompareType[] ctype)
+            throws IllegalArgumentException {
+        if (columns.length != values.length || values.length != ctype.length) {
+            throw new IllegalArgumentException("Parameters are not the same length");
+        }
+        int[] range = shardRange(columns, values, ctype);
+        ArrayList<CompletableFuture<Long>> parts = new ArrayList<CompletableFuture<Long>>();
+        for (int i = range[0]; i <= range[1]; i++) {
+            final DbTable shard = shards[i];
+            parts.add(CompletableFuture.supplyAsync(() -> shard.count(columns, values, ctype), executor));
+        }
+        long total = 0;
+        for (CompletableFuture<Long> part : parts) {
+            total += joinRethrowing(part);
+        }
+        return total;
+    }
+
+    // Shard a partition key value belongs to
+    private int shardOf(String value) throws IllegalArgumentException {
+        if (value == null) {
+            throw new IllegalArgumentException("Rows need a value for the partition key " + keyColumn);
+        }
+        String key = keyType.sortKey(value);
+        if (splits == null) {
+            int h = key.hashCode();
+            return Math.floorMod(h ^ (h >>> 16), shards.length);
+        }
+        int pos = Arrays.binarySearch(splits, key);
+        return pos >= 0 ? pos + 1 : -pos - 1;
+    }
+
+    // First and last shard that can hold rows matching the predicates; first > last if none can
+    private int[] shardRange(String[] columns, String[] values, DbTable.CompareType[] ctype) {
+        int first = 0;
+        int last = shards.length - 1;
+        for (int i = 0; i < columns.length; i++) {
+            if (!keyColumn.equals(columns[i])) {
+                continue;
+            }
+            if (values[i] == null) {
+                // null belongs to no shard; every shard compares against it as a DbTable would
+                continue;
+            }
+            if (ctype[i] == DbTable.CompareType.Equal) {
+                int shard = shardOf(values[i]);
+                first = Math.max(first, shard);
+                last = Math.min(last, shard);
+            } else if (splits != null && ctype[i] != DbTable.CompareType.NotEqual) {
+                int shard = shardOf(values[i]);
+                if (ctype[i] == DbTable.CompareType.LessThan || ctype[i] == DbTable.CompareType.LessEq) {
+                    last = Math.min(last, shard);
+                } else {
+                    first = Math.max(first, shard);
+                }
+            }
+        }
+        return new int[]{first, last};
+    }
+
+    private boolean hasKeyRange(String[] columns, DbTable.CompareType[] ctype) {
+        for (int i = 0; i < columns.length; i++) {
+            if (keyColumn.equals(columns[i]) && ctype[i] != DbTable.CompareType.Equal
+                    && ctype[i] != DbTable.CompareType.NotEqual) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Merges lists that are each in key order. The key of the row at the head of each list is
+    // read once, as the column's long key for a typed column, so comparing heads allocates nothing.
+    private ArrayList<DataObject> mergeByKey(final ArrayList<ArrayList<DataObject>> results, int total) {
+        ArrayList<DataObject> merged = new ArrayList<DataObject>(total);
+        final boolean longKeys = keyType.hasLongKeys();
+        PriorityQueue<Head> heads = new PriorityQueue<Head>(Math.max(1, results.size()), new Comparator<Head>() {
+            @Override
+            public int compare(Head a, Head b) {
+                // A partition key holds no null
+                return longKeys ? Long.compare(a.key, b.key) : a.value.compareTo(b.value);
+            }
+        });
+        for (int i = 0; i < results.size(); i++) {
+            if (!results.get(i).isEmpty()) {
+                Head head = new Head(results.get(i));
+                head.read(keySlot, longKeys);
+                heads.add(head);
+            }
+        }
+        while (!heads.isEmpty()) {
+            Head head = heads.poll();
+            merged.add(head.rows.get(head.pos));
+            if (++head.pos < head.rows.size()) {
+                head.read(keySlot, longKeys);
+                heads.add(head);
+            }
+        }
+        return merged;
+    }
+
+    // Position in one shard's list of rows, with the key of the row there
+    private static final class Head {
+        final ArrayList<DataObject> rows;
+        int pos;
+        long key;
+        String value;
+
+        Head(ArrayList<DataObject> rows) {
+            this.rows = rows;
+        }
+
+        void read(int keySlot, boolean longKeys) {
+            DataObject row = rows.get(pos);
+            Column column = row.store().column(keySlot);
+            if (longKeys) {
+                key = column.longKey(row.rowId());
+            } else {
+                value = column.get(row.rowId());
+            }
+        }
+    }
+
+    private static ArrayList<DataObject> concat(ArrayList<ArrayList<DataObject>> results, int total) {
+        ArrayList<DataObject> all = new ArrayList<DataObject>(total);
+        for (ArrayList<DataObject> rows : results) {
+            all.addAll(rows);
+        }
+        return all;
+    }
+
+    // Waits for a part of a query, rethrowing what it threw
+    private static <T> T joinRethrowing(CompletableFuture<T> part) {
+        try {
+            return part.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+    }
+}
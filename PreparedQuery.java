@@ -0,0 +1,191 @@
+/*
+ * A select whose columns and comparisons are fixed, made by DbTable.prepare and run many times
+ * with different values.
+ * <p/>
+ * Column names are resolved to slots once, when the query is prepared, and the index each
+ * predicate can use is looked up again only when the table's set of indexes changes; the
+ * planner is given those indexes instead of looking them up on every run. A query
+ * whose only predicate is Equal on an indexed column is answered straight from the index
+ * bucket: it makes no plan, builds no row tests, and count allocates nothing at all for a
+ * STRING column. Other queries are planned for their values as select would plan them.
+ */
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+public class PreparedQuery {
+
+    private final DbTable table;
+    private final String[] columns;
+    private final int[] slots;
+    private final DbTable.CompareType[] ctype;
+
+    // Index usable by each predicate, as of the snapshot indexes they were looked up in
+    private static final class Resolved {
+        final HashMap<String, Index> indexes;
+        final Index[] usable;
+
+        Resolved(HashMap<String, Index> indexes, Index[] usable) {
+            this.indexes = indexes;
+            this.usable = usable;
+        }
+    }
+
+    private volatile Resolved resolved;
+
+    // Bucket of a value no row holds; never added to
+    private static final IntList NO_ROWS = new IntList(0);
+
+    PreparedQuery(DbTable table, String[] columns, int[] slots, DbTable.CompareType[] ctype) {
+        this.table = table;
+        this.columns = columns;
+        this.slots = slots;
+        this.ctype = ctype;
+    }
+
+    /**
+     * Runs the query against the current version of the table
+     *
+     * @param values Value to compare each column against, in the order the columns were prepared in
+     * @return All the DataObjects in the table that satisfy the conditions, as select would return them
+     * @throws IllegalArgumentException if there is not exactly one value per column, or a value
+     * is not valid for its column's type
+     */
+    public ArrayList<DataObject> select(String... values) throws IllegalArgumentException {
+        checkValues(values);
+        TableSnapshot s = table.snapshot();
+        IntList bucket = pointBucket(s, values);
+        if (bucket == null) {
+            return table.select(s, slots, usableIndexes(s), columns, values, ctype);
+        }
+        long started = table.metrics().isEnabled() ? System.nanoTime() : 0;
+        ArrayList<DataObject> selectedObjects = new ArrayList<DataObject>();
+        for (int i = 0; i < bucket.size(); i++) {
+            int rowId = bucket.get(i);
+            if (s.isVisible(rowId)) {
+                selectedObjects.add(new DataObject(table, s.store, rowId));
+            }
+        }
+        recordPointLookup(started, bucket.size(), selectedObjects.size());
+        return selectedObjects;
+    }
+
+    /**
+     * Returns the first row select would return, without looking for the others
+     *
+     * @param values Value to compare each column against
+     * @return The first matching row, or null if no row matches
+     * @throws IllegalArgumentException as for select
+     */
+    public DataObject first(String... values) throws IllegalArgumentException {
+        checkValues(values);
+        TableSnapshot s = table.snapshot();
+        IntList bucket = pointBucket(s, values);
+        if (bucket == null) {
+            RowCursor cursor = table.cursor(s, slots, usableIndexes(s), columns, values, ctype, 1);
+            return cursor.hasNext() ? cursor.next() : null;
+        }
+        long started = table.metrics().isEnabled() ? System.nanoTime() : 0;
+        for (int i = 0; i < bucket.size(); i++) {
+            int rowId = bucket.get(i);
+            if (s.isVisible(rowId)) {
+                recordPointLookup(started, i + 1, 1);
+                return new DataObject(table, s.store, rowId);
+            }
+        }
+        recordPointLookup(started, bucket.size(), 0);
+        return null;
+    }
+
+    /**
+     * Counts the rows select would return
+     *
+     * @param values Value to compare each column against
+     * @return Number of matching rows
+     * @throws IllegalArgumentException as for select
+     */
+    public long count(String... values) throws IllegalArgumentException {
+        checkValues(values);
+        TableSnapshot s = table.snapshot();
+        IntList bucket = pointBucket(s, values);
+        if (bucket == null) {
+            return new Aggregator(s, columns, values, ctype).count();
+        }
+        long count = 0;
+        for (int i = 0; i < bucket.size(); i++) {
+            if (s.isVisible(bucket.get(i))) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Lazily iterates over the rows select would return, as DbTable.iterator does
+     *
+     * @param limit  Largest number of rows to return; Integer.MAX_VALUE for no limit
+     * @param values Value to compare each column against
+     * @return Iterator over the matching rows
+     * @throws IllegalArgumentException if limit is negative, or as for select
+     */
+    public RowCursor iterator(int limit, String... values) throws IllegalArgumentException {
+        checkValues(values);
+        TableSnapshot s = table.snapshot();
+        return table.cursor(s, slots, usableIndexes(s), columns, values, ctype, limit);
+    }
+
+    /**
+     * Describes how the query would run with the given values, without running it
+     */
+    public QueryPlan explain(String... values) throws IllegalArgumentException {
+        checkValues(values);
+        TableSnapshot s = table.snapshot();
+        return table.plan(s, usableIndexes(s), columns, values, ctype);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("PreparedQuery(");
+        for (int i = 0; i < columns.length; i++) {
+            sb.append(i > 0 ? " AND " : "").append(columns[i]).append(' ').append(ctype[i]).append(" ?");
+        }
+        return sb.append(')').toString();
+    }
+
+    private void checkValues(String[] values) throws IllegalArgumentException {
+        if (values.length != columns.length) {
+            throw new IllegalArgumentException("Expected " + columns.length + " values, got " + values.length);
+        }
+    }
+
+    // Returns the index bucket holding every match if the query is a single Equal on an
+    // indexed column, an empty bucket if no row holds the value, or null to plan the query
+    private IntList pointBucket(TableSnapshot s, String[] values) throws IllegalArgumentException {
+        if (columns.length != 1 || ctype[0] != DbTable.CompareType.Equal || values[0] == null) {
+            return null;
+        }
+        Index index = usableIndexes(s)[0];
+        if (index == null) {
+            return null;
+        }
+        IntList bucket = index.get(values[0]);
+        return bucket == null ? NO_ROWS : bucket;
+    }
+
+    // Looks up the predicates' indexes again if the snapshot has a different set of them
+    private Index[] usableIndexes(TableSnapshot s) {
+        Resolved r = resolved;
+        if (r == null || r.indexes != s.indexes) {
+            r = new Resolved(s.indexes, DbTable.usableIndexes(s, columns, ctype));
+            resolved = r;
+        }
+        return r.usable;
+    }
+
+    private void recordPointLookup(long started, long examined, long returned) {
+        if (started != 0) {
+            table.metrics().recordSelect(TableMetrics.PlanType.INDEX, DbTable.CompareType.Equal,
+                    System.nanoTime() - started, examined, returned);
+        }
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ * The plan chosen by DbTable for a select: either a full scan of the table, or a walk of the
+ * most selective index with the remaining predicates checked on each candidate row. When other
+ * indexed predicates are selective enough, their row id bitmaps are ANDed (or, for NotEqual,
+ * AND NOTed) into the candidates before the walk.
+ */
+
+public class QueryPlan {
+
+    // Positions in the predicate arrays of the predicates answered by indexes, the driving one first.
+    // Empty for a full scan.
+    private final int[] indexed;
+
+    // Positions of the predicates checked against each candidate row
+    private final int[] residual;
+
+    private final long estimatedRows;
+    private final long tableRows;
+
+    private final String[] columns;
+    private final String[] values;
+    private final DbTable.CompareType[] ctype;
+
+    public QueryPlan(int[] indexed, int[] residual, long estimatedRows, long tableRows,
+                     String[] columns, String[] values, DbTable.CompareType[] ctype) {
+        this.indexed = indexed;
+        this.residual = residual;
+        this.estimatedRows = estimatedRows;
+        this.tableRows = tableRows;
+        this.columns = columns;
+        this.values = values;
+        this.ctype = ctype;
+    }
+
+    /**
+     * @return true if the plan walks an index instead of scanning the table
+     */
+    public boolean usesIndex() {
+        return indexed.length > 0;
+    }
+
+    /**
+     * @return Position of the predicate answered by the index, or -1 for a full scan
+     */
+    public int driver() {
+        return indexed.length > 0 ? indexed[0] : -1;
+    }
+
+    /**
+     * @return Positions of all predicates answered by indexes, the driving one first
+     */
+    public int[] indexed() {
+        return indexed;
+    }
+
+    /**
+     * @return Positions of the predicates checked on every candidate row
+     */
+    public int[] residual() {
+        return residual;
+    }
+
+    /**
+     * @return Columns of the predicates the plan was made for
+     */
+    public String[] columns() {
+        return columns;
+    }
+
+    /**
+     * @return Values of the predicates the plan was made for
+     */
+    public String[] values() {
+        return values;
+    }
+
+    /**
+     * @return Comparisons of the predicates the plan was made for
+     */
+    public DbTable.CompareType[] compareTypes() {
+        return ctype;
+    }
+
+    /**
+     * @return Estimated number of candidate rows the plan will look at
+     */
+    public long estimatedRows() {
+        return estimatedRows;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        if (indexed.length > 1) {
+            sb.append("BitmapAnd (estimated ").append(estimatedRows).append(" of ").append(tableRows).append(" rows)");
+            for (int i : indexed) {
+                sb.append("\n  IndexBitmap on ").append(predicate(i));
+            }
+        } else if (indexed.length == 1) {
+            sb.append("IndexScan on ").append(predicate(indexed[0]));
+            sb.append(" (estimated ").append(estimatedRows).append(" of ").append(tableRows).append(" rows)");
+        } else {
+            sb.append("FullScan (").append(tableRows).append(" rows)");
+        }
+        for (int i : residual) {
+            sb.append("\n  Filter ").append(predicate(i));
+        }
+        return sb.toString();
+    }
+
+    private String predicate(int i) {
+        return columns[i] + " " + ctype[i] + " '" + values[i] + "'";
+    }
+}
@@ -0,0 +1,326 @@
+/*
+ * Crash recovery checks of durable tables, run by Checks. A writer process is killed while it
+ * inserts and the table is reopened from its log; a torn record at the end of the log is
+ * dropped; reopening starts from the last checkpoint; a background checkpoint that fails is
+ * counted and loses nothing; row ids in records logged after a compaction are replayed
+ * against the compacted rows; a closed table rejects writes; and a row rejected for a null in
+ * an indexed column is never logged.
+ * <p/>
+ * Run with "java RecoveryChecks base" to be the writer: it inserts rows into the durable table
+ * at base forever, printing the number of each row once its insert has returned.
+ */
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+
+public class RecoveryChecks {
+
+    private static final String[] COLUMNS = {"id", "n"};
+
+    public static void main(String[] args) throws IOException {
+        DbTable table = DbTable.openDurable(args[0], columnNames(), columnTypes());
+        table.createIndex("id");
+        // Checkpoint often, so the writer is killed with checkpoints behind it and maybe one running
+        table.setCheckpointInterval(16 * 1024);
+        for (int i = 0; ; i++) {
+            table.insert(new DataObject(COLUMNS, new String[]{"k" + i, String.valueOf(i)}));
+            System.out.println(i);
+            System.out.flush();
+        }
+    }
+
+    static void run() throws IOException {
+        File directory = Files.createTempDirectory("recovery").toFile();
+        try {
+            String base = new File(directory, "rows").getPath();
+            killedWriter(base);
+            tornTail(directory, base);
+            checkpointed(directory);
+            failedCheckpoint(directory);
+            compacted(directory);
+            closed(directory);
+            nullInIndexedColumn(directory);
+        } finally {
+            Checks.deleteAll(directory);
+        }
+    }
+
+    // Every insert that returned before the writer was killed is there after reopening, and
+    // nothing else but the inserts it had started
+    private static void killedWriter(String base) throws IOException {
+        String java = new File(new File(System.getProperty("java.home"), "bin"), "java").getPath();
+        Process writer = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+                "RecoveryChecks", base).redirectErrorStream(true).start();
+        int acknowledged = -1;
+        BufferedReader out = new BufferedReader(new InputStreamReader(writer.getInputStream(), StandardCharsets.UTF_8));
+        try {
+            for (String line = out.readLine(); line != null && acknowledged < 3000; line = out.readLine()) {
+                acknowledged = Integer.parseInt(line.trim());
+            }
+        } catch (NumberFormatException e) {
+            Checks.check("killed writer", "row numbers", e.getMessage());
+        } finally {
+            writer.destroyForcibly();
+        }
+        try {
+            writer.waitFor();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        out.close();
+
+        DbTable table = DbTable.openDurable(base, columnNames(), columnTypes());
+        int count = table.snapshot().size();
+        Checks.check("killed writer, acknowledged rows kept", "true", String.valueOf(count > acknowledged));
+        Checks.check("killed writer, rows are a prefix", String.valueOf(count - 1),
+                String.valueOf(table.select(new String[]{"n"}, new String[]{String.valueOf(count)},
+                        new DbTable.CompareType[]{DbTable.CompareType.LessThan}).size() - 1));
+        Checks.check("killed writer, index", "[k" + acknowledged + "]",
+                ids(table.select(new String[]{"id"}, new String[]{"k" + acknowledged}, Checks.equal(new String[]{"id"}))));
+        table.close();
+    }
+
+    // A record cut short or corrupted at the end of the last segment is dropped, and the
+    // segment is truncated so the next record follows the last good one
+    private static void tornTail(File directory, String base) throws IOException {
+        DbTable table = DbTable.openDurable(base, null);
+        ArrayList<String> before = contents(table);
+        table.close();
+
+        File segment = lastSegment(directory, "rows.");
+        long length = segment.length();
+        RandomAccessFile file = new RandomAccessFile(segment, "rw");
+        try {
+            file.seek(length);
+            // A complete record whose CRC is wrong, then a record whose payload never made it
+            file.writeInt(5);
+            file.writeInt(12345);
+            file.write(new byte[]{WriteAheadLog.DELETE, 0, 0, 0, 0});
+            file.writeInt(1000);
+            file.writeInt(0);
+            file.write(new byte[10]);
+        } finally {
+            file.close();
+        }
+
+        table = DbTable.openDurable(base, null);
+        Checks.check("torn tail, rows", before.toString(), contents(table).toString());
+        Checks.check("torn tail, truncated", String.valueOf(length), String.valueOf(segment.length()));
+        table.insert(new DataObject(COLUMNS, new String[]{"after", "-1"}));
+        table.close();
+        table = DbTable.openDurable(base, null);
+        Checks.check("torn tail, written after", String.valueOf(before.size() + 1), String.valueOf(table.snapshot().size()));
+        table.close();
+    }
+
+    // Reopening reads the newest checkpoint and replays only the segments after it
+    private static void checkpointed(File directory) throws IOException {
+        String base = new File(directory, "checkpointed").getPath();
+        DbTable table = DbTable.openDurable(base, columnNames(), columnTypes());
+        table.createIndex("id");
+        for (int i = 0; i < 100; i++) {
+            table.insert(new DataObject(COLUMNS, new String[]{"k" + i, String.valueOf(i)}));
+        }
+        table.checkpoint();
+        for (int i = 100; i < 150; i++) {
+            table.insert(new DataObject(COLUMNS, new String[]{"k" + i, String.valueOf(i)}));
+        }
+        table.deleteWhere(new String[]{"n"}, new String[]{"20"}, new DbTable.CompareType[]{DbTable.CompareType.LessThan});
+        table.select(new String[]{"id"}, new String[]{"k120"}, Checks.equal(new String[]{"id"})).get(0).set("n", "-120");
+        ArrayList<String> before = contents(table);
+        table.close();
+
+        int checkpoints = 0;
+        for (String name : directory.list()) {
+            if (name.startsWith("checkpointed.") && name.endsWith(".tbl")) {
+                checkpoints++;
+            }
+        }
+        Checks.check("checkpoint, older files removed", "1", String.valueOf(checkpoints));
+        table = DbTable.openDurable(base, null);
+        Checks.check("checkpoint, rows", before.toString(), contents(table).toString());
+        Checks.check("checkpoint, index", "[k120]",
+                ids(table.select(new String[]{"id"}, new String[]{"k120"}, Checks.equal(new String[]{"id"}))));
+        table.close();
+    }
+
+    // A checkpoint that cannot be written is counted in the table's metrics, and the log it
+    // would have replaced still brings back every row
+    private static void failedCheckpoint(File directory) throws IOException {
+        String base = new File(directory, "failing").getPath();
+        DbTable table = DbTable.openDurable(base, columnNames(), columnTypes());
+        // A directory in the way of each checkpoint file makes writing it fail
+        ArrayList<File> blockers = new ArrayList<File>();
+        for (int i = 0; i < 64; i++) {
+            File blocker = new File(directory, "failing." + i + ".tbl.tmp");
+            new File(blocker, "in-the-way").mkdirs();
+            blockers.add(blocker);
+        }
+        table.setCheckpointInterval(1);
+        for (int i = 0; i < 50; i++) {
+            table.insert(new DataObject(COLUMNS, new String[]{"k" + i, String.valueOf(i)}));
+        }
+        long waitUntil = System.currentTimeMillis() + 10000;
+        while (table.metrics().getCheckpointFailures() == 0 && System.currentTimeMillis() < waitUntil) {
+            try {
+                Thread.sleep(10);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        Checks.check("failed checkpoint, counted", "true", String.valueOf(table.metrics().getCheckpointFailures() > 0));
+        String failure = table.metrics().getLastFailure();
+        Checks.check("failed checkpoint, last failure", "true",
+                String.valueOf(failure != null && failure.startsWith("Checkpoint failed")));
+        ArrayList<String> before = contents(table);
+        table.close();
+        for (File blocker : blockers) {
+            Checks.deleteAll(blocker);
+        }
+
+        table = DbTable.openDurable(base, null);
+        Checks.check("failed checkpoint, rows", before.toString(), contents(table).toString());
+        table.close();
+    }
+
+    // Deletes and sets logged after a compaction name rows by their compacted row ids
+    private static void compacted(File directory) throws IOException {
+        String base = new File(directory, "compacted").getPath();
+        DbTable table = DbTable.openDurable(base, columnNames(), columnTypes());
+        table.setCompactionThreshold(1);
+        table.createIndex("id");
+        for (int i = 0; i < 200; i++) {
+            table.insert(new DataObject(COLUMNS, new String[]{"k" + i, String.valueOf(i)}));
+        }
+        DataObject kept = table.select(new String[]{"id"}, new String[]{"k150"}, Checks.equal(new String[]{"id"})).get(0);
+        for (int i = 0; i < 200; i += 2) {
+            table.deleteWhere(new String[]{"id"}, new String[]{"k" + i}, Checks.equal(new String[]{"id"}));
+        }
+        table.compact();
+        table.deleteWhere(new String[]{"id"}, new String[]{"k101"}, Checks.equal(new String[]{"id"}));
+        kept.set("n", "-150");
+        table.insert(new DataObject(COLUMNS, new String[]{"k200", "200"}));
+        ArrayList<String> before = contents(table);
+        table.close();
+
+        table = DbTable.openDurable(base, null);
+        Checks.check("compaction, rows", before.toString(), contents(table).toString());
+        Checks.check("compaction, index", "[k151]",
+                ids(table.select(new String[]{"id"}, new String[]{"k151"}, Checks.equal(new String[]{"id"}))));
+        table.close();
+    }
+
+    // Every live row, sorted
+    // A closed table still answers queries but rejects writes, which it could no longer log
+    private static void closed(File directory) throws IOException {
+        String base = new File(directory, "closed").getPath();
+        DbTable table = DbTable.openDurable(base, columnNames(), columnTypes());
+        table.insert(new DataObject(COLUMNS, new String[]{"k1", "1"}));
+        DataObject row = table.select(new String[]{"id"}, new String[]{"k1"}, Checks.equal(new String[]{"id"})).get(0);
+        table.close();
+        String outcomes = "";
+        Runnable[] writes = {
+                () -> table.insert(new DataObject(COLUMNS, new String[]{"k2", "2"})),
+                () -> table.delete(row),
+                () -> table.deleteWhere(new String[]{"id"}, new String[]{"k1"}, Checks.equal(new String[]{"id"})),
+                () -> row.set("n", "3"),
+                () -> table.createIndex("id")};
+        for (Runnable write : writes) {
+            try {
+                write.run();
+                outcomes += "written ";
+            } catch (IllegalStateException e) {
+                outcomes += "rejected ";
+            }
+        }
+        Checks.check("closed table, writes", "rejected rejected rejected rejected rejected ", outcomes);
+        Checks.check("closed table, rows", "[k1]", ids(table.select(new String[]{"n"}, new String[]{"0"},
+                new DbTable.CompareType[]{DbTable.CompareType.GreaterEq})));
+    }
+
+    // A row without a value for an indexed column is rejected before it is logged, so the
+    // table can still be reopened from its log
+    private static void nullInIndexedColumn(File directory) throws IOException {
+        String base = new File(directory, "people").getPath();
+        String cols[] = {"name", "city"};
+        ArrayList<String> columnNames = new ArrayList<String>(Arrays.asList(cols));
+        DbTable table = DbTable.openDurable(base, columnNames);
+        table.createIndex("name");
+        table.insert(new DataObject(cols, new String[]{"a", "x"}));
+        String outcome;
+        try {
+            table.insert(new DataObject(new String[]{"city"}, new String[]{"y"}));
+            outcome = "inserted";
+        } catch (IllegalArgumentException e) {
+            outcome = e.getMessage();
+        }
+        Checks.check("null in an indexed column", "Column name is indexed and needs a value", outcome);
+        table.insert(new DataObject(new String[]{"name"}, new String[]{"b"}));
+        try {
+            table.createIndex("city");
+            outcome = "indexed";
+        } catch (IllegalArgumentException e) {
+            outcome = "rejected";
+        }
+        Checks.check("index on a column holding null", "rejected", outcome);
+        table.close();
+
+        DbTable reopened = DbTable.openDurable(base, columnNames);
+        String name[] = {"name"};
+        Checks.check("null in an indexed column, reopened", "[a, b]", Checks.names(reopened.select(name,
+                new String[]{""}, new DbTable.CompareType[]{DbTable.CompareType.GreaterEq})));
+        Checks.check("null in an indexed column, reopened index", "[b]",
+                Checks.names(reopened.select(name, new String[]{"b"}, Checks.equal(name))));
+        reopened.close();
+    }
+
+    private static ArrayList<String> contents(DbTable table) {
+        ArrayList<String> rows = new ArrayList<String>();
+        for (DataObject row : table.select(new String[]{"id"}, new String[]{""},
+                new DbTable.CompareType[]{DbTable.CompareType.GreaterEq})) {
+            rows.add(Arrays.toString(row.get(COLUMNS)));
+        }
+        Collections.sort(rows);
+        return rows;
+    }
+
+    private static String ids(ArrayList<DataObject> rows) {
+        ArrayList<String> ids = new ArrayList<String>();
+        for (DataObject row : rows) {
+            ids.add(row.get("id"));
+        }
+        return ids.toString();
+    }
+
+    private static File lastSegment(File directory, String prefix) {
+        File last = null;
+        long lastSeq = -1;
+        for (String name : directory.list()) {
+            if (name.startsWith(prefix) && name.endsWith(".wal")) {
+                long seq = Long.parseLong(name.substring(prefix.length(), name.length() - 4));
+                if (seq > lastSeq) {
+                    lastSeq = seq;
+                    last = new File(directory, name);
+                }
+            }
+        }
+        return last;
+    }
+
+    private static ArrayList<String> columnNames() {
+        return new ArrayList<String>(Arrays.asList(COLUMNS));
+    }
+
+    private static ArrayList<DbTable.ColumnType> columnTypes() {
+        return new ArrayList<DbTable.ColumnType>(Arrays.asList(DbTable.ColumnType.STRING, DbTable.ColumnType.INT));
+    }
+}
@@ -0,0 +1,378 @@
+/*
+ * Compressed set of row ids in the style of a roaring bitmap. Row ids are split on their high
+ * 16 bits into chunks; a chunk holding few rows is a sorted array of the low 16 bits, a dense
+ * chunk is a 65536-bit bitmap. AND, OR and AND NOT run chunk by chunk, word by word on dense chunks.
+ */
+
+import java.util.Arrays;
+
+public class RowBitmap {
+
+    // An array chunk is turned into a bitmap chunk once it holds more than this many rows
+    private static final int MAX_ARRAY_SIZE = 4096;
+    private static final int BITMAP_WORDS = 1 << 10;
+
+    // High 16 bits of each chunk, sorted, and the chunks themselves.
+    // A chunk is either a char[] of sorted low bits or a long[] of BITMAP_WORDS words.
+    private char[] keys;
+    private Object[] chunks;
+    private int[] sizes;
+    private int chunkCount;
+
+    public RowBitmap() {
+        keys = new char[4];
+        chunks = new Object[4];
+        sizes = new int[4];
+        chunkCount = 0;
+    }
+
+    /**
+     * Returns a bitmap of all row ids in [from, to)
+     */
+    public static RowBitmap range(int from, int to) {
+        RowBitmap bitmap = new RowBitmap();
+        int row = from;
+        while (row < to) {
+            int high = row >>> 16;
+            int end = Math.min(to, (high + 1) << 16);
+            long[] words = new long[BITMAP_WORDS];
+            int lo = row & 0xFFFF;
+            int hi = end - (high << 16);
+            for (int bit = lo; bit < hi; ) {
+                if ((bit & 63) == 0 && bit + 64 <= hi) {
+                    words[bit >>> 6] = -1L;
+                    bit += 64;
+                } else {
+                    words[bit >>> 6] |= 1L << bit;
+                    bit++;
+                }
+            }
+            bitmap.appendChunk((char) high, words, end - row);
+            row = end;
+        }
+        return bitmap;
+    }
+
+    /**
+     * Returns a bitmap of all row ids held in a bucket
+     */
+    public static RowBitmap of(IntList bucket) {
+        RowBitmap bitmap = new RowBitmap();
+        for (int i = 0; i < bucket.size(); i++) {
+            bitmap.add(bucket.get(i));
+        }
+        return bitmap;
+    }
+
+    public void add(int rowId) {
+        char high = (char) (rowId >>> 16);
+        char low = (char) rowId;
+        int pos = findChunk(high);
+        if (pos < 0) {
+            pos = -pos - 1;
+            insertChunk(pos, high, new char[] { low }, 1);
+            return;
+        }
+        Object chunk = chunks[pos];
+        if (chunk instanceof long[]) {
+            long[] words = (long[]) chunk;
+            long mask = 1L << low;
+            if ((words[low >>> 6] & mask) == 0) {
+                words[low >>> 6] |= mask;
+                sizes[pos]++;
+            }
+            return;
+        }
+        char[] values = (char[]) chunk;
+        int size = sizes[pos];
+        int at = Arrays.binarySearch(values, 0, size, low);
+        if (at >= 0) {
+            return;
+        }
+        at = -at - 1;
+        if (size == MAX_ARRAY_SIZE) {
+            long[] words = toWords(values, size);
+            words[low >>> 6] |= 1L << low;
+            chunks[pos] = words;
+            sizes[pos] = size + 1;
+            return;
+        }
+        if (size == values.length) {
+            values = Arrays.copyOf(values, Math.min(MAX_ARRAY_SIZE, size * 2));
+            chunks[pos] = values;
+        }
+        System.arraycopy(values, at, values, at + 1, size - at);
+        values[at] = low;
+        sizes[pos] = size + 1;
+    }
+
+    public boolean contains(int rowId) {
+        int pos = findChunk((char) (rowId >>> 16));
+        if (pos < 0) {
+            return false;
+        }
+        char low = (char) rowId;
+        Object chunk = chunks[pos];
+        if (chunk instanceof long[]) {
+            return (((long[]) chunk)[low >>> 6] & (1L << low)) != 0;
+        }
+        return Arrays.binarySearch((char[]) chunk, 0, sizes[pos], low) >= 0;
+    }
+
+    /**
+     * @return Number of row ids in the bitmap
+     */
+    public int cardinality() {
+        int total = 0;
+        for (int i = 0; i < chunkCount; i++) {
+            total += sizes[i];
+        }
+        return total;
+    }
+
+    public boolean isEmpty() {
+        return chunkCount == 0;
+    }
+
+    /**
+     * Returns the smallest row id in the bitmap that is at least from, in the same way as
+     * BitSet.nextSetBit, so a bitmap can be walked with
+     * for (int i = bitmap.nextSetBit(0); i >= 0; i = bitmap.nextSetBit(i + 1))
+     *
+     * @param from Row id to start from
+     * @return The next row id, or -1 if there are none
+     */
+    public int nextSetBit(int from) {
+        if (from < 0) {
+            from = 0;
+        }
+        char high = (char) (from >>> 16);
+        int pos = findChunk(high);
+        int low;
+        if (pos < 0) {
+            pos = -pos - 1;
+            low = 0;
+        } else {
+            low = from & 0xFFFF;
+        }
+        for (; pos < chunkCount; pos++, low = 0) {
+            int next = nextInChunk(pos, low);
+            if (next >= 0) {
+                return (keys[pos] << 16) | next;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return A new bitmap holding the row ids in both this and other
+     */
+    public RowBitmap and(RowBitmap other) {
+        RowBitmap result = new RowBitmap();
+        int i = 0;
+        int j = 0;
+        while (i < chunkCount && j < other.chunkCount) {
+            if (keys[i] < other.keys[j]) {
+                i++;
+            } else if (keys[i] > other.keys[j]) {
+                j++;
+            } else {
+                result.appendChunk(keys[i], andChunks(chunks[i], sizes[i], other.chunks[j], other.sizes[j]), -1);
+                i++;
+                j++;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return A new bitmap holding the row ids in this or other
+     */
+    public RowBitmap or(RowBitmap other) {
+        RowBitmap result = new RowBitmap();
+        int i = 0;
+        int j = 0;
+        while (i < chunkCount || j < other.chunkCount) {
+            if (j == other.chunkCount || (i < chunkCount && keys[i] < other.keys[j])) {
+                result.appendChunk(keys[i], copyChunk(chunks[i], sizes[i]), sizes[i]);
+                i++;
+            } else if (i == chunkCount || keys[i] > other.keys[j]) {
+                result.appendChunk(other.keys[j], copyChunk(other.chunks[j], other.sizes[j]), other.sizes[j]);
+                j++;
+            } else {
+                long[] words = wordsOf(chunks[i], sizes[i]);
+                long[] theirs = wordsOf(other.chunks[j], other.sizes[j]);
+                for (int w = 0; w < BITMAP_WORDS; w++) {
+                    words[w] |= theirs[w];
+                }
+                result.appendChunk(keys[i], words, -1);
+                i++;
+                j++;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return A new bitmap holding the row ids in this that are not in other
+     */
+    public RowBitmap andNot(RowBitmap other) {
+        RowBitmap result = new RowBitmap();
+        int j = 0;
+        for (int i = 0; i < chunkCount; i++) {
+            while (j < other.chunkCount && other.keys[j] < keys[i]) {
+                j++;
+            }
+            if (j < other.chunkCount && other.keys[j] == keys[i]) {
+                long[] words = wordsOf(chunks[i], sizes[i]);
+                long[] theirs = wordsOf(other.chunks[j], other.sizes[j]);
+                for (int w = 0; w < BITMAP_WORDS; w++) {
+                    words[w] &= ~theirs[w];
+                }
+                result.appendChunk(keys[i], words, -1);
+            } else {
+                result.appendChunk(keys[i], copyChunk(chunks[i], sizes[i]), sizes[i]);
+            }
+        }
+        return result;
+    }
+
+    private int nextInChunk(int pos, int low) {
+        Object chunk = chunks[pos];
+        if (chunk instanceof long[]) {
+            long[] words = (long[]) chunk;
+            int w = low >>> 6;
+            if (w >= BITMAP_WORDS) {
+                return -1;
+            }
+            long word = words[w] & (-1L << low);
+            while (true) {
+                if (word != 0) {
+                    return (w << 6) + Long.numberOfTrailingZeros(word);
+                }
+                if (++w == BITMAP_WORDS) {
+                    return -1;
+                }
+                word = words[w];
+            }
+        }
+        char[] values = (char[]) chunk;
+        int at = Arrays.binarySearch(values, 0, sizes[pos], (char) low);
+        if (at < 0) {
+            at = -at - 1;
+        }
+        return at < sizes[pos] ? values[at] : -1;
+    }
+
+    private static Object andChunks(Object a, int aSize, Object b, int bSize) {
+        if (a instanceof char[] || b instanceof char[]) {
+            // Probe the smaller array chunk against the other chunk
+            char[] values;
+            int size;
+            Object probe;
+            if (a instanceof char[] && (!(b instanceof char[]) || aSize <= bSize)) {
+                values = (char[]) a;
+                size = aSize;
+                probe = b;
+            } else {
+                values = (char[]) b;
+                size = bSize;
+                probe = a;
+            }
+            char[] out = new char[size];
+            int n = 0;
+            for (int k = 0; k < size; k++) {
+                if (chunkContains(probe, probe == a ? aSize : bSize, values[k])) {
+                    out[n++] = values[k];
+                }
+            }
+            return Arrays.copyOf(out, n);
+        }
+        long[] words = ((long[]) a).clone();
+        long[] theirs = (long[]) b;
+        for (int w = 0; w < BITMAP_WORDS; w++) {
+            words[w] &= theirs[w];
+        }
+        return words;
+    }
+
+    private static boolean chunkContains(Object chunk, int size, char low) {
+        if (chunk instanceof long[]) {
+            return (((long[]) chunk)[low >>> 6] & (1L << low)) != 0;
+        }
+        return Arrays.binarySearch((char[]) chunk, 0, size, low) >= 0;
+    }
+
+    private static Object copyChunk(Object chunk, int size) {
+        if (chunk instanceof long[]) {
+            return ((long[]) chunk).clone();
+        }
+        return Arrays.copyOf((char[]) chunk, size);
+    }
+
+    private static long[] wordsOf(Object chunk, int size) {
+        if (chunk instanceof long[]) {
+            return ((long[]) chunk).clone();
+        }
+        return toWords((char[]) chunk, size);
+    }
+
+    private static long[] toWords(char[] values, int size) {
+        long[] words = new long[BITMAP_WORDS];
+        for (int k = 0; k < size; k++) {
+            words[values[k] >>> 6] |= 1L << values[k];
+        }
+        return words;
+    }
+
+    // Appends a chunk after all existing chunks, choosing its representation by cardinality.
+    // A size of -1 means the size has to be counted.
+    private void appendChunk(char high, Object chunk, int size) {
+        if (chunk instanceof long[]) {
+            long[] words = (long[]) chunk;
+            if (size < 0) {
+                size = 0;
+                for (long word : words) {
+                    size += Long.bitCount(word);
+                }
+            }
+            if (size <= MAX_ARRAY_SIZE) {
+                char[] values = new char[size];
+                int n = 0;
+                for (int w = 0; w < BITMAP_WORDS; w++) {
+                    long word = words[w];
+                    while (word != 0) {
+                        values[n++] = (char) ((w << 6) + Long.numberOfTrailingZeros(word));
+                        word &= word - 1;
+                    }
+                }
+                chunk = values;
+            }
+        } else if (size < 0) {
+            size = ((char[]) chunk).length;
+        }
+        if (size == 0) {
+            return;
+        }
+        insertChunk(chunkCount, high, chunk, size);
+    }
+
+    private void insertChunk(int pos, char high, Object chunk, int size) {
+        if (chunkCount == keys.length) {
+            keys = Arrays.copyOf(keys, chunkCount * 2);
+            chunks = Arrays.copyOf(chunks, chunkCount * 2);
+            sizes = Arrays.copyOf(sizes, chunkCount * 2);
+        }
+        System.arraycopy(keys, pos, keys, pos + 1, chunkCount - pos);
+        System.arraycopy(chunks, pos, chunks, pos + 1, chunkCount - pos);
+        System.arraycopy(sizes, pos, sizes, pos + 1, chunkCount - pos);
+        keys[pos] = high;
+        chunks[pos] = chunk;
+        sizes[pos] = size;
+        chunkCount++;
+    }
+
+    private int findChunk(char high) {
+        return Arrays.binarySearch(keys, 0, chunkCount, high);
+    }
+}
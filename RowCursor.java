@@ -0,0 +1,176 @@
+/*
+ * Lazily walks the rows of one TableSnapshot that match a select, following the plan chosen
+ * by DbTable. Matches are found one at a time as the caller asks for them, so a caller that
+ * stops early (or sets a limit) never pays for the rest of the result. A caller that stops
+ * before the rows run out should close the cursor, so that the select is still recorded in
+ * the table's metrics.
+ */
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.function.IntPredicate;
+
+public class RowCursor implements Iterator<DataObject>, AutoCloseable {
+
+    private final DbTable table;
+    private final TableSnapshot s;
+    private final IntPredicate[] tests;
+    private final int[] residual;
+
+    // Walk of the driving index's buckets, in key order
+    private Iterator<IntList> buckets;
+    private IntList bucket;
+    private int pos;
+
+    // Candidates from ANDed index bitmaps
+    private RowBitmap candidates;
+
+    // Next row id to look at for a bitmap walk or a full scan
+    private int nextRow;
+
+    // Row id found by hasNext but not yet returned, or -1
+    private int pending;
+    private int remaining;
+
+    // Work done so far, reported to the table's metrics once the cursor is finished
+    private final TableMetrics.PlanType planType;
+    private final DbTable.CompareType leading;
+    private final long started;
+    private long examined;
+    private long returned;
+    private boolean finished;
+
+    RowCursor(DbTable table, TableSnapshot s, QueryPlan plan, IntPredicate[] tests, int limit) {
+        this.table = table;
+        this.s = s;
+        this.tests = tests;
+        this.residual = plan.residual();
+        this.remaining = limit;
+        this.pending = -1;
+        this.nextRow = 0;
+
+        int[] indexed = plan.indexed();
+        DbTable.CompareType[] ctype = plan.compareTypes();
+        this.started = table.metrics().isEnabled() ? System.nanoTime() : 0;
+        this.leading = indexed.length > 0 ? ctype[indexed[0]] : ctype.length > 0 ? ctype[0] : null;
+        if (indexed.length == 1 && ctype[indexed[0]] != DbTable.CompareType.NotEqual) {
+            int d = indexed[0];
+            this.buckets = s.indexes.get(plan.columns()[d]).buckets(ctype[d], plan.values()[d], false).iterator();
+            this.planType = TableMetrics.PlanType.INDEX;
+        } else if (indexed.length > 0) {
+            this.candidates = table.indexBitmap(s, plan);
+            this.planType = TableMetrics.PlanType.INDEX_INTERSECTION;
+        } else {
+            this.planType = TableMetrics.PlanType.SCAN;
+        }
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (pending >= 0) {
+            return true;
+        }
+        if (remaining <= 0) {
+            finish();
+            return false;
+        }
+        pending = advance();
+        if (pending < 0) {
+            finish();
+            return false;
+        }
+        return true;
+    }
+
+    @Override
+    public DataObject next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        int rowId = pending;
+        pending = -1;
+        remaining--;
+        returned++;
+        if (remaining == 0) {
+            finish();
+        }
+        return new DataObject(table, s.store, rowId);
+    }
+
+    /**
+     * Returns the row id of the next match without creating a view for it
+     *
+     * @return The next matching row id, or -1 if there are no more
+     */
+    public int nextRowId() {
+        if (!hasNext()) {
+            return -1;
+        }
+        int rowId = pending;
+        pending = -1;
+        remaining--;
+        returned++;
+        if (remaining == 0) {
+            finish();
+        }
+        return rowId;
+    }
+
+    /**
+     * Records the select in the table's metrics with the work done so far, unless that has
+     * already happened because the rows ran out or the limit was reached. The cursor can
+     * still be advanced afterwards, but what it does then is not recorded.
+     */
+    @Override
+    public void close() {
+        finish();
+    }
+
+    // Reports the cursor's work once, when it has no more rows to give or is closed
+    private void finish() {
+        if (!finished && started != 0) {
+            table.metrics().recordSelect(planType, leading, System.nanoTime() - started, examined, returned);
+        }
+        finished = true;
+    }
+
+    // Finds the next matching row id, or -1
+    private int advance() {
+        if (buckets != null) {
+            while (true) {
+                while (bucket == null || pos >= bucket.size()) {
+                    if (!buckets.hasNext()) {
+                        return -1;
+                    }
+                    bucket = buckets.next();
+                    pos = 0;
+                }
+                int rowId = bucket.get(pos++);
+                examined++;
+                if (s.isVisible(rowId) && DbTable.matches(tests, rowId, residual)) {
+                    return rowId;
+                }
+            }
+        }
+        if (candidates != null) {
+            for (int rowId = candidates.nextSetBit(nextRow); rowId >= 0; rowId = candidates.nextSetBit(rowId + 1)) {
+                examined++;
+                if (s.isVisible(rowId) && DbTable.matches(tests, rowId, residual)) {
+                    nextRow = rowId + 1;
+                    return rowId;
+                }
+            }
+            nextRow = Integer.MAX_VALUE;
+            return -1;
+        }
+        for (int rowId = s.nextVisible(nextRow); rowId >= 0; rowId = s.nextVisible(rowId + 1)) {
+            examined++;
+            if (DbTable.matches(tests, rowId, residual)) {
+                nextRow = rowId + 1;
+                return rowId;
+            }
+        }
+        nextRow = s.rowCount;
+        return -1;
+    }
+}
@@ -0,0 +1,62 @@
+/*
+ * Checks of snapshot isolation, run by Checks: selects racing with writers see exactly the
+ * rows of their snapshot.
+ */
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class SnapshotChecks {
+
+    static void run() {
+        readsDuringWrites();
+    }
+
+    // Every snapshot taken while rows are inserted and deleted sees exactly its own rows
+    private static void readsDuringWrites() {
+        final String cols[] = {"id", "n"};
+        ArrayList<DbTable.ColumnType> types = new ArrayList<DbTable.ColumnType>(
+                Arrays.asList(DbTable.ColumnType.STRING, DbTable.ColumnType.INT));
+        final DbTable table = new DbTable(new ArrayList<String>(Arrays.asList(cols)), types);
+        table.createIndex("id");
+        final AtomicBoolean done = new AtomicBoolean(false);
+        final AtomicReference<String> failure = new AtomicReference<String>();
+
+        Thread[] readers = new Thread[3];
+        for (int t = 0; t < readers.length; t++) {
+            readers[t] = new Thread(() -> {
+                String columns[] = {"n"};
+                String values[] = {"0"};
+                DbTable.CompareType ctype[] = {DbTable.CompareType.GreaterEq};
+                while (!done.get() && failure.get() == null) {
+                    TableSnapshot s = table.snapshot();
+                    int found = s.select(columns, values, ctype).size();
+                    if (found != s.size()) {
+                        failure.compareAndSet(null, "snapshot of " + s.size() + " rows selected " + found);
+                    }
+                }
+            });
+            readers[t].start();
+        }
+
+        String columns[] = {"id"};
+        DbTable.CompareType ctype[] = {DbTable.CompareType.Equal};
+        for (int i = 0; i < 50000 && failure.get() == null; i++) {
+            table.insert(new DataObject(cols, new String[]{"k" + i, String.valueOf(i)}));
+            if (i % 3 == 0) {
+                table.deleteWhere(columns, new String[]{"k" + (i / 2)}, ctype);
+            }
+        }
+        done.set(true);
+        for (Thread reader : readers) {
+            try {
+                reader.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        Checks.check("reads during writes", "no lost rows", failure.get() == null ? "no lost rows" : failure.get());
+    }
+}
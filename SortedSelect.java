@@ -0,0 +1,206 @@
+/*
+ * A select whose rows come back sorted by one column, stopping after a limit.
+ * <p/>
+ * With an ORDERED index on the sort column, the index is walked in key order (through its
+ * descending view for DESC), narrowed to the range of a predicate on that column if there is
+ * one, and the walk stops as soon as limit rows have matched. Otherwise the matching rows are
+ * found as select would find them and the best limit of them are kept in a bounded heap, so
+ * the memory held is proportional to limit whatever the number of matches.
+ * <p/>
+ * Rows with equal values are returned in row id order for ASC and in reverse row id order for
+ * DESC, so DESC is always the exact reverse of ASC.
+ */
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.function.IntPredicate;
+
+final class SortedSelect {
+
+    private final DbTable table;
+    private final TableSnapshot s;
+    private final int[] slots;
+    private final String[] columns;
+    private final String[] values;
+    private final DbTable.CompareType[] ctype;
+
+    SortedSelect(DbTable table, TableSnapshot s, int[] slots, String[] columns, String[] values,
+                 DbTable.CompareType[] ctype) {
+        this.table = table;
+        this.s = s;
+        this.slots = slots;
+        this.columns = columns;
+        this.values = values;
+        this.ctype = ctype;
+    }
+
+    /**
+     * @param orderBy Column to sort by
+     * @param slot    Slot of orderBy
+     * @param order   Direction to sort in
+     * @param limit   Largest number of rows to return
+     * @return The first limit matching rows in order
+     */
+    ArrayList<DataObject> run(String orderBy, int slot, DbTable.SortOrder order, int limit) {
+        if (limit == 0) {
+            return new ArrayList<DataObject>();
+        }
+        QueryPlan plan = table.plan(s, DbTable.usableIndexes(s, columns, ctype), columns, values, ctype);
+        Index index = s.indexes.get(orderBy);
+        // Walking the sort column's index is only worse than the plan when the plan drives
+        // from a selective index on another column
+        if (index != null && index.isOrdered()
+                && (!plan.usesIndex() || columns[plan.driver()].equals(orderBy))) {
+            return walkIndex(index, orderBy, order, limit);
+        }
+        return topRows(plan, slot, order, limit);
+    }
+
+    // Walks the buckets of the sort column's index in order, checking every predicate on each row
+    private ArrayList<DataObject> walkIndex(Index index, String orderBy, DbTable.SortOrder order, int limit) {
+        TableMetrics metrics = table.metrics();
+        long started = metrics.isEnabled() ? System.nanoTime() : 0;
+        IntPredicate[] tests = DbTable.tests(s, slots, values, ctype);
+        int[] all = new int[columns.length];
+        boolean descending = order == DbTable.SortOrder.DESC;
+        Iterable<IntList> range = null;
+        DbTable.CompareType leading = null;
+        for (int i = 0; i < columns.length; i++) {
+            all[i] = i;
+            if (leading == null && columns[i].equals(orderBy) && ctype[i] != DbTable.CompareType.NotEqual
+                    && values[i] != null) {
+                leading = ctype[i];
+                range = index.buckets(ctype[i], values[i], descending);
+            }
+        }
+        if (range == null) {
+            range = index.buckets(descending);
+        }
+
+        ArrayList<DataObject> selectedObjects = new ArrayList<DataObject>();
+        long examined = 0;
+        walk:
+        for (IntList bucket : range) {
+            // Rows appended while walking would shift a DESC walk, so it covers only the
+            // rows the bucket held when it was reached
+            int size = bucket.size();
+            for (int j = 0; j < size; j++) {
+                int rowId = bucket.get(descending ? size - 1 - j : j);
+                if (rowId >= s.rowCount) {
+                    continue;
+                }
+                examined++;
+                if (s.isVisible(rowId) && DbTable.matches(tests, rowId, all)) {
+                    selectedObjects.add(new DataObject(table, s.store, rowId));
+                    if (selectedObjects.size() == limit) {
+                        break walk;
+                    }
+                }
+            }
+        }
+        if (started != 0) {
+            metrics.recordSelect(TableMetrics.PlanType.INDEX, leading, System.nanoTime() - started,
+                    examined, selectedObjects.size());
+        }
+        return selectedObjects;
+    }
+
+    // Keeps the best limit matching rows in a heap whose top is the worst of them
+    private ArrayList<DataObject> topRows(QueryPlan plan, int slot, DbTable.SortOrder order, int limit) {
+        RowHeap best = new RowHeap(s.store.column(slot), order == DbTable.SortOrder.DESC, limit);
+        RowCursor cursor = new RowCursor(table, s, plan, DbTable.tests(s, slots, values, ctype), Integer.MAX_VALUE);
+        for (int rowId = cursor.nextRowId(); rowId >= 0; rowId = cursor.nextRowId()) {
+            best.offer(rowId);
+        }
+
+        int[] rows = best.drain();
+        ArrayList<DataObject> selectedObjects = new ArrayList<DataObject>(rows.length);
+        for (int rowId : rows) {
+            selectedObjects.add(new DataObject(table, s.store, rowId));
+        }
+        return selectedObjects;
+    }
+
+    // Binary heap of at most limit row ids, with the row that sorts last on top
+    private static final class RowHeap {
+        private final Column column;
+        private final boolean descending;
+        private final int limit;
+        private int[] heap;
+        private int size;
+
+        RowHeap(Column column, boolean descending, int limit) {
+            this.column = column;
+            this.descending = descending;
+            this.limit = limit;
+            this.heap = new int[Math.min(limit, 1024)];
+        }
+
+        // Adds a row if it sorts before the last of the rows kept so far
+        void offer(int rowId) {
+            if (size < limit) {
+                if (size == heap.length) {
+                    heap = Arrays.copyOf(heap, (int) Math.min((long) size * 2, limit));
+                }
+                heap[size] = rowId;
+                siftUp(size++);
+            } else if (before(rowId, heap[0])) {
+                heap[0] = rowId;
+                siftDown(0, size);
+            }
+        }
+
+        // Returns the kept rows in sorted order, emptying the heap
+        int[] drain() {
+            int[] rows = new int[size];
+            for (int n = size; n > 0; n--) {
+                rows[n - 1] = heap[0];
+                heap[0] = heap[n - 1];
+                siftDown(0, n - 1);
+            }
+            size = 0;
+            return rows;
+        }
+
+        // true if row a comes before row b in the wanted order; ties go by row id
+        private boolean before(int a, int b) {
+            int c = column.compareRows(a, b);
+            if (c == 0) {
+                c = Integer.compare(a, b);
+            }
+            return descending ? c > 0 : c < 0;
+        }
+
+        private void siftUp(int i) {
+            int rowId = heap[i];
+            while (i > 0) {
+                int parent = (i - 1) >>> 1;
+                if (!before(heap[parent], rowId)) {
+                    break;
+                }
+                heap[i] = heap[parent];
+                i = parent;
+            }
+            heap[i] = rowId;
+        }
+
+        private void siftDown(int i, int n) {
+            int rowId = heap[i];
+            while (true) {
+                int child = 2 * i + 1;
+                if (child >= n) {
+                    break;
+                }
+                if (child + 1 < n && before(heap[child], heap[child + 1])) {
+                    child++;
+                }
+                if (!before(rowId, heap[child])) {
+                    break;
+                }
+                heap[i] = heap[child];
+                i = child;
+            }
+            heap[i] = rowId;
+        }
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ * Column of String values. Low-cardinality columns are dictionary-encoded: each row
+ * stores an int code into a shared array of distinct values. Once the number of distinct
+ * values grows past MAX_DICTIONARY_SIZE the column is decoded into a plain String array.
+ * <p/>
+ * Rows are only ever appended, by one writer at a time. Readers may run concurrently with
+ * the writer as long as they only read rows that were appended before they started. Arrays
+ * are grown by copying, and a grown array is filled in before it is published through a
+ * volatile field, so a reader sees either the old array or a complete copy.
+ */
+
+import java.util.Arrays;
+import java.util.HashMap;
+
+public class StringColumn extends Column {
+
+    // Past this many distinct values a dictionary no longer saves memory
+    public static final int MAX_DICTIONARY_SIZE = 1 << 16;
+
+    private static final class Dictionary {
+        // Replaced by a larger copy when full. Volatile so a reader that sees the new array
+        // also sees everything copied into it.
+        volatile int[] codes = new int[16];
+        volatile String[] values = new String[16];
+        int distinct;
+        // Only used by the writer
+        HashMap<String, Integer> codeOf = new HashMap<String, Integer>();
+    }
+
+    // Either a Dictionary or, once decoded, a String[] holding one value per row.
+    // Switching representation publishes a complete new object, so a reader never sees a half-built one.
+    private volatile Object storage;
+
+    private int size;
+
+    public StringColumn() {
+        this.storage = new Dictionary();
+        this.size = 0;
+    }
+
+    @Override
+    public String get(int row) {
+        Object s = storage;
+        if (s instanceof String[]) {
+            return ((String[]) s)[row];
+        }
+        Dictionary d = (Dictionary) s;
+        int code = d.codes[row];
+        return d.values[code];
+    }
+
+    @Override
+    public void append(String value) {
+        Object s = storage;
+        if (s instanceof String[]) {
+            String[] values = (String[]) s;
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+                values[size++] = value;
+                storage = values;
+            } else {
+                values[size++] = value;
+            }
+            return;
+        }
+        Dictionary d = (Dictionary) s;
+        Integer code = d.codeOf.get(value);
+        if (code == null) {
+            if (d.distinct >= MAX_DICTIONARY_SIZE) {
+                decode(d);
+                append(value);
+                return;
+            }
+            code = d.distinct;
+            String[] values = d.values;
+            if (code == values.length) {
+                values = Arrays.copyOf(values, code * 2);
+                values[code] = value;
+                d.values = values;
+            } else {
+                values[code] = value;
+            }
+            d.distinct++;
+            d.codeOf.put(value, code);
+        }
+        int[] codes = d.codes;
+        if (size == codes.length) {
+            codes = Arrays.copyOf(codes, size * 2);
+            codes[size] = code;
+            d.codes = codes;
+        } else {
+            codes[size] = code;
+        }
+        size++;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return true while values are stored as dictionary codes
+     */
+    public boolean isDictionaryEncoded() {
+        return storage instanceof Dictionary;
+    }
+
+    // Switch from dictionary codes to one String reference per row
+    private void decode(Dictionary d) {
+        int[] codes = d.codes;
+        String[] distinct = d.values;
+        String[] values = new String[Math.max(16, codes.length)];
+        for (int i = 0; i < size; i++) {
+            values[i] = distinct[codes[i]];
+        }
+        storage = values;
+    }
+}
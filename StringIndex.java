@@ -0,0 +1,386 @@
+/*
+ * Index on a STRING column, keyed by the column's values: a ConcurrentHashMap for equality
+ * probes and a ConcurrentSkipListMap for ranges, sharing their buckets.
+ */
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.Consumer;
+
+final class StringIndex extends Index {
+
+    // Approximate heap bytes per key, for estimatedBytes
+    private static final int HASH_ENTRY_BYTES = 40;
+    private static final int ORDERED_ENTRY_BYTES = 40;
+    private static final int KEY_BYTES = 56;
+    private static final int BUCKET_BYTES = 40;
+
+    private final ConcurrentHashMap<String, IntList> hash;
+    private final ConcurrentSkipListMap<String, IntList> ordered;
+
+    StringIndex(Column column, DbTable.IndexKind kind, Consumer<Index> loader) {
+        this(column, kind, kind != DbTable.IndexKind.ORDERED ? new ConcurrentHashMap<String, IntList>() : null,
+                kind != DbTable.IndexKind.HASH ? new ConcurrentSkipListMap<String, IntList>() : null, loader);
+    }
+
+    private StringIndex(Column column, DbTable.IndexKind kind, ConcurrentHashMap<String, IntList> hash,
+                        ConcurrentSkipListMap<String, IntList> ordered, Consumer<Index> loader) {
+        super(column, kind, loader);
+        this.hash = hash;
+        this.ordered = ordered;
+    }
+
+    static StringIndex build(Column column, DbTable.IndexKind kind, IntList rows) {
+        HashMap<String, IntList> groups = new HashMap<String, IntList>();
+        for (int i = 0; i < rows.size(); i++) {
+            int rowId = rows.get(i);
+            String key = column.get(rowId);
+            IntList bucket = groups.get(key);
+            if (bucket == null) {
+                bucket = new IntList();
+                groups.put(key, bucket);
+            }
+            bucket.add(rowId);
+        }
+        if (kind == DbTable.IndexKind.HASH) {
+            StringIndex index = new StringIndex(column, kind, new ConcurrentHashMap<String, IntList>(groups), null, null);
+            index.entryCount = rows.size();
+            index.refreshStats();
+            return index;
+        }
+        String[] keys = groups.keySet().toArray(new String[0]);
+        Arrays.parallelSort(keys);
+        IntList[] buckets = new IntList[keys.length];
+        for (int i = 0; i < keys.length; i++) {
+            buckets[i] = groups.get(keys[i]);
+        }
+        return fromSorted(column, kind, keys, buckets);
+    }
+
+    // Builds an index from distinct keys that are already in ascending order. The sorted map
+    // is assembled in one linear pass instead of one insertion per key.
+    private static StringIndex fromSorted(Column column, DbTable.IndexKind kind, String[] keys, IntList[] buckets) {
+        SortedRun run = new SortedRun(keys, buckets);
+        ConcurrentHashMap<String, IntList> hash = null;
+        if (kind != DbTable.IndexKind.ORDERED) {
+            hash = new ConcurrentHashMap<String, IntList>(Math.max(16, keys.length * 4 / 3 + 1));
+            hash.putAll(run);
+        }
+        ConcurrentSkipListMap<String, IntList> ordered =
+                kind != DbTable.IndexKind.HASH ? new ConcurrentSkipListMap<String, IntList>(run) : null;
+        StringIndex index = new StringIndex(column, kind, hash, ordered, null);
+        for (IntList bucket : buckets) {
+            index.entryCount += bucket.size();
+        }
+        index.refreshStats();
+        return index;
+    }
+
+    @Override
+    Index widened(DbTable.IndexKind wanted) {
+        ensureLoaded();
+        DbTable.IndexKind kind = widen(kind(), wanted);
+        Map<String, IntList> source = hash != null ? hash : ordered;
+        StringIndex copy = new StringIndex(column, kind,
+                kind != DbTable.IndexKind.ORDERED ? new ConcurrentHashMap<String, IntList>(source) : null,
+                kind != DbTable.IndexKind.HASH ? new ConcurrentSkipListMap<String, IntList>(source) : null, null);
+        copy.entryCount = entryCount;
+        copy.refreshStats();
+        return copy;
+    }
+
+    @Override
+    public void add(int rowId) {
+        ensureLoaded();
+        String key = column.get(rowId);
+        IntList bucket = lookup(key);
+        if (bucket == null) {
+            bucket = new IntList();
+            bucket.add(rowId);
+            putBucket(key, bucket);
+            changed(1);
+            return;
+        }
+        bucket.add(rowId);
+        entryCount++;
+        changed(1);
+    }
+
+    @Override
+    Index addRows(int from, int to) {
+        ensureLoaded();
+        if (to - from == 1) {
+            add(from);
+            return this;
+        }
+        HashMap<String, IntList> groups = new HashMap<String, IntList>();
+        for (int rowId = from; rowId < to; rowId++) {
+            String key = column.get(rowId);
+            IntList group = groups.get(key);
+            if (group == null) {
+                group = new IntList();
+                groups.put(key, group);
+            }
+            group.add(rowId);
+        }
+        long added = to - from;
+
+        if (ordered == null || groups.size() * 4 < ordered.size()) {
+            for (Map.Entry<String, IntList> group : groups.entrySet()) {
+                IntList bucket = lookup(group.getKey());
+                if (bucket != null) {
+                    bucket.addAll(group.getValue());
+                } else {
+                    if (hash != null) {
+                        hash.put(group.getKey(), group.getValue());
+                    }
+                    if (ordered != null) {
+                        ordered.put(group.getKey(), group.getValue());
+                    }
+                }
+            }
+            entryCount += added;
+            changed(added);
+            return this;
+        }
+
+        // Walk the existing keys and the sorted batch keys side by side
+        String[] batch = groups.keySet().toArray(new String[0]);
+        Arrays.parallelSort(batch);
+        ArrayList<String> keys = new ArrayList<String>(ordered.size() + batch.length);
+        ArrayList<IntList> buckets = new ArrayList<IntList>(ordered.size() + batch.length);
+        Iterator<Map.Entry<String, IntList>> old = ordered.entrySet().iterator();
+        Map.Entry<String, IntList> next = old.hasNext() ? old.next() : null;
+        int b = 0;
+        while (next != null || b < batch.length) {
+            int order = next == null ? 1 : b == batch.length ? -1 : next.getKey().compareTo(batch[b]);
+            if (order <= 0) {
+                if (order == 0) {
+                    next.getValue().addAll(groups.get(batch[b++]));
+                }
+                keys.add(next.getKey());
+                buckets.add(next.getValue());
+                next = old.hasNext() ? old.next() : null;
+            } else {
+                keys.add(batch[b]);
+                buckets.add(groups.get(batch[b++]));
+            }
+        }
+        return fromSorted(column, kind(), keys.toArray(new String[0]), buckets.toArray(new IntList[0]));
+    }
+
+    @Override
+    public IntList get(String value) {
+        ensureLoaded();
+        return value == null ? null : lookup(value);
+    }
+
+    @Override
+    IntList get(Column other, int row) {
+        return get(other.get(row));
+    }
+
+    @Override
+    Iterable<IntList> range(DbTable.CompareType ctype, String value, boolean descending) {
+        ensureLoaded();
+        NavigableMap<String, IntList> range;
+        switch (ctype) {
+            case LessThan: range = ordered.headMap(value, false); break;
+            case LessEq: range = ordered.headMap(value, true); break;
+            case GreaterThan: range = ordered.tailMap(value, false); break;
+            default: range = ordered.tailMap(value, true); break;
+        }
+        return (descending ? range.descendingMap() : range).values();
+    }
+
+    @Override
+    Iterable<IntList> ordered(boolean descending) {
+        ensureLoaded();
+        return (descending ? ordered.descendingMap() : ordered).values();
+    }
+
+    @Override
+    public Iterable<IntList> allBuckets() {
+        ensureLoaded();
+        return (hash != null ? hash : ordered).values();
+    }
+
+    /**
+     * @return Every bucket by key, in key order; a HASH index is copied into a sorted map
+     */
+    NavigableMap<String, IntList> sorted() {
+        ensureLoaded();
+        return ordered != null ? ordered : new TreeMap<String, IntList>(hash);
+    }
+
+    @Override
+    public int size() {
+        ensureLoaded();
+        return hash != null ? hash.size() : ordered.size();
+    }
+
+    @Override
+    long bytesPerKey() {
+        return KEY_BYTES + BUCKET_BYTES + (hash != null ? HASH_ENTRY_BYTES : 0) + (ordered != null ? ORDERED_ENTRY_BYTES : 0);
+    }
+
+    @Override
+    KeyHistogram histogram() {
+        return ordered != null ? new KeyHistogram(ordered, entryCount) : null;
+    }
+
+    @Override
+    long rowsBelow(KeyHistogram h, String value) {
+        return h.rowsBelow(value);
+    }
+
+    /**
+     * Puts a whole bucket in place while the index is being loaded
+     */
+    void putBucket(String key, IntList bucket) {
+        if (hash != null) {
+            hash.put(key, bucket);
+        }
+        if (ordered != null) {
+            ordered.put(key, bucket);
+        }
+        entryCount += bucket.size();
+    }
+
+    private IntList lookup(String key) {
+        return hash != null ? hash.get(key) : ordered.get(key);
+    }
+
+    // Read-only sorted map over a range of parallel arrays of sorted keys and buckets, which
+    // ConcurrentSkipListMap and ConcurrentHashMap copy themselves from. Lookups and views
+    // binary search the keys; the maps never change, so put and remove are not supported.
+    private static class SortedRun extends AbstractMap<String, IntList> implements SortedMap<String, IntList> {
+        private final String[] keys;
+        private final IntList[] buckets;
+        private final int from;
+        private final int to;
+
+        SortedRun(String[] keys, IntList[] buckets) {
+            this(keys, buckets, 0, keys.length);
+        }
+
+        private SortedRun(String[] keys, IntList[] buckets, int from, int to) {
+            this.keys = keys;
+            this.buckets = buckets;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        public Set<Map.Entry<String, IntList>> entrySet() {
+            return new AbstractSet<Map.Entry<String, IntList>>() {
+                @Override
+                public Iterator<Map.Entry<String, IntList>> iterator() {
+                    return new Iterator<Map.Entry<String, IntList>>() {
+                        private int i = from;
+
+                        @Override
+                        public boolean hasNext() {
+                            return i < to;
+                        }
+
+                        @Override
+                        public Map.Entry<String, IntList> next() {
+                            if (i >= to) {
+                                throw new NoSuchElementException();
+                            }
+                            Map.Entry<String, IntList> entry = new SimpleImmutableEntry<String, IntList>(keys[i], buckets[i]);
+                            i++;
+                            return entry;
+                        }
+                    };
+                }
+
+                @Override
+                public int size() {
+                    return to - from;
+                }
+            };
+        }
+
+        @Override
+        public int size() {
+            return to - from;
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return key instanceof String && find((String) key) >= 0;
+        }
+
+        @Override
+        public IntList get(Object key) {
+            int pos = key instanceof String ? find((String) key) : -1;
+            return pos >= 0 ? buckets[pos] : null;
+        }
+
+        @Override
+        public Comparator<? super String> comparator() {
+            return null;
+        }
+
+        @Override
+        public SortedMap<String, IntList> subMap(String fromKey, String toKey) {
+            if (fromKey.compareTo(toKey) > 0) {
+                throw new IllegalArgumentException("fromKey > toKey");
+            }
+            return new SortedRun(keys, buckets, lowerBound(fromKey), lowerBound(toKey));
+        }
+
+        @Override
+        public SortedMap<String, IntList> headMap(String toKey) {
+            return new SortedRun(keys, buckets, from, lowerBound(toKey));
+        }
+
+        @Override
+        public SortedMap<String, IntList> tailMap(String fromKey) {
+            return new SortedRun(keys, buckets, lowerBound(fromKey), to);
+        }
+
+        @Override
+        public String firstKey() {
+            if (from == to) {
+                throw new NoSuchElementException();
+            }
+            return keys[from];
+        }
+
+        @Override
+        public String lastKey() {
+            if (from == to) {
+                throw new NoSuchElementException();
+            }
+            return keys[to - 1];
+        }
+
+        // Position of key in the range, or a negative number if it is not there
+        private int find(String key) {
+            int pos = Arrays.binarySearch(keys, from, to, key);
+            return pos >= 0 ? pos : -1;
+        }
+
+        // Position of the first key in the range that is not less than key
+        private int lowerBound(String key) {
+            int pos = Arrays.binarySearch(keys, from, to, key);
+            return pos >= 0 ? pos : -pos - 1;
+        }
+    }
+}
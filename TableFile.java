@@ -0,0 +1,443 @@
+/*
+ * Versioned binary file format for a DbTable.
+ * <p/>
+ * Layout (all numbers big-endian):
+ * <pre>
+ *   int magic "RTBL", int format version
+ *   for each column:  dictionary block, then code block
+ *   for each index:   index block
+ *   footer
+ *   long offset of the footer
+ * </pre>
+ * A dictionary block is an int count of distinct values, count + 1 int offsets and then the
+ * UTF-8 bytes of every value. A code block holds one int dictionary code per row (-1 for null).
+ * Columns of a numeric or TIMESTAMP type have an empty dictionary block and a code block of
+ * raw values instead: an int, long or double per row.
+ * An index block is an int key count followed, in key order, by each key, the int size of its
+ * bucket and the bucket's row ids. A key is a string, or for an index on a typed column the
+ * long key of the value (see Column.longKey). The footer holds the row count, the table's
+ * storage (see DbTable.Storage), each column's name, type and block positions, each index's
+ * column, kind and block position, and an int count and the row ids of rows that are stored
+ * but deleted.
+ * <p/>
+ * write saves only rows that are live in the snapshot, renumbered from 0. writeImage keeps
+ * every row id the snapshot has handed out, listing deleted ones in the footer, so that row
+ * ids recorded in a write-ahead log still refer to the same rows after the file is reopened.
+ * Opening a file maps each block with a MappedByteBuffer: columns read from their mapping on
+ * demand, and an index is read from its block the first time it is used.
+ */
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+public class TableFile {
+
+    public static final int MAGIC = 0x5254424C;
+    public static final int FORMAT_VERSION = 1;
+
+    private TableFile() {
+    }
+
+    /**
+     * Writes every live row and every index of a snapshot to a binary table file
+     *
+     * @param s        Snapshot to write
+     * @param fileName Name of the file. If it already exists it is overwritten.
+     * @throws IOException if the file cannot be written to
+     */
+    public static void write(TableSnapshot s, String fileName) throws IOException {
+        write(s, fileName, false);
+    }
+
+    /**
+     * Writes a snapshot to a binary table file without renumbering its rows, and forces the
+     * file to disk before returning. Used for checkpoints.
+     *
+     * @param s        Snapshot to write
+     * @param fileName Name of the file. If it already exists it is overwritten.
+     * @throws IOException if the file cannot be written to
+     */
+    static void writeImage(TableSnapshot s, String fileName) throws IOException {
+        write(s, fileName, true);
+    }
+
+    private static void write(TableSnapshot s, String fileName, boolean keepRowIds) throws IOException {
+        ColumnStore store = s.store;
+        ArrayList<String> columnNames = store.columnNames();
+
+        // Renumber the live rows from 0, or keep every row id and remember the deleted ones
+        int[] newId = new int[s.rowCount];
+        IntList deleted = new IntList();
+        int rows = 0;
+        for (int rowId = 0; rowId < s.rowCount; rowId++) {
+            if (keepRowIds) {
+                newId[rowId] = rows++;
+                if (!s.isVisible(rowId)) {
+                    deleted.add(rowId);
+                }
+            } else {
+                newId[rowId] = s.isVisible(rowId) ? rows++ : -1;
+            }
+        }
+
+        RandomAccessFile file = new RandomAccessFile(fileName, "rw");
+        try {
+            file.setLength(0);
+            BlockWriter out = new BlockWriter(file.getChannel());
+            out.putInt(MAGIC);
+            out.putInt(FORMAT_VERSION);
+
+            long[] dictionaryAt = new long[columnNames.size()];
+            long[] codesAt = new long[columnNames.size()];
+            for (int slot = 0; slot < columnNames.size(); slot++) {
+                Column column = store.column(slot);
+                if (column.type() != DbTable.ColumnType.STRING) {
+                    dictionaryAt[slot] = out.position();
+                    codesAt[slot] = out.position();
+                    writeValues(out, s, column, newId);
+                    continue;
+                }
+                HashMap<String, Integer> codeOf = new HashMap<String, Integer>();
+                ArrayList<String> distinct = new ArrayList<String>();
+                int[] codes = new int[rows];
+                for (int rowId = 0; rowId < s.rowCount; rowId++) {
+                    if (newId[rowId] < 0) {
+                        continue;
+                    }
+                    String value = column.get(rowId);
+                    int code = MappedColumn.NULL_CODE;
+                    if (value != null) {
+                        Integer known = codeOf.get(value);
+                        if (known == null) {
+                            known = distinct.size();
+                            distinct.add(value);
+                            codeOf.put(value, known);
+                        }
+                        code = known;
+                    }
+                    codes[newId[rowId]] = code;
+                }
+
+                dictionaryAt[slot] = out.position();
+                byte[][] bytes = new byte[distinct.size()][];
+                out.putInt(bytes.length);
+                int offset = 0;
+                for (int i = 0; i < bytes.length; i++) {
+                    bytes[i] = distinct.get(i).getBytes(StandardCharsets.UTF_8);
+                    out.putInt(offset);
+                    offset += bytes[i].length;
+                }
+                out.putInt(offset);
+                for (byte[] value : bytes) {
+                    out.putBytes(value);
+                }
+
+                codesAt[slot] = out.position();
+                for (int code : codes) {
+                    out.putInt(code);
+                }
+            }
+
+            ArrayList<String> indexColumns = new ArrayList<String>(s.indexes.keySet());
+            long[] indexAt = new long[indexColumns.size()];
+            for (int i = 0; i < indexColumns.size(); i++) {
+                indexAt[i] = out.position();
+                writeIndex(out, s, s.indexes.get(indexColumns.get(i)), newId);
+            }
+
+            long footerAt = out.position();
+            out.putInt(rows);
+            out.putInt(store.storage().ordinal());
+            out.putInt(columnNames.size());
+            for (int slot = 0; slot < columnNames.size(); slot++) {
+                out.putString(columnNames.get(slot));
+                out.putInt(store.column(slot).type().ordinal());
+                out.putLong(dictionaryAt[slot]);
+                out.putLong(codesAt[slot]);
+            }
+            out.putInt(indexColumns.size());
+            for (int i = 0; i < indexColumns.size(); i++) {
+                out.putString(indexColumns.get(i));
+                out.putInt(s.indexes.get(indexColumns.get(i)).kind().ordinal());
+                out.putLong(indexAt[i]);
+            }
+            out.putInt(deleted.size());
+            for (int i = 0; i < deleted.size(); i++) {
+                out.putInt(deleted.get(i));
+            }
+            out.putLong(footerAt);
+            out.flush();
+            if (keepRowIds) {
+                file.getChannel().force(true);
+            }
+        } finally {
+            file.close();
+        }
+    }
+
+    // Writes the raw value of every saved row of a typed column, in new row id order
+    private static void writeValues(BlockWriter out, TableSnapshot s, Column column, int[] newId) throws IOException {
+        for (int rowId = 0; rowId < s.rowCount; rowId++) {
+            if (newId[rowId] < 0) {
+                continue;
+            }
+            if (column instanceof IntColumn) {
+                out.putInt(((IntColumn) column).getInt(rowId));
+            } else if (column instanceof LongColumn) {
+                out.putLong(((LongColumn) column).getLong(rowId));
+            } else {
+                out.putLong(Double.doubleToRawLongBits(((DoubleColumn) column).getDouble(rowId)));
+            }
+        }
+    }
+
+    // Writes the visible row ids of each bucket, in key order, renumbered through newId
+    private static void writeIndex(BlockWriter out, TableSnapshot s, Index index, int[] newId) throws IOException {
+        ArrayList<IntList> visible = new ArrayList<IntList>();
+        if (index instanceof LongIndex) {
+            long[] keys = new long[index.size()];
+            int n = 0;
+            LongKeyTree.Cursor buckets = ((LongIndex) index).sorted();
+            while (buckets.hasNext()) {
+                IntList rows = visibleRows(s, buckets.next(), newId);
+                if (!rows.isEmpty()) {
+                    keys[n++] = buckets.key();
+                    visible.add(rows);
+                }
+            }
+            out.putInt(n);
+            for (int k = 0; k < n; k++) {
+                out.putLong(keys[k]);
+                putRows(out, visible.get(k));
+            }
+            return;
+        }
+        ArrayList<String> keys = new ArrayList<String>();
+        for (Map.Entry<String, IntList> entry : ((StringIndex) index).sorted().entrySet()) {
+            IntList rows = visibleRows(s, entry.getValue(), newId);
+            if (!rows.isEmpty()) {
+                keys.add(entry.getKey());
+                visible.add(rows);
+            }
+        }
+        out.putInt(keys.size());
+        for (int k = 0; k < keys.size(); k++) {
+            out.putString(keys.get(k));
+            putRows(out, visible.get(k));
+        }
+    }
+
+    // Row ids of a bucket that are visible in s, renumbered through newId
+    private static IntList visibleRows(TableSnapshot s, IntList bucket, int[] newId) {
+        IntList rows = new IntList(bucket.size());
+        for (int j = 0; j < bucket.size(); j++) {
+            int rowId = bucket.get(j);
+            if (rowId < s.rowCount && s.isVisible(rowId)) {
+                rows.add(newId[rowId]);
+            }
+        }
+        return rows;
+    }
+
+    private static void putRows(BlockWriter out, IntList rows) throws IOException {
+        out.putInt(rows.size());
+        for (int j = 0; j < rows.size(); j++) {
+            out.putInt(rows.get(j));
+        }
+    }
+
+    /**
+     * Opens a binary table file. Column data stays in the file and is paged in as queries read
+     * it; each saved index is loaded from the file when it is first used.
+     *
+     * @param fileName Name of the file to open
+     * @return DbTable instance
+     * @throws IOException if the file cannot be read
+     * @throws IllegalArgumentException if the file is not a binary table file of a supported version
+     */
+    public static DbTable open(String fileName) throws IOException, IllegalArgumentException {
+        RandomAccessFile file = new RandomAccessFile(fileName, "r");
+        try {
+            FileChannel channel = file.getChannel();
+            long length = channel.size();
+            if (length < 16) {
+                throw new IllegalArgumentException("Not a binary table file: " + fileName);
+            }
+            ByteBuffer head = channel.map(FileChannel.MapMode.READ_ONLY, 0, 8);
+            if (head.getInt(0) != MAGIC) {
+                throw new IllegalArgumentException("Not a binary table file: " + fileName);
+            }
+            int version = head.getInt(4);
+            if (version != FORMAT_VERSION) {
+                throw new IllegalArgumentException("Unsupported table file version " + version);
+            }
+            long footerAt = channel.map(FileChannel.MapMode.READ_ONLY, length - 8, 8).getLong(0);
+            ByteBuffer footer = channel.map(FileChannel.MapMode.READ_ONLY, footerAt, length - 8 - footerAt);
+
+            int rows = footer.getInt();
+            DbTable.Storage storage = DbTable.Storage.values()[footer.getInt()];
+            int columnCount = footer.getInt();
+            ArrayList<String> columnNames = new ArrayList<String>();
+            DbTable.ColumnType[] types = new DbTable.ColumnType[columnCount];
+            long[] dictionaryAt = new long[columnCount];
+            long[] codesAt = new long[columnCount];
+            for (int slot = 0; slot < columnCount; slot++) {
+                columnNames.add(getString(footer));
+                types[slot] = DbTable.ColumnType.values()[footer.getInt()];
+                dictionaryAt[slot] = footer.getLong();
+                codesAt[slot] = footer.getLong();
+            }
+
+            Column[] columns = new Column[columnCount];
+            for (int slot = 0; slot < columnCount; slot++) {
+                if (types[slot] != DbTable.ColumnType.STRING) {
+                    columns[slot] = readValues(channel, codesAt[slot], types[slot], rows);
+                    continue;
+                }
+                MappedByteBuffer dictionary = channel.map(FileChannel.MapMode.READ_ONLY,
+                        dictionaryAt[slot], codesAt[slot] - dictionaryAt[slot]);
+                MappedByteBuffer codes = channel.map(FileChannel.MapMode.READ_ONLY, codesAt[slot], 4L * rows);
+                columns[slot] = new MappedColumn(codes, dictionary, rows, storage);
+            }
+
+            int indexCount = footer.getInt();
+            String[] indexColumns = new String[indexCount];
+            DbTable.IndexKind[] kinds = new DbTable.IndexKind[indexCount];
+            long[] indexAt = new long[indexCount + 1];
+            for (int i = 0; i < indexCount; i++) {
+                indexColumns[i] = getString(footer);
+                kinds[i] = DbTable.IndexKind.values()[footer.getInt()];
+                indexAt[i] = footer.getLong();
+            }
+            ColumnStore store = new ColumnStore(columnNames, columns, rows, storage);
+            int deleted = footer.getInt();
+            for (int i = 0; i < deleted; i++) {
+                // Deleted before the first version of the reopened table
+                store.markDeleted(footer.getInt(), 0);
+            }
+            // Index blocks are written back to back, right before the footer
+            long[] sortedAt = Arrays.copyOf(indexAt, indexCount);
+            Arrays.sort(sortedAt);
+            HashMap<String, Index> indexes = new HashMap<String, Index>();
+            for (int i = 0; i < indexCount; i++) {
+                int pos = Arrays.binarySearch(sortedAt, indexAt[i]);
+                long end = pos + 1 < indexCount ? sortedAt[pos + 1] : footerAt;
+                final MappedByteBuffer block = channel.map(FileChannel.MapMode.READ_ONLY, indexAt[i], end - indexAt[i]);
+                indexes.put(indexColumns[i], Index.create(store.column(store.slotOf(indexColumns[i])), kinds[i],
+                        (Index index) -> readIndex(block, index)));
+            }
+
+            return new DbTable(store, indexes, rows - deleted);
+        } finally {
+            file.close();
+        }
+    }
+
+    // Maps the raw values of a typed column; they are read in place until the column is appended to
+    private static Column readValues(FileChannel channel, long at, DbTable.ColumnType type, int rows)
+            throws IOException {
+        if (type == DbTable.ColumnType.INT) {
+            return new IntColumn(channel.map(FileChannel.MapMode.READ_ONLY, at, 4L * rows).asIntBuffer(), rows);
+        }
+        ByteBuffer block = channel.map(FileChannel.MapMode.READ_ONLY, at, 8L * rows);
+        if (type == DbTable.ColumnType.DOUBLE) {
+            return new DoubleColumn(block.asDoubleBuffer(), rows);
+        }
+        return type == DbTable.ColumnType.TIMESTAMP
+                ? new TimestampColumn(block.asLongBuffer(), rows)
+                : new LongColumn(block.asLongBuffer(), rows);
+    }
+
+    // Fills an index from its block
+    private static void readIndex(ByteBuffer block, Index index) {
+        ByteBuffer in = block.duplicate();
+        int keys = in.getInt();
+        for (int k = 0; k < keys; k++) {
+            if (index instanceof LongIndex) {
+                long key = in.getLong();
+                ((LongIndex) index).putBucket(key, getRows(in));
+            } else {
+                String key = getString(in);
+                ((StringIndex) index).putBucket(key, getRows(in));
+            }
+        }
+    }
+
+    private static IntList getRows(ByteBuffer in) {
+        int size = in.getInt();
+        IntList bucket = new IntList(size);
+        for (int j = 0; j < size; j++) {
+            bucket.add(in.getInt());
+        }
+        return bucket;
+    }
+
+    private static String getString(ByteBuffer in) {
+        byte[] bytes = new byte[in.getInt()];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    // Buffers writes to a file channel and keeps track of the file position
+    private static class BlockWriter {
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 20);
+        private long flushed;
+
+        BlockWriter(FileChannel channel) {
+            this.channel = channel;
+        }
+
+        long position() {
+            return flushed + buffer.position();
+        }
+
+        void putInt(int value) throws IOException {
+            ensure(4);
+            buffer.putInt(value);
+        }
+
+        void putLong(long value) throws IOException {
+            ensure(8);
+            buffer.putLong(value);
+        }
+
+        void putString(String value) throws IOException {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            putInt(bytes.length);
+            putBytes(bytes);
+        }
+
+        void putBytes(byte[] bytes) throws IOException {
+            int written = 0;
+            while (written < bytes.length) {
+                ensure(1);
+                int n = Math.min(buffer.remaining(), bytes.length - written);
+                buffer.put(bytes, written, n);
+                written += n;
+            }
+        }
+
+        void flush() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                flushed += channel.write(buffer);
+            }
+            buffer.clear();
+        }
+
+        private void ensure(int bytes) throws IOException {
+            if (buffer.remaining() < bytes) {
+                flush();
+            }
+        }
+    }
+}
@@ -0,0 +1,386 @@
+/*
+ * Counters kept by a DbTable about the work it does: how each select was run (index walk,
+ * index intersection, scan or parallel scan), how many rows it looked at and returned, its
+ * latency by CompareType, index builds, inserts, deletes and sets, and background
+ * compactions and checkpoints that failed.
+ * <p/>
+ * Recording a select adds to a few LongAdders and one histogram bucket, so the metrics are
+ * on by default. setEnabled(false) turns recording off, except for failures, which are
+ * always counted. The numbers can be read through the getters, toString, or JMX once
+ * register has been called.
+ * <p/>
+ * A select is recorded when its rows have all been found: when select returns, or when an
+ * iterator or stream runs out of rows or reaches its limit. One that is stopped early is
+ * recorded, with the rows it got through, when its RowCursor (or stream) is closed.
+ */
+
+import java.lang.management.ManagementFactory;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+public class TableMetrics implements TableMetricsMXBean {
+
+    // Ways a select can be run
+    public enum PlanType {
+        INDEX, INDEX_INTERSECTION, SCAN, PARALLEL_SCAN
+    }
+
+    private final DbTable table;
+    private volatile boolean enabled = true;
+    private volatile long startNanos = System.nanoTime();
+
+    private final EnumMap<PlanType, LongAdder> selectsByPlan = new EnumMap<PlanType, LongAdder>(PlanType.class);
+    private final EnumMap<DbTable.CompareType, Histogram> latency =
+            new EnumMap<DbTable.CompareType, Histogram>(DbTable.CompareType.class);
+    private final LongAdder rowsExamined = new LongAdder();
+    private final LongAdder rowsReturned = new LongAdder();
+    private final LongAdder indexBuilds = new LongAdder();
+    private final LongAdder indexBuildNanos = new LongAdder();
+    private final LongAdder inserts = new LongAdder();
+    private final LongAdder deletes = new LongAdder();
+    private final LongAdder updates = new LongAdder();
+    private final LongAdder compactionFailures = new LongAdder();
+    private final LongAdder checkpointFailures = new LongAdder();
+    private volatile String lastFailure;
+
+    TableMetrics(DbTable table) {
+        this.table = table;
+        for (PlanType type : PlanType.values()) {
+            selectsByPlan.put(type, new LongAdder());
+        }
+        for (DbTable.CompareType type : DbTable.CompareType.values()) {
+            latency.put(type, new Histogram());
+        }
+    }
+
+    // Recording, called by the table
+
+    /**
+     * Records a finished select
+     *
+     * @param plan     How it was run
+     * @param leading  CompareType of the driving predicate, or of the first predicate of a scan;
+     *                 null if the select had no predicates
+     * @param nanos    Time taken to find the rows, once planned
+     * @param examined Rows checked against the predicates
+     * @param returned Rows returned
+     */
+    void recordSelect(PlanType plan, DbTable.CompareType leading, long nanos, long examined, long returned) {
+        if (enabled) {
+            selectsByPlan.get(plan).increment();
+            if (leading != null) {
+                latency.get(leading).record(nanos);
+            }
+            rowsExamined.add(examined);
+            rowsReturned.add(returned);
+        }
+    }
+
+    void recordIndexBuild(long nanos) {
+        if (enabled) {
+            indexBuilds.increment();
+            indexBuildNanos.add(nanos);
+        }
+    }
+
+    void recordInserts(int rows) {
+        if (enabled) {
+            inserts.add(rows);
+        }
+    }
+
+    void recordDeletes(int rows) {
+        if (enabled) {
+            deletes.add(rows);
+        }
+    }
+
+    void recordUpdate() {
+        if (enabled) {
+            updates.increment();
+        }
+    }
+
+    void recordCompactionFailure(Exception e) {
+        compactionFailures.increment();
+        lastFailure = "Compaction failed: " + e;
+    }
+
+    void recordCheckpointFailure(Exception e) {
+        checkpointFailures.increment();
+        lastFailure = "Checkpoint failed: " + e;
+    }
+
+    // Reading
+
+    @Override
+    public long getSelects() {
+        long total = 0;
+        for (LongAdder count : selectsByPlan.values()) {
+            total += count.sum();
+        }
+        return total;
+    }
+
+    public long getSelects(PlanType plan) {
+        return selectsByPlan.get(plan).sum();
+    }
+
+    @Override
+    public Map<String, Long> getSelectsByPlan() {
+        Map<String, Long> counts = new LinkedHashMap<String, Long>();
+        for (Map.Entry<PlanType, LongAdder> entry : selectsByPlan.entrySet()) {
+            counts.put(entry.getKey().name(), entry.getValue().sum());
+        }
+        return counts;
+    }
+
+    @Override
+    public long getRowsExamined() {
+        return rowsExamined.sum();
+    }
+
+    @Override
+    public long getRowsReturned() {
+        return rowsReturned.sum();
+    }
+
+    @Override
+    public Map<String, Long> getSelectsByCompareType() {
+        Map<String, Long> counts = new LinkedHashMap<String, Long>();
+        for (Map.Entry<DbTable.CompareType, Histogram> entry : latency.entrySet()) {
+            counts.put(entry.getKey().name(), entry.getValue().count.sum());
+        }
+        return counts;
+    }
+
+    @Override
+    public Map<String, Double> getMeanLatencyMicros() {
+        Map<String, Double> means = new LinkedHashMap<String, Double>();
+        for (Map.Entry<DbTable.CompareType, Histogram> entry : latency.entrySet()) {
+            means.put(entry.getKey().name(), entry.getValue().mean() / 1e3);
+        }
+        return means;
+    }
+
+    @Override
+    public Map<String, Double> getP99LatencyMicros() {
+        Map<String, Double> p99 = new LinkedHashMap<String, Double>();
+        for (Map.Entry<DbTable.CompareType, Histogram> entry : latency.entrySet()) {
+            p99.put(entry.getKey().name(), entry.getValue().percentile(0.99) / 1e3);
+        }
+        return p99;
+    }
+
+    /**
+     * Returns the latency histogram of selects led by one CompareType. Bucket i counts selects
+     * that took from 2^(i-1) up to 2^i nanoseconds; bucket 0 counts those under a nanosecond.
+     *
+     * @param type CompareType of the driving predicate
+     * @return A copy of the bucket counts
+     */
+    public long[] latencyHistogram(DbTable.CompareType type) {
+        AtomicLongArray buckets = latency.get(type).buckets;
+        long[] copy = new long[buckets.length()];
+        for (int i = 0; i < copy.length; i++) {
+            copy[i] = buckets.get(i);
+        }
+        return copy;
+    }
+
+    /**
+     * @return Estimated latency below which fraction q of the selects led by type finished,
+     * in nanoseconds; 0 if there were none
+     */
+    public long latencyPercentileNanos(DbTable.CompareType type, double q) {
+        return latency.get(type).percentile(q);
+    }
+
+    @Override
+    public long getIndexBuilds() {
+        return indexBuilds.sum();
+    }
+
+    @Override
+    public double getIndexBuildMillis() {
+        return indexBuildNanos.sum() / 1e6;
+    }
+
+    /**
+     * @return Rough estimate of the heap used by the table's current indexes (see Index.estimatedBytes)
+     */
+    @Override
+    public long getIndexMemoryBytes() {
+        long bytes = 0;
+        for (Index index : table.snapshot().indexes.values()) {
+            bytes += index.estimatedBytes();
+        }
+        return bytes;
+    }
+
+    @Override
+    public long getInserts() {
+        return inserts.sum();
+    }
+
+    @Override
+    public long getDeletes() {
+        return deletes.sum();
+    }
+
+    @Override
+    public long getUpdates() {
+        return updates.sum();
+    }
+
+    /**
+     * @return Average inserts per second since the table was created or the metrics were reset
+     */
+    @Override
+    public double getInsertsPerSecond() {
+        return perSecond(inserts.sum());
+    }
+
+    /**
+     * @return Average deletes per second since the table was created or the metrics were reset
+     */
+    @Override
+    public double getDeletesPerSecond() {
+        return perSecond(deletes.sum());
+    }
+
+    /**
+     * @return Background compactions that failed; the table keeps its old storage after each
+     */
+    @Override
+    public long getCompactionFailures() {
+        return compactionFailures.sum();
+    }
+
+    /**
+     * @return Background checkpoints that failed; the log still holds every write after each
+     */
+    @Override
+    public long getCheckpointFailures() {
+        return checkpointFailures.sum();
+    }
+
+    /**
+     * @return What went wrong in the latest failed compaction or checkpoint, or null if none has failed
+     */
+    @Override
+    public String getLastFailure() {
+        return lastFailure;
+    }
+
+    @Override
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    @Override
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    /**
+     * Sets every counter and histogram back to zero
+     */
+    @Override
+    public void reset() {
+        for (LongAdder count : selectsByPlan.values()) {
+            count.reset();
+        }
+        for (Histogram h : latency.values()) {
+            h.reset();
+        }
+        rowsExamined.reset();
+        rowsReturned.reset();
+        indexBuilds.reset();
+        indexBuildNanos.reset();
+        inserts.reset();
+        deletes.reset();
+        updates.reset();
+        compactionFailures.reset();
+        checkpointFailures.reset();
+        lastFailure = null;
+        startNanos = System.nanoTime();
+    }
+
+    /**
+     * Registers these metrics with the platform MBean server, as DbTable:type=TableMetrics,name=tableName
+     *
+     * @param tableName Name to show the table under
+     * @return The name the metrics were registered as
+     * @throws JMException if the name is taken or cannot be registered
+     */
+    public ObjectName register(String tableName) throws JMException {
+        ObjectName name = new ObjectName("DbTable:type=TableMetrics,name=" + ObjectName.quote(tableName));
+        ManagementFactory.getPlatformMBeanServer().registerMBean(this, name);
+        return name;
+    }
+
+    @Override
+    public String toString() {
+        return "selects " + getSelectsByPlan() + ", rows examined " + getRowsExamined()
+                + ", returned " + getRowsReturned() + ", mean latency us " + getMeanLatencyMicros()
+                + ", index builds " + getIndexBuilds() + " (" + getIndexBuildMillis() + " ms)"
+                + ", index bytes " + getIndexMemoryBytes() + ", inserts " + getInserts()
+                + ", deletes " + getDeletes() + ", updates " + getUpdates()
+                + ", failed compactions " + getCompactionFailures()
+                + ", failed checkpoints " + getCheckpointFailures();
+    }
+
+    private double perSecond(long count) {
+        long elapsed = System.nanoTime() - startNanos;
+        return elapsed <= 0 ? 0 : count * 1e9 / elapsed;
+    }
+
+    // Latency histogram with one bucket per power of two nanoseconds
+    private static final class Histogram {
+        final AtomicLongArray buckets = new AtomicLongArray(64);
+        final LongAdder count = new LongAdder();
+        final LongAdder totalNanos = new LongAdder();
+
+        void record(long nanos) {
+            buckets.incrementAndGet(64 - Long.numberOfLeadingZeros(Math.max(0, nanos)));
+            count.increment();
+            totalNanos.add(nanos);
+        }
+
+        double mean() {
+            long n = count.sum();
+            return n == 0 ? 0 : (double) totalNanos.sum() / n;
+        }
+
+        // Upper bound of the bucket holding the q-th fraction of the recorded values
+        long percentile(double q) {
+            long n = count.sum();
+            if (n == 0) {
+                return 0;
+            }
+            long target = (long) Math.ceil(q * n);
+            long seen = 0;
+            for (int i = 0; i < buckets.length(); i++) {
+                seen += buckets.get(i);
+                if (seen >= target) {
+                    return i == 0 ? 0 : 1L << Math.min(62, i);
+                }
+            }
+            return Long.MAX_VALUE;
+        }
+
+        void reset() {
+            for (int i = 0; i < buckets.length(); i++) {
+                buckets.set(i, 0);
+            }
+            count.reset();
+            totalNanos.reset();
+        }
+    }
+}
@@ -0,0 +1,51 @@
+/*
+ * Management interface of TableMetrics, as seen through JMX. Maps are keyed by plan type or
+ * CompareType name.
+ */
+
+import java.util.Map;
+
+public interface TableMetricsMXBean {
+
+    long getSelects();
+
+    Map<String, Long> getSelectsByPlan();
+
+    long getRowsExamined();
+
+    long getRowsReturned();
+
+    Map<String, Long> getSelectsByCompareType();
+
+    Map<String, Double> getMeanLatencyMicros();
+
+    Map<String, Double> getP99LatencyMicros();
+
+    long getIndexBuilds();
+
+    double getIndexBuildMillis();
+
+    long getIndexMemoryBytes();
+
+    long getInserts();
+
+    long getDeletes();
+
+    long getUpdates();
+
+    double getInsertsPerSecond();
+
+    double getDeletesPerSecond();
+
+    long getCompactionFailures();
+
+    long getCheckpointFailures();
+
+    String getLastFailure();
+
+    boolean isEnabled();
+
+    void setEnabled(boolean enabled);
+
+    void reset();
+}
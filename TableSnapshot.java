@@ -0,0 +1,110 @@
+/*
+ * A consistent, read-only view of a DbTable and all of its indexes as of one table version.
+ * Writers never block a snapshot and a snapshot never sees a write that happened after it was taken.
+ */
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+public class TableSnapshot {
+
+    final DbTable table;
+    final ColumnStore store;
+
+    // Never changed after the snapshot is published; createIndex publishes a new map
+    final HashMap<String, Index> indexes;
+
+    final long version;
+    final int rowCount;
+    final int liveCount;
+
+    TableSnapshot(DbTable table, ColumnStore store, HashMap<String, Index> indexes,
+                  long version, int rowCount, int liveCount) {
+        this.table = table;
+        this.store = store;
+        this.indexes = indexes;
+        this.version = version;
+        this.rowCount = rowCount;
+        this.liveCount = liveCount;
+    }
+
+    /**
+     * @return true if rowId had been inserted and not yet deleted when this snapshot was taken
+     */
+    boolean isVisible(int rowId) {
+        return rowId < rowCount && store.deletedAt(rowId) > version;
+    }
+
+    /**
+     * @param rowId Row id to start from
+     * @return The next visible row id at or after rowId, or -1 if there are none
+     */
+    int nextVisible(int rowId) {
+        for (; rowId < rowCount; rowId++) {
+            if (store.deletedAt(rowId) > version) {
+                return rowId;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return A bitmap of every visible row id
+     */
+    RowBitmap liveBitmap() {
+        RowBitmap dead = new RowBitmap();
+        for (int rowId = 0; rowId < rowCount; rowId++) {
+            if (store.deletedAt(rowId) <= version) {
+                dead.add(rowId);
+            }
+        }
+        return RowBitmap.range(0, rowCount).andNot(dead);
+    }
+
+    /**
+     * Same as DbTable.select, against the rows and indexes as of this snapshot
+     */
+    public ArrayList<DataObject> select(String[] columns, String[] values, DbTable.CompareType[] ctype)
+            throws IllegalArgumentException {
+        return table.select(this, columns, values, ctype);
+    }
+
+    /**
+     * Same as DbTable.select with an order, against the rows and indexes as of this snapshot
+     */
+    public ArrayList<DataObject> select(String[] columns, String[] values, DbTable.CompareType[] ctype,
+                                        String orderBy, DbTable.SortOrder order, int limit)
+            throws IllegalArgumentException {
+        return table.select(this, columns, values, ctype, orderBy, order, limit);
+    }
+
+    /**
+     * Same as DbTable.iterator, against the rows and indexes as of this snapshot
+     */
+    public RowCursor iterator(String[] columns, String[] values, DbTable.CompareType[] ctype, int limit)
+            throws IllegalArgumentException {
+        return table.cursor(this, columns, values, ctype, limit);
+    }
+
+    /**
+     * Same as DbTable.explain, against the indexes as of this snapshot
+     */
+    public QueryPlan explain(String[] columns, String[] values, DbTable.CompareType[] ctype)
+            throws IllegalArgumentException {
+        return table.explain(this, columns, values, ctype);
+    }
+
+    /**
+     * @return Number of rows visible in this snapshot
+     */
+    public int size() {
+        return liveCount;
+    }
+
+    /**
+     * @return The table version this snapshot was taken at
+     */
+    public long version() {
+        return version;
+    }
+}
@@ -0,0 +1,55 @@
+/*
+ * Column of points in time, stored as milliseconds since the epoch. Values are given as
+ * ISO-8601 instants such as "2024-03-01T12:00:00Z" (or as a number of milliseconds) and
+ * come back in ISO-8601 form.
+ */
+
+import java.nio.LongBuffer;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+
+public class TimestampColumn extends LongColumn {
+
+    public TimestampColumn() {
+        super();
+    }
+
+    TimestampColumn(LongBuffer mapped, int size) {
+        super(mapped, size);
+    }
+
+    @Override
+    public DbTable.ColumnType type() {
+        return DbTable.ColumnType.TIMESTAMP;
+    }
+
+    @Override
+    protected long parse(String value) throws IllegalArgumentException {
+        if (value == null) {
+            throw new IllegalArgumentException("Not a valid TIMESTAMP: null");
+        }
+        try {
+            if (isMillis(value)) {
+                return Long.parseLong(value);
+            }
+            return Instant.parse(value).toEpochMilli();
+        } catch (NumberFormatException | DateTimeParseException | ArithmeticException e) {
+            throw new IllegalArgumentException("Not a valid TIMESTAMP: " + value);
+        }
+    }
+
+    @Override
+    protected String format(long value) {
+        return Instant.ofEpochMilli(value).toString();
+    }
+
+    private static boolean isMillis(String value) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (!(c >= '0' && c <= '9') && !(i == 0 && c == '-' && value.length() > 1)) {
+                return false;
+            }
+        }
+        return !value.isEmpty();
+    }
+}
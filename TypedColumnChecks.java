@@ -0,0 +1,134 @@
+/*
+ * Checks of typed columns, run by Checks: a row without a value for one, typed columns read
+ * back from a binary table file, and indexes on typed columns against scans.
+ */
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+
+public class TypedColumnChecks {
+
+    static void run() throws IOException {
+        nullInTypedColumn();
+        typedColumnsReopened();
+        typedIndexes();
+    }
+
+    // Typed columns hold no nulls, so a row without a value for one is rejected
+    private static void nullInTypedColumn() {
+        String cols[] = {"name", "n"};
+        DbTable table = new DbTable(new ArrayList<String>(Arrays.asList(cols)), new ArrayList<DbTable.ColumnType>(
+                Arrays.asList(DbTable.ColumnType.STRING, DbTable.ColumnType.INT)));
+        String outcome;
+        try {
+            table.insert(new DataObject(new String[]{"name"}, new String[]{"a"}));
+            outcome = "inserted";
+        } catch (IllegalArgumentException e) {
+            outcome = e.getMessage();
+        }
+        Checks.check("null in a typed column", "Not a valid INT: null", outcome);
+    }
+
+    // Typed columns reopened from a binary file read, sort and take appends like the original
+    private static void typedColumnsReopened() throws IOException {
+        String cols[] = {"name", "n", "total", "ratio"};
+        ArrayList<DbTable.ColumnType> types = new ArrayList<DbTable.ColumnType>(Arrays.asList(
+                DbTable.ColumnType.STRING, DbTable.ColumnType.INT, DbTable.ColumnType.LONG, DbTable.ColumnType.DOUBLE));
+        DbTable table = new DbTable(new ArrayList<String>(Arrays.asList(cols)), types);
+        for (int i = 0; i < 100; i++) {
+            table.insert(new DataObject(cols, new String[]{"r" + i, String.valueOf(i - 50),
+                    String.valueOf(i * 10000000000L), String.valueOf(i / 4.0)}));
+        }
+
+        File file = File.createTempFile("checks", ".tbl");
+        try {
+            table.writeToBinaryFile(file.getPath());
+            DbTable reopened = DbTable.openFile(file.getPath());
+            String columns[] = {"n"};
+            DbTable.CompareType ctype[] = {DbTable.CompareType.GreaterEq};
+            Checks.check("typed reopen, range select", "[r97, r98, r99]",
+                    Checks.names(reopened.select(columns, new String[]{"47"}, ctype, "total", DbTable.SortOrder.ASC, 10)));
+            Checks.check("typed reopen, values", "[r3, -47, 30000000000, 0.75]",
+                    Arrays.toString(reopened.select(new String[]{"name"}, new String[]{"r3"},
+                            new DbTable.CompareType[]{DbTable.CompareType.Equal}).get(0).get(cols)));
+
+            reopened.insert(new DataObject(cols, new String[]{"new", "1000", "-1", "-0.5"}));
+            Checks.check("typed reopen, append then select", "[r97, r98, r99, new]",
+                    Checks.names(reopened.select(columns, new String[]{"47"}, ctype, "n", DbTable.SortOrder.ASC, 10)));
+            Checks.check("typed reopen, append then sort", "[new, r0]",
+                    Checks.names(reopened.select(columns, new String[]{"-100"}, ctype, "ratio", DbTable.SortOrder.ASC, 2)));
+        } catch (IllegalArgumentException e) {
+            Checks.check("typed reopen", "reopened", e.getMessage());
+        } finally {
+            file.delete();
+        }
+    }
+
+    // Indexes on typed columns, filled one key at a time in random order and by a batch, find the
+    // same rows as a scan of an unindexed table, for equality, ranges, negative doubles and
+    // sorted selects, and again once the table is reopened from a binary file
+    private static void typedIndexes() throws IOException {
+        String cols[] = {"name", "n", "total", "ratio"};
+        ArrayList<DbTable.ColumnType> types = new ArrayList<DbTable.ColumnType>(Arrays.asList(
+                DbTable.ColumnType.STRING, DbTable.ColumnType.INT, DbTable.ColumnType.LONG, DbTable.ColumnType.DOUBLE));
+        DbTable indexed = new DbTable(new ArrayList<String>(Arrays.asList(cols)), types);
+        DbTable plain = new DbTable(new ArrayList<String>(Arrays.asList(cols)), types);
+        indexed.createIndex("n");
+        indexed.createIndex("total", DbTable.IndexKind.HASH);
+        indexed.createIndex("ratio", DbTable.IndexKind.BOTH);
+        Random random = new Random(42);
+        ArrayList<DataObject> batch = new ArrayList<DataObject>();
+        for (int i = 0; i < 20000; i++) {
+            String[] row = {"r" + i, String.valueOf(random.nextInt(4000) - 2000),
+                    String.valueOf(random.nextInt(50) * 10000000000L - 250000000000L),
+                    String.valueOf((random.nextInt(800) - 400) / 8.0)};
+            plain.insert(new DataObject(cols, row));
+            if (i < 15000) {
+                indexed.insert(new DataObject(cols, row));
+            } else {
+                batch.add(new DataObject(cols, row));
+            }
+        }
+        indexed.insertAll(batch);
+        String[] n = {"n"};
+        DbTable.CompareType[] lessThan = {DbTable.CompareType.LessThan};
+        indexed.deleteWhere(n, new String[]{"-1900"}, lessThan);
+        plain.deleteWhere(n, new String[]{"-1900"}, lessThan);
+        Checks.check("typed index, point select uses the index", "true",
+                String.valueOf(indexed.explain(n, new String[]{"17"}, Checks.equal(n)).usesIndex()));
+
+        File file = File.createTempFile("checks", ".tbl");
+        try {
+            indexed.writeToBinaryFile(file.getPath());
+            DbTable reopened = DbTable.openFile(file.getPath());
+            for (DbTable table : new DbTable[]{indexed, reopened}) {
+                String label = table == indexed ? "typed index" : "typed index reopened";
+                Checks.sameRows(label, table, plain, n, new String[]{"17"}, Checks.equal(n));
+                Checks.sameRows(label, table, plain, n, new String[]{"-1500"}, lessThan);
+                Checks.sameRows(label, table, plain, n, new String[]{"1800"},
+                        new DbTable.CompareType[]{DbTable.CompareType.GreaterEq});
+                Checks.sameRows(label, table, plain, new String[]{"total"}, new String[]{"-30000000000"},
+                        Checks.equal(new String[]{"total"}));
+                Checks.sameRows(label, table, plain, new String[]{"ratio"}, new String[]{"-45"},
+                        new DbTable.CompareType[]{DbTable.CompareType.LessEq});
+                Checks.sameRows(label, table, plain, new String[]{"ratio"}, new String[]{"-0.125"},
+                        Checks.equal(new String[]{"ratio"}));
+                Checks.sameRows(label, table, plain, new String[]{"n", "ratio"}, new String[]{"1000", "0"},
+                        new DbTable.CompareType[]{DbTable.CompareType.GreaterEq, DbTable.CompareType.LessThan});
+                String[] ratio = {"ratio"};
+                String[] below = {"-10"};
+                Checks.check(label + ", sorted DESC",
+                        Checks.names(plain.select(ratio, below, lessThan, "ratio", DbTable.SortOrder.DESC, 25)),
+                        Checks.names(table.select(ratio, below, lessThan, "ratio", DbTable.SortOrder.DESC, 25)));
+                Checks.check(label + ", sorted ASC",
+                        Checks.names(plain.select(ratio, below, lessThan, "ratio", DbTable.SortOrder.ASC, 25)),
+                        Checks.names(table.select(ratio, below, lessThan, "ratio", DbTable.SortOrder.ASC, 25)));
+            }
+        } finally {
+            file.delete();
+        }
+    }
+}
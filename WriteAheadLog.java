@@ -0,0 +1,491 @@
+/*
+ * Write-ahead log and checkpoints of a durable DbTable.
+ * <p/>
+ * A durable table named base is kept on disk as numbered files next to each other:
+ * <pre>
+ *   base.N.tbl   checkpoint: binary table file (see TableFile) holding every write logged
+ *                in segments before N, with row ids kept as they were
+ *   base.N.wal   log segment: every write made after checkpoint N was started
+ * </pre>
+ * Each logged write is one record: an int payload length, an int CRC32 of the payload, and
+ * the payload (a record type byte followed by its fields). Records are added while the table
+ * holds its write lock, so they are in the same order the writes were applied in, and row ids
+ * in a record mean the same thing when the record is replayed.
+ * <p/>
+ * Writers wait for their record to be on disk through sync. Records are buffered and whichever
+ * writer syncs first forces everything buffered so far with one fsync, so writers that arrive
+ * at the same time share it (group commit).
+ * <p/>
+ * A checkpoint switches to a new log segment and writes a snapshot of the table taken at the
+ * same moment, while writers carry on. Once the checkpoint is on disk the older checkpoint
+ * and segments are removed. Opening a table reads the newest checkpoint and replays the log
+ * segments from it onwards, so recovery only replays the writes since the last checkpoint.
+ * A record left half written by a crash fails its length or CRC check and is dropped with
+ * everything after it.
+ */
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.zip.CRC32;
+
+public class WriteAheadLog {
+
+    // Record types
+    static final byte INSERT = 1;
+    static final byte DELETE = 2;
+    static final byte UPDATE = 3;
+    static final byte CREATE_INDEX = 4;
+    static final byte COMPACT = 5;
+
+    private static final String CHECKPOINT_SUFFIX = ".tbl";
+    private static final String SEGMENT_SUFFIX = ".wal";
+
+    private final File directory;
+    private final String prefix;
+
+    // Segment records are currently appended to
+    private long segment;
+    private RandomAccessFile file;
+    private FileChannel channel;
+
+    // Records not yet handed to the channel
+    private ByteBuffer pending = ByteBuffer.allocate(1 << 16);
+    private ByteBuffer payload = ByteBuffer.allocate(256);
+    private final CRC32 crc = new CRC32();
+
+    // Log positions, counted in bytes over every segment since the log was opened
+    private long appended;
+    private long written;
+    private long segmentStart;
+    private volatile long durable;
+
+    // Held by the writer that is forcing the log to disk
+    private final Object syncLock = new Object();
+
+    private WriteAheadLog(File directory, String prefix, long segment) throws IOException {
+        this.directory = directory;
+        this.prefix = prefix;
+        openSegment(segment);
+    }
+
+    /**
+     * Opens a durable table, creating it if it has no files yet
+     *
+     * @param baseName    Path and name shared by the table's files
+     * @param columnNames Columns of the table. May be null if the table already exists.
+     * @param columnTypes Types of the columns, or null for all STRING or whatever the existing table has
+     * @param storage     Where STRING values are kept, or null for HEAP or whatever the existing table has
+     * @return The table as of its last logged write, with the log attached
+     * @throws IOException if the table's files cannot be read or written
+     * @throws IllegalArgumentException if the table does not exist and columnNames is null,
+     * or it exists with different columns or storage
+     */
+    static DbTable open(String baseName, ArrayList<String> columnNames, ArrayList<DbTable.ColumnType> columnTypes,
+                        DbTable.Storage storage) throws IOException, IllegalArgumentException {
+        File base = new File(baseName).getAbsoluteFile();
+        File directory = base.getParentFile();
+        String prefix = base.getName() + ".";
+
+        long checkpoint = -1;
+        ArrayList<Long> segments = new ArrayList<Long>();
+        for (String name : listFiles(directory, prefix)) {
+            long seq = sequenceOf(name, prefix, CHECKPOINT_SUFFIX);
+            if (seq >= 0) {
+                checkpoint = Math.max(checkpoint, seq);
+            }
+            seq = sequenceOf(name, prefix, SEGMENT_SUFFIX);
+            if (seq >= 0) {
+                segments.add(seq);
+            }
+        }
+        Collections.sort(segments);
+
+        DbTable table;
+        if (checkpoint < 0) {
+            if (columnNames == null) {
+                throw new IllegalArgumentException("No table at " + baseName);
+            }
+            table = new DbTable(columnNames, columnTypes, storage == null ? DbTable.Storage.HEAP : storage);
+            checkpoint = 0;
+            writeCheckpoint(directory, prefix, table.snapshot(), checkpoint);
+        } else {
+            table = TableFile.open(new File(directory, prefix + checkpoint + CHECKPOINT_SUFFIX).getPath());
+            ArrayList<String> stored = table.snapshot().store.columnNames();
+            ArrayList<DbTable.ColumnType> storedTypes = table.snapshot().store.columnTypes();
+            if ((columnNames != null && !stored.equals(columnNames))
+                    || (columnTypes != null && !storedTypes.equals(columnTypes))) {
+                throw new IllegalArgumentException("Table at " + baseName + " has columns " + stored
+                        + " of types " + storedTypes);
+            }
+            DbTable.Storage storedStorage = table.snapshot().store.storage();
+            if (storage != null && storage != storedStorage) {
+                throw new IllegalArgumentException("Table at " + baseName + " keeps its STRING values as "
+                        + storedStorage);
+            }
+        }
+
+        long last = checkpoint;
+        for (long seq : segments) {
+            if (seq >= checkpoint) {
+                File segment = new File(directory, prefix + seq + SEGMENT_SUFFIX);
+                long valid = replay(segment, table);
+                if (valid < segment.length()) {
+                    // Drop a torn record left by a crash
+                    RandomAccessFile torn = new RandomAccessFile(segment, "rw");
+                    try {
+                        torn.setLength(valid);
+                    } finally {
+                        torn.close();
+                    }
+                }
+                last = seq;
+            }
+        }
+        removeBefore(directory, prefix, checkpoint);
+
+        table.attachLog(new WriteAheadLog(directory, prefix, last));
+        return table;
+    }
+
+    /**
+     * Logs an insert
+     *
+     * @return Log position to pass to sync
+     */
+    synchronized long logInsert(String[] values) throws IOException {
+        payload.clear();
+        payload.put(INSERT);
+        payload.putInt(values.length);
+        for (String value : values) {
+            putString(value);
+        }
+        return addRecord();
+    }
+
+    /**
+     * Logs the delete of a row
+     *
+     * @return Log position to pass to sync
+     */
+    synchronized long logDelete(int rowId) throws IOException {
+        payload.clear();
+        payload.put(DELETE);
+        payload.putInt(rowId);
+        return addRecord();
+    }
+
+    /**
+     * Logs a change to one column of a row
+     *
+     * @return Log position to pass to sync
+     */
+    synchronized long logUpdate(int rowId, int slot, String value) throws IOException {
+        payload.clear();
+        payload.put(UPDATE);
+        payload.putInt(rowId);
+        payload.putInt(slot);
+        putString(value);
+        return addRecord();
+    }
+
+    /**
+     * Logs the creation of an index
+     *
+     * @return Log position to pass to sync
+     */
+    synchronized long logCreateIndex(String columnName, DbTable.IndexKind kind) throws IOException {
+        payload.clear();
+        payload.put(CREATE_INDEX);
+        putString(columnName);
+        ensurePayload(4);
+        payload.putInt(kind.ordinal());
+        return addRecord();
+    }
+
+    /**
+     * Logs a compaction. Row ids in records after it are row ids in the compacted table.
+     *
+     * @param tombstoned Rows deleted while the compaction was copying, which it kept as
+     *                   deleted rows, in increasing order
+     * @return Log position to pass to sync
+     */
+    synchronized long logCompact(IntList tombstoned) throws IOException {
+        payload.clear();
+        payload.put(COMPACT);
+        ensurePayload(4 + 4 * tombstoned.size());
+        payload.putInt(tombstoned.size());
+        for (int i = 0; i < tombstoned.size(); i++) {
+            payload.putInt(tombstoned.get(i));
+        }
+        return addRecord();
+    }
+
+    /**
+     * Waits until every record up to lsn is on disk. If another writer is already forcing the
+     * log, waits for it first, since its fsync may well cover lsn too.
+     *
+     * @param lsn Log position returned when the record was added
+     * @throws IOException if the log cannot be written
+     */
+    void sync(long lsn) throws IOException {
+        if (durable >= lsn) {
+            return;
+        }
+        synchronized (syncLock) {
+            if (durable >= lsn) {
+                return;
+            }
+            long target;
+            FileChannel toForce;
+            synchronized (this) {
+                writePending();
+                target = written;
+                toForce = channel;
+            }
+            toForce.force(false);
+            durable = target;
+        }
+    }
+
+    /**
+     * @return Number of bytes logged to the current segment
+     */
+    synchronized long segmentBytes() {
+        return appended - segmentStart;
+    }
+
+    /**
+     * Starts a new segment for the records that follow. Called with the table's write lock
+     * held, at the same moment as the snapshot the next checkpoint is written from is taken.
+     *
+     * @return Number of the new segment, which is also the number of that checkpoint
+     * @throws IOException if the log cannot be written
+     */
+    long rotate() throws IOException {
+        synchronized (syncLock) {
+            synchronized (this) {
+                writePending();
+                channel.force(false);
+                durable = written;
+                file.close();
+                openSegment(segment + 1);
+                return segment;
+            }
+        }
+    }
+
+    /**
+     * Writes the checkpoint of a snapshot taken at rotate, then removes the checkpoint and
+     * log segments it replaces
+     *
+     * @param s          Snapshot taken together with rotate
+     * @param checkpoint Number returned by rotate
+     * @throws IOException if the checkpoint cannot be written
+     */
+    void checkpoint(TableSnapshot s, long checkpoint) throws IOException {
+        writeCheckpoint(directory, prefix, s, checkpoint);
+        removeBefore(directory, prefix, checkpoint);
+    }
+
+    /**
+     * Forces every logged record to disk and closes the current segment
+     *
+     * @throws IOException if the log cannot be written
+     */
+    void close() throws IOException {
+        synchronized (syncLock) {
+            synchronized (this) {
+                writePending();
+                channel.force(false);
+                durable = written;
+                file.close();
+            }
+        }
+    }
+
+    // Reads back the records of a segment and applies them to table.
+    // Returns the length of the segment up to the last complete record.
+    private static long replay(File segment, DbTable table) throws IOException {
+        long length = segment.length();
+        long valid = 0;
+        CRC32 check = new CRC32();
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(segment), 1 << 16));
+        try {
+            while (valid + 8 <= length) {
+                int size = in.readInt();
+                int sum = in.readInt();
+                if (size <= 0 || valid + 8 + size > length) {
+                    break;
+                }
+                byte[] bytes = new byte[size];
+                in.readFully(bytes);
+                check.reset();
+                check.update(bytes, 0, size);
+                if ((int) check.getValue() != sum) {
+                    break;
+                }
+                apply(ByteBuffer.wrap(bytes), table);
+                valid += 8 + size;
+            }
+        } catch (EOFException e) {
+            // The segment ends in a torn record
+        } finally {
+            in.close();
+        }
+        return valid;
+    }
+
+    private static void apply(ByteBuffer in, DbTable table) {
+        byte type = in.get();
+        if (type == INSERT) {
+            String[] values = new String[in.getInt()];
+            for (int i = 0; i < values.length; i++) {
+                values[i] = getString(in);
+            }
+            table.redoInsert(values);
+        } else if (type == DELETE) {
+            table.redoDelete(in.getInt());
+        } else if (type == UPDATE) {
+            int rowId = in.getInt();
+            int slot = in.getInt();
+            table.redoUpdate(rowId, slot, getString(in));
+        } else if (type == CREATE_INDEX) {
+            String columnName = getString(in);
+            table.createIndex(columnName, DbTable.IndexKind.values()[in.getInt()]);
+        } else if (type == COMPACT) {
+            int[] tombstoned = new int[in.getInt()];
+            for (int i = 0; i < tombstoned.length; i++) {
+                tombstoned[i] = in.getInt();
+            }
+            table.redoCompact(tombstoned);
+        } else {
+            throw new IllegalArgumentException("Unknown log record type " + type);
+        }
+    }
+
+    // Writes the image of s to a temporary file and renames it into place, so a checkpoint
+    // file is either complete or absent
+    private static void writeCheckpoint(File directory, String prefix, TableSnapshot s, long checkpoint)
+            throws IOException {
+        File target = new File(directory, prefix + checkpoint + CHECKPOINT_SUFFIX);
+        File temp = new File(directory, prefix + checkpoint + CHECKPOINT_SUFFIX + ".tmp");
+        TableFile.writeImage(s, temp.getPath());
+        Files.move(temp.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    // Removes checkpoints and segments older than checkpoint, and unfinished checkpoint files
+    private static void removeBefore(File directory, String prefix, long checkpoint) {
+        for (String name : listFiles(directory, prefix)) {
+            long seq = Math.max(sequenceOf(name, prefix, CHECKPOINT_SUFFIX), sequenceOf(name, prefix, SEGMENT_SUFFIX));
+            if ((seq >= 0 && seq < checkpoint) || name.endsWith(".tmp")) {
+                new File(directory, name).delete();
+            }
+        }
+    }
+
+    private static ArrayList<String> listFiles(File directory, String prefix) {
+        ArrayList<String> names = new ArrayList<String>();
+        String[] all = directory.list();
+        if (all != null) {
+            for (String name : all) {
+                if (name.startsWith(prefix)) {
+                    names.add(name);
+                }
+            }
+        }
+        return names;
+    }
+
+    // Returns N for a file named prefix + N + suffix, or -1
+    private static long sequenceOf(String name, String prefix, String suffix) {
+        if (!name.startsWith(prefix) || !name.endsWith(suffix) || name.length() == prefix.length() + suffix.length()) {
+            return -1;
+        }
+        String number = name.substring(prefix.length(), name.length() - suffix.length());
+        for (int i = 0; i < number.length(); i++) {
+            if (!Character.isDigit(number.charAt(i))) {
+                return -1;
+            }
+        }
+        return Long.parseLong(number);
+    }
+
+    private void openSegment(long seq) throws IOException {
+        segment = seq;
+        file = new RandomAccessFile(new File(directory, prefix + seq + SEGMENT_SUFFIX), "rw");
+        channel = file.getChannel();
+        channel.position(channel.size());
+        segmentStart = appended;
+    }
+
+    // Frames the payload as a record and buffers it. Caller holds the lock on this log.
+    private long addRecord() throws IOException {
+        payload.flip();
+        crc.reset();
+        crc.update(payload.array(), 0, payload.limit());
+        int size = 8 + payload.limit();
+        if (pending.remaining() < size) {
+            writePending();
+            if (pending.capacity() < size) {
+                pending = ByteBuffer.allocate(Integer.highestOneBit(size) << 1);
+            }
+        }
+        pending.putInt(payload.limit());
+        pending.putInt((int) crc.getValue());
+        pending.put(payload);
+        appended += size;
+        return appended;
+    }
+
+    // Hands buffered records to the channel, without forcing them. Caller holds the lock on this log.
+    private void writePending() throws IOException {
+        pending.flip();
+        while (pending.hasRemaining()) {
+            written += channel.write(pending);
+        }
+        pending.clear();
+    }
+
+    private void putString(String value) {
+        if (value == null) {
+            ensurePayload(4);
+            payload.putInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        ensurePayload(4 + bytes.length);
+        payload.putInt(bytes.length);
+        payload.put(bytes);
+    }
+
+    private void ensurePayload(int bytes) {
+        if (payload.remaining() < bytes) {
+            ByteBuffer grown = ByteBuffer.allocate(Math.max(payload.capacity() * 2, payload.position() + bytes));
+            payload.flip();
+            grown.put(payload);
+            payload = grown;
+        }
+    }
+
+    private static String getString(ByteBuffer in) {
+        int length = in.getInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,41 @@
+/*
+ * Entry point of benchmarks.jar. Takes the usual JMH command line options and always adds
+ * the GC profiler, so every result comes with its allocation rate.
+ *
+ *   java -jar benchmarks.jar                       run every benchmark
+ *   java -jar benchmarks.jar Select -p indexed=true run the matching benchmarks with one parameter fixed
+ *   java -jar benchmarks.jar -l                    list the benchmarks instead of running them
+ */
+
+package bench;
+
+import java.io.IOException;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+public class BenchmarkRunner {
+
+    public static void main(String[] args) throws RunnerException, CommandLineOptionException, IOException {
+        CommandLineOptions cmd = new CommandLineOptions(args);
+        if (cmd.shouldHelp()) {
+            cmd.showHelp();
+            return;
+        }
+        Runner runner = new Runner(new OptionsBuilder()
+                .parent(cmd)
+                .addProfiler(GCProfiler.class)
+                .build());
+        if (cmd.shouldList()) {
+            runner.list();
+        } else if (cmd.shouldListWithParams()) {
+            runner.listWithParams(cmd);
+        } else {
+            runner.run();
+        }
+    }
+}
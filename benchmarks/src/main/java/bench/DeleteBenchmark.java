@@ -0,0 +1,61 @@
+/*
+ * Deleting every row that holds one key.
+ * <p/>
+ * Deleted rows cannot be deleted again, so each measured call needs a freshly built table.
+ * Building it takes far longer than the deletes, so every iteration is one timed call
+ * (SingleShotTime) and the table is built before the iteration, outside the timing, instead of
+ * around each call with Level.Invocation.
+ */
+
+package bench;
+
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 20)
+@Measurement(iterations = 50)
+@Fork(1)
+public class DeleteBenchmark {
+
+    @Param({"10000", "100000"})
+    int tableSize;
+
+    @Param({"10", "10000"})
+    int cardinality;
+
+    @Param({"true", "false"})
+    boolean indexed;
+
+    private Object table;
+    private ArrayList<?> rows;
+
+    @Setup(Level.Iteration)
+    public void setUp() {
+        table = indexed ? Fixture.table(tableSize, cardinality, "key") : Fixture.table(tableSize, cardinality);
+        rows = Tables.select(table, new String[]{"key"}, new String[]{Fixture.pad(0)}, Tables.compareTypes("Equal"));
+    }
+
+    @Benchmark
+    public Object delete() {
+        for (Object row : rows) {
+            Tables.delete(table, row);
+        }
+        return table;
+    }
+}
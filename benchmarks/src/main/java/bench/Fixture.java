@@ -0,0 +1,42 @@
+/*
+ * Tables and rows shared by the benchmarks.
+ */
+
+package bench;
+
+final class Fixture {
+
+    // Every benchmark table has these columns. "id" is unique, "key" has a chosen number of
+    // distinct values and "payload" has one per hundred rows.
+    static final String[] COLUMNS = {"id", "key", "payload"};
+
+    private Fixture() {
+    }
+
+    /**
+     * Returns the values of row i. Numbers are zero-padded so that they compare as strings
+     * in the same order as numbers, which keeps range predicates meaningful.
+     */
+    static String[] row(int i, int cardinality) {
+        return new String[]{pad(i), pad(i % cardinality), pad(i / 100)};
+    }
+
+    static String pad(int n) {
+        String digits = Integer.toString(n);
+        return "0000000000".substring(digits.length()) + digits;
+    }
+
+    /**
+     * Builds a table of rows 0 to size - 1 with an ORDERED index on each of indexed
+     */
+    static Object table(int size, int cardinality, String... indexed) {
+        Object table = Tables.newTable(COLUMNS);
+        for (String column : indexed) {
+            Tables.createIndex(table, column);
+        }
+        for (int i = 0; i < size; i++) {
+            Tables.insert(table, Tables.newRow(COLUMNS, row(i, cardinality)));
+        }
+        return table;
+    }
+}
@@ -0,0 +1,51 @@
+/*
+ * Building an index on a column of a table that is already filled.
+ * <p/>
+ * Indexing a column twice does nothing, so each measured call needs an unindexed table. Every
+ * iteration is one timed call (SingleShotTime) on a table built before the iteration.
+ */
+
+package bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 10)
+@Measurement(iterations = 30)
+@Fork(1)
+public class IndexBuildBenchmark {
+
+    @Param({"10000", "100000"})
+    int tableSize;
+
+    @Param({"10", "10000"})
+    int cardinality;
+
+    private Object table;
+
+    @Setup(Level.Iteration)
+    public void setUp() {
+        table = Fixture.table(tableSize, cardinality);
+    }
+
+    @Benchmark
+    public Object createIndex() {
+        Tables.createIndex(table, "key");
+        return table;
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ * Inserting rows into a table with no, one or every column indexed, one at a time and as
+ * one insertAll batch.
+ */
+
+package bench;
+
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class InsertBenchmark {
+
+    @Param({"10000", "100000"})
+    int tableSize;
+
+    @Param({"10", "10000"})
+    int cardinality;
+
+    // Number of indexed columns
+    @Param({"0", "1", "3"})
+    int indexes;
+
+    private String[][] rows;
+    private String[] indexed;
+
+    @Setup
+    public void setUp() {
+        rows = new String[tableSize][];
+        for (int i = 0; i < tableSize; i++) {
+            rows[i] = Fixture.row(i, cardinality);
+        }
+        indexed = new String[indexes];
+        System.arraycopy(new String[]{"key", "id", "payload"}, 0, indexed, 0, indexes);
+    }
+
+    // Fills a new table with tableSize rows
+    @Benchmark
+    public Object insert() {
+        Object table = Tables.newTable(Fixture.COLUMNS);
+        for (String column : indexed) {
+            Tables.createIndex(table, column);
+        }
+        for (String[] values : rows) {
+            Tables.insert(table, Tables.newRow(Fixture.COLUMNS, values));
+        }
+        return table;
+    }
+
+    // Fills a new table with the same rows in one batch
+    @Benchmark
+    public Object insertAll() {
+        Object table = Tables.newTable(Fixture.COLUMNS);
+        for (String column : indexed) {
+            Tables.createIndex(table, column);
+        }
+        ArrayList<Object> batch = new ArrayList<Object>(rows.length);
+        for (String[] values : rows) {
+            batch.add(Tables.newRow(Fixture.COLUMNS, values));
+        }
+        Tables.insertAll(table, batch);
+        return table;
+    }
+}
@@ -0,0 +1,72 @@
+/*
+ * Selects with two predicates: answered by one select call, and by intersecting the results
+ * of one select per predicate.
+ */
+
+package bench;
+
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MultiPredicateBenchmark {
+
+    @Param({"10000", "100000"})
+    int tableSize;
+
+    @Param({"10", "10000"})
+    int cardinality;
+
+    @Param({"true", "false"})
+    boolean indexed;
+
+    private Object table;
+
+    // key = middle key AND payload < a tenth of the way through the table
+    private final String[] columns = {"key", "payload"};
+    private String[] values;
+    private final Object ctype = Tables.compareTypes("Equal", "LessThan");
+
+    private final String[] keyColumn = {"key"};
+    private final String[] payloadColumn = {"payload"};
+    private final Object equal = Tables.compareTypes("Equal");
+    private final Object lessThan = Tables.compareTypes("LessThan");
+
+    @Setup
+    public void setUp() {
+        table = indexed
+                ? Fixture.table(tableSize, cardinality, "key", "payload")
+                : Fixture.table(tableSize, cardinality);
+        values = new String[]{Fixture.pad(cardinality / 2), Fixture.pad(tableSize / 1000)};
+    }
+
+    @Benchmark
+    public Object select() {
+        return Tables.select(table, columns, values, ctype);
+    }
+
+    @Benchmark
+    public Object intersect() {
+        ArrayList<ArrayList<?>> sets = new ArrayList<ArrayList<?>>();
+        sets.add(Tables.select(table, keyColumn, new String[]{values[0]}, equal));
+        sets.add(Tables.select(table, payloadColumn, new String[]{values[1]}, lessThan));
+        return Tables.intersect(sets);
+    }
+}
@@ -0,0 +1,59 @@
+/*
+ * Saving a table with writeToFile and reading it back with constructFromFile.
+ */
+
+package bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PersistenceBenchmark {
+
+    @Param({"10000", "100000"})
+    int tableSize;
+
+    @Param({"10", "10000"})
+    int cardinality;
+
+    private Object table;
+    private File file;
+
+    @Setup
+    public void setUp() throws IOException {
+        table = Fixture.table(tableSize, cardinality, "key");
+        file = File.createTempFile("table", "");
+    }
+
+    @TearDown
+    public void tearDown() {
+        file.delete();
+        new File(file.getPath() + ".txt").delete();
+    }
+
+    // writeToFile adds ".txt" to the name it is given
+    @Benchmark
+    public Object roundTrip() {
+        Tables.writeToFile(table, file.getPath());
+        return Tables.constructFromFile(file.getPath() + ".txt");
+    }
+}
@@ -0,0 +1,66 @@
+/*
+ * Single-predicate selects with every CompareType, on an indexed and an unindexed column,
+ * run directly and through a PreparedQuery.
+ */
+
+package bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SelectBenchmark {
+
+    @Param({"10000", "100000"})
+    int tableSize;
+
+    @Param({"10", "10000"})
+    int cardinality;
+
+    @Param({"Equal", "NotEqual", "LessThan", "LessEq", "GreaterThan", "GreaterEq"})
+    String compareType;
+
+    @Param({"true", "false"})
+    boolean indexed;
+
+    private Object table;
+    private final String[] columns = {"key"};
+    private String[] values;
+    private Object ctype;
+    private Object prepared;
+
+    @Setup
+    public void setUp() {
+        table = indexed ? Fixture.table(tableSize, cardinality, "key") : Fixture.table(tableSize, cardinality);
+        // A key near the middle, so range predicates select about half the table
+        values = new String[]{Fixture.pad(cardinality / 2)};
+        ctype = Tables.compareTypes(compareType);
+        prepared = Tables.prepare(table, columns, ctype);
+    }
+
+    @Benchmark
+    public Object select() {
+        return Tables.select(table, columns, values, ctype);
+    }
+
+    @Benchmark
+    public Object selectPrepared() {
+        return Tables.selectPrepared(prepared, values);
+    }
+}
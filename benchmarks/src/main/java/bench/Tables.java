@@ -0,0 +1,221 @@
+/*
+ * Access to the table classes from the benchmarks.
+ * <p/>
+ * JMH does not accept benchmarks in the default package, and classes in a named package
+ * cannot import the default package the table lives in, so the benchmarks reach DbTable and
+ * DataObject through method handles. The handles are constants, so the JIT inlines them and
+ * the calls cost the same as direct ones.
+ */
+
+package bench;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Array;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+
+final class Tables {
+
+    private static final Class<?> DB_TABLE = load("DbTable");
+    private static final Class<?> DATA_OBJECT = load("DataObject");
+    private static final Class<?> COMPARE_TYPE = load("DbTable$CompareType");
+    private static final Class<?> COMPARE_TYPES = Array.newInstance(COMPARE_TYPE, 0).getClass();
+    private static final Class<?> PREPARED_QUERY = load("PreparedQuery");
+
+    private static final MethodHandle NEW_TABLE = constructor(DB_TABLE, ArrayList.class);
+    private static final MethodHandle NEW_ROW = constructor(DATA_OBJECT, String[].class, String[].class);
+    private static final MethodHandle INSERT = method(DB_TABLE, "insert", void.class, DATA_OBJECT);
+    private static final MethodHandle INSERT_ALL = method(DB_TABLE, "insertAll", void.class, Collection.class);
+    private static final MethodHandle DELETE = method(DB_TABLE, "delete", void.class, DATA_OBJECT);
+    private static final MethodHandle SELECT = method(DB_TABLE, "select", ArrayList.class,
+            String[].class, String[].class, COMPARE_TYPES);
+    private static final MethodHandle PREPARE = method(DB_TABLE, "prepare", PREPARED_QUERY,
+            String[].class, COMPARE_TYPES);
+    private static final MethodHandle SELECT_PREPARED = method(PREPARED_QUERY, "select", ArrayList.class, String[].class);
+    private static final MethodHandle CREATE_INDEX = method(DB_TABLE, "createIndex", void.class, String.class);
+    private static final MethodHandle WRITE_TO_FILE = method(DB_TABLE, "writeToFile", void.class, String.class);
+    private static final MethodHandle CONSTRUCT_FROM_FILE = staticMethod(DB_TABLE, "constructFromFile",
+            DB_TABLE, String.class);
+    private static final MethodHandle INTERSECT = staticMethod(DB_TABLE, "intersect", ArrayList.class, ArrayList.class);
+
+    private Tables() {
+    }
+
+    static Object newTable(String... columns) {
+        try {
+            return NEW_TABLE.invokeExact((Object) new ArrayList<String>(Arrays.asList(columns)));
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    static Object newRow(String[] columns, String[] values) {
+        try {
+            return NEW_ROW.invokeExact((Object) columns, (Object) values);
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    static void insert(Object table, Object row) {
+        try {
+            INSERT.invokeExact(table, row);
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    static void insertAll(Object table, Collection<?> rows) {
+        try {
+            INSERT_ALL.invokeExact(table, (Object) rows);
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    static void delete(Object table, Object row) {
+        try {
+            DELETE.invokeExact(table, row);
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    /**
+     * @param ctypes Array made by compareTypes
+     */
+    static ArrayList<?> select(Object table, String[] columns, String[] values, Object ctypes) {
+        try {
+            Object found = SELECT.invokeExact(table, (Object) columns, (Object) values, ctypes);
+            return (ArrayList<?>) found;
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    /**
+     * @param ctypes Array made by compareTypes
+     */
+    static Object prepare(Object table, String[] columns, Object ctypes) {
+        try {
+            return PREPARE.invokeExact(table, (Object) columns, ctypes);
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    static ArrayList<?> selectPrepared(Object query, String[] values) {
+        try {
+            Object found = SELECT_PREPARED.invokeExact(query, (Object) values);
+            return (ArrayList<?>) found;
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    static void createIndex(Object table, String column) {
+        try {
+            CREATE_INDEX.invokeExact(table, (Object) column);
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    static void writeToFile(Object table, String fileName) {
+        try {
+            WRITE_TO_FILE.invokeExact(table, (Object) fileName);
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    static Object constructFromFile(String fileName) {
+        try {
+            return CONSTRUCT_FROM_FILE.invokeExact((Object) fileName);
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    static ArrayList<?> intersect(ArrayList<ArrayList<?>> sets) {
+        try {
+            Object found = INTERSECT.invokeExact((Object) sets);
+            return (ArrayList<?>) found;
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    /**
+     * Builds a DbTable.CompareType[] from the names of its constants
+     */
+    static Object compareTypes(String... names) {
+        Object types = Array.newInstance(COMPARE_TYPE, names.length);
+        for (int i = 0; i < names.length; i++) {
+            Array.set(types, i, compareType(names[i]));
+        }
+        return types;
+    }
+
+    private static Object compareType(String name) {
+        for (Object constant : COMPARE_TYPE.getEnumConstants()) {
+            if (((Enum<?>) constant).name().equals(name)) {
+                return constant;
+            }
+        }
+        throw new IllegalArgumentException("No such CompareType: " + name);
+    }
+
+    private static Class<?> load(String name) {
+        try {
+            return Class.forName(name);
+        } catch (ClassNotFoundException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    // Every handle is adapted to take and return Object, so callers can use invokeExact
+    private static MethodHandle constructor(Class<?> owner, Class<?>... parameters) {
+        try {
+            MethodHandle handle = MethodHandles.publicLookup().findConstructor(owner,
+                    MethodType.methodType(void.class, parameters));
+            return handle.asType(handle.type().generic());
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private static MethodHandle method(Class<?> owner, String name, Class<?> returns, Class<?>... parameters) {
+        try {
+            // Fixed arity, so a varargs String[] is passed as the array itself
+            MethodHandle handle = MethodHandles.publicLookup().findVirtual(owner, name,
+                    MethodType.methodType(returns, parameters)).asFixedArity();
+            return handle.asType(handle.type().generic().changeReturnType(returns == void.class ? void.class : Object.class));
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private static MethodHandle staticMethod(Class<?> owner, String name, Class<?> returns, Class<?>... parameters) {
+        try {
+            MethodHandle handle = MethodHandles.publicLookup().findStatic(owner, name,
+                    MethodType.methodType(returns, parameters));
+            return handle.asType(handle.type().generic());
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private static RuntimeException rethrow(Throwable e) {
+        if (e instanceof RuntimeException) {
+            return (RuntimeException) e;
+        }
+        if (e instanceof Error) {
+            throw (Error) e;
+        }
+        return new RuntimeException(e);
+    }
+}